@@ -0,0 +1,36 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.lang.Nullable;
+
+import java.util.Collection;
+
+/**
+ * Decides whether entries loaded in bulk by the collection cache operations are
+ * put into a cache, so that they do not push more valuable entries out of it.
+ *
+ * @see TinyLfuAdmissionPolicy
+ * @see CollectionCacheInterceptor#setAdmissionPolicy
+ */
+public interface AdmissionPolicy {
+
+	/**
+	 * Record a lookup of the given key.
+	 */
+	void recordAccess(String cacheName, Object key);
+
+	/**
+	 * Decide whether the entry of the given key should be put into the cache.
+	 *
+	 * @return the keys to evict from the cache to make room for the entry, or
+	 * {@code null} if the entry is refused
+	 */
+	@Nullable
+	Collection<?> admit(String cacheName, Object key);
+
+	/**
+	 * Record that the entry of the given key has left the cache, or was not put
+	 * after all.
+	 */
+	default void release(String cacheName, Object key) {
+	}
+}
@@ -0,0 +1,181 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter per cache over the keys put by the collection cache operations, so
+ * that the {@link CollectionCacheInterceptor} treats keys never put as misses without
+ * looking them up, e.g. to save the round trips to a remote cache for high-cardinality
+ * ids that are mostly missing.
+ * <p>A Bloom filter cannot forget keys, so every filter is kept as two generations:
+ * puts go to the current one, and lookups check both. Every
+ * {@link #setRebuildInterval rebuild interval}, the current generation becomes the
+ * previous one and a new, empty generation starts, so that the keys evicted from the
+ * cache drop out of the filter after at most two intervals. A key still cached but not
+ * put again for two intervals is then missed and loaded once more, so the interval
+ * should exceed the time to live of the entries.
+ * <p>Only apply it to caches written exclusively by the collection cache operations of
+ * this process: entries put by other means, or by other processes, are not seen and
+ * would be loaded again. A restarted process likewise starts with empty filters.
+ */
+public class CacheBloomFilter {
+
+	private final Set<String> cacheNames;
+
+	private final int words;
+
+	private final int hashFunctions;
+
+	private final ConcurrentMap<String, Generations> filters = new ConcurrentHashMap<>();
+
+	private volatile long rebuildIntervalNanos = Duration.ofHours(1).toNanos();
+
+	/**
+	 * Create a filter for the caches with the given names, each sized for the given
+	 * number of keys at the given false positive probability.
+	 */
+	public CacheBloomFilter(int expectedKeys, double falsePositiveProbability, String... cacheNames) {
+		Assert.isTrue(expectedKeys > 0, "expectedKeys must be positive");
+		Assert.isTrue(falsePositiveProbability > 0 && falsePositiveProbability < 1, "falsePositiveProbability must be in (0, 1)");
+		Assert.notEmpty(cacheNames, "At least one cache name is required");
+		long bits = (long) Math.ceil(-expectedKeys * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+		this.words = (int) Math.min(Integer.MAX_VALUE, Math.max(1, (bits + 63) / 64));
+		this.hashFunctions = Math.max(1, (int) Math.round((double) words * 64 / expectedKeys * Math.log(2)));
+		this.cacheNames = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(cacheNames)));
+	}
+
+	/**
+	 * Set how often the filter of each cache starts a new generation.
+	 * <p>Default is one hour.
+	 */
+	public void setRebuildInterval(Duration rebuildInterval) {
+		Assert.isTrue(!rebuildInterval.isNegative() && !rebuildInterval.isZero(), "rebuildInterval must be positive");
+		this.rebuildIntervalNanos = rebuildInterval.toNanos();
+	}
+
+	/**
+	 * Return whether the given key may have been put into the given cache, which is
+	 * always the case for caches without a filter.
+	 */
+	public boolean mightContain(String cacheName, Object key) {
+		if (!cacheNames.contains(cacheName)) {
+			return true;
+		}
+		Generations generations = getGenerations(cacheName);
+		long hash = mix(key.hashCode());
+		return generations.current.mightContain(hash) || generations.previous.mightContain(hash);
+	}
+
+	/**
+	 * Record that the given key has been put into the given cache.
+	 */
+	public void put(String cacheName, Object key) {
+		if (cacheNames.contains(cacheName)) {
+			getGenerations(cacheName).current.put(mix(key.hashCode()));
+		}
+	}
+
+	/**
+	 * Start a new generation for the given cache right away, e.g. after it was cleared.
+	 */
+	public void rebuild(String cacheName) {
+		if (cacheNames.contains(cacheName)) {
+			getGenerations(cacheName).rotate(System.nanoTime());
+		}
+	}
+
+	private Generations getGenerations(String cacheName) {
+		Generations generations = filters.computeIfAbsent(cacheName, name -> new Generations(System.nanoTime()));
+		long now = System.nanoTime();
+		if (now - generations.rotatedAt >= rebuildIntervalNanos) {
+			synchronized (generations) {
+				if (now - generations.rotatedAt >= rebuildIntervalNanos) {
+					generations.rotate(now);
+				}
+			}
+		}
+		return generations;
+	}
+
+	/**
+	 * The finalizer of MurmurHash3, spreading the 32 bits of a hash code over 64 bits.
+	 */
+	private static long mix(long value) {
+		long h = value;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private final class Generations {
+
+		private volatile Bits current = new Bits();
+
+		private volatile Bits previous = new Bits();
+
+		private volatile long rotatedAt;
+
+		Generations(long now) {
+			this.rotatedAt = now;
+		}
+
+		synchronized void rotate(long now) {
+			previous = current;
+			current = new Bits();
+			rotatedAt = now;
+		}
+	}
+
+	/**
+	 * Bit array of one generation, set by concurrent puts without locking.
+	 */
+	private final class Bits {
+
+		private final AtomicLongArray array = new AtomicLongArray(words);
+
+		void put(long hash) {
+			long bits = (long) words * 64;
+			long h2 = Long.rotateLeft(hash, 32);
+			for (int i = 1; i <= hashFunctions; i++) {
+				long bit = index(hash, h2, i, bits);
+				int word = (int) (bit >>> 6);
+				long mask = 1L << bit;
+				if ((array.get(word) & mask) == 0) {
+					array.getAndUpdate(word, value -> value | mask);
+				}
+			}
+		}
+
+		boolean mightContain(long hash) {
+			long bits = (long) words * 64;
+			long h2 = Long.rotateLeft(hash, 32);
+			for (int i = 1; i <= hashFunctions; i++) {
+				long bit = index(hash, h2, i, bits);
+				if ((array.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Return the bit of the given hash function, combining two hashes in 64 bits,
+		 * so that filters of more than 2^31 bits use all of them.
+		 */
+		private long index(long h1, long h2, int i, long bits) {
+			return Long.remainderUnsigned(h1 + i * h2, bits);
+		}
+	}
+}
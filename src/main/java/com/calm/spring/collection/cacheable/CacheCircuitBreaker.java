@@ -0,0 +1,155 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.util.Assert;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Circuit breaker skipping a cache that keeps failing or responding slowly.
+ * <p>Every cache is tracked by name. After {@link #setFailureThreshold failureThreshold}
+ * consecutive calls failed or took longer than the {@link #setSlowCallThresholdMillis
+ * slow call threshold}, the circuit of the cache opens and the
+ * {@link CollectionCacheInterceptor} treats it as a miss without calling it. Once the
+ * {@link #setCoolDownMillis cool-down} has passed, a single trial call is let through,
+ * which closes the circuit again if it succeeds in time, or reopens it otherwise.
+ */
+public class CacheCircuitBreaker {
+
+	private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+	private int failureThreshold = 5;
+
+	private long slowCallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(500);
+
+	private long coolDownMillis = 10_000;
+
+	/**
+	 * Set the number of consecutive failed or slow calls opening the circuit.
+	 * <p>Default is {@code 5}.
+	 */
+	public void setFailureThreshold(int failureThreshold) {
+		Assert.isTrue(failureThreshold > 0, "failureThreshold must be positive");
+		this.failureThreshold = failureThreshold;
+	}
+
+	/**
+	 * Set the duration from which a successful call is counted as failed.
+	 * <p>Default is {@code 500}.
+	 */
+	public void setSlowCallThresholdMillis(long slowCallThresholdMillis) {
+		Assert.isTrue(slowCallThresholdMillis > 0, "slowCallThresholdMillis must be positive");
+		this.slowCallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowCallThresholdMillis);
+	}
+
+	/**
+	 * Set how long an open circuit skips the cache before a trial call is let through.
+	 * <p>Default is {@code 10000}.
+	 */
+	public void setCoolDownMillis(long coolDownMillis) {
+		Assert.isTrue(coolDownMillis > 0, "coolDownMillis must be positive");
+		this.coolDownMillis = coolDownMillis;
+	}
+
+	/**
+	 * Return whether the given cache may be called. Once the cool-down has passed,
+	 * this returns {@code true} for a single trial call only.
+	 */
+	public boolean allowRequest(String cacheName) {
+		Circuit circuit = circuits.get(cacheName);
+		return circuit == null || circuit.allowRequest(System.currentTimeMillis());
+	}
+
+	/**
+	 * Record a call to the given cache that returned after the given duration.
+	 */
+	public void onSuccess(String cacheName, long elapsedNanos) {
+		if (elapsedNanos >= slowCallThresholdNanos) {
+			onFailure(cacheName);
+			return;
+		}
+		Circuit circuit = circuits.get(cacheName);
+		if (circuit != null) {
+			circuit.onSuccess();
+		}
+	}
+
+	/**
+	 * Record a call to the given cache that threw an exception.
+	 */
+	public void onFailure(String cacheName) {
+		circuits.computeIfAbsent(cacheName, name -> new Circuit())
+				.onFailure(failureThreshold, System.currentTimeMillis() + coolDownMillis);
+	}
+
+	public boolean isOpen(String cacheName) {
+		Circuit circuit = circuits.get(cacheName);
+		return circuit != null && circuit.isOpen();
+	}
+
+	/**
+	 * Close the circuit of the given cache.
+	 */
+	public void reset(String cacheName) {
+		circuits.remove(cacheName);
+	}
+
+	/**
+	 * State of the circuit of one cache, read without locking on every lookup: only
+	 * the transition to the trial call is a compare-and-set, so that exactly one caller
+	 * wins it.
+	 */
+	private static final class Circuit {
+
+		private static final int CLOSED = 0;
+
+		private static final int OPEN = 1;
+
+		private static final int TRIAL_RUNNING = 2;
+
+		private final AtomicInteger state = new AtomicInteger(CLOSED);
+
+		private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+		private volatile long openUntil;
+
+		boolean allowRequest(long now) {
+			int current = state.get();
+			if (current == CLOSED) {
+				return true;
+			}
+			return current == OPEN && now >= openUntil && state.compareAndSet(OPEN, TRIAL_RUNNING);
+		}
+
+		/**
+		 * Close the circuit if this was the trial call. A success of a call started
+		 * before the circuit opened leaves an open circuit open.
+		 */
+		void onSuccess() {
+			int current = state.get();
+			if (current == TRIAL_RUNNING) {
+				if (state.compareAndSet(TRIAL_RUNNING, CLOSED)) {
+					consecutiveFailures.set(0);
+				}
+			}
+			else if (current == CLOSED && consecutiveFailures.get() != 0) {
+				consecutiveFailures.set(0);
+			}
+		}
+
+		void onFailure(int failureThreshold, long openUntil) {
+			int failures = consecutiveFailures.incrementAndGet();
+			if (state.get() == TRIAL_RUNNING || failures >= failureThreshold) {
+				// publish the end of the cool-down before the state reading it
+				this.openUntil = openUntil;
+				state.set(OPEN);
+			}
+		}
+
+		boolean isOpen() {
+			return state.get() != CLOSED;
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Byte budget per cache for the entries written by the collection cache operations.
+ * <p>The {@link CollectionCacheInterceptor} weighs every entry with a {@link Weigher}
+ * before putting it. An entry that does not fit into the budget of its cache is
+ * refused, or, if {@link #setEvictOnOverflow evictOnOverflow} is set, the oldest
+ * entries are evicted until it fits.
+ * <p>The budget only counts what it observes: the puts and evictions of the collection
+ * cache operations of this process. The weight of an entry is released once it is
+ * evicted, or once it reaches its time to live, taken from the {@code ttl} it was put
+ * with into an {@link ExpiringCache}, or else from the {@link #setTimeToLive time to
+ * live} of its cache, which should match the expiration configured on the cache.
+ * Entries removed by the cache before that, e.g. by its own size-based eviction, still
+ * count until then, so the tracked weight is an upper bound.
+ */
+public class CacheWeightBudget {
+
+	private final Weigher weigher;
+
+	private final ConcurrentMap<String, Long> budgets = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Duration> timesToLive = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, WeightedEntries> weights = new ConcurrentHashMap<>();
+
+	private long defaultBudget = Long.MAX_VALUE;
+
+	@Nullable
+	private Duration defaultTimeToLive;
+
+	private boolean evictOnOverflow;
+
+	public CacheWeightBudget(Weigher weigher) {
+		Assert.notNull(weigher, "Weigher must not be null");
+		this.weigher = weigher;
+	}
+
+	/**
+	 * Set the budget, in bytes, of the cache with the given name.
+	 */
+	public void setBudget(String cacheName, long maxWeight) {
+		Assert.isTrue(maxWeight > 0, "maxWeight must be positive");
+		this.budgets.put(cacheName, maxWeight);
+	}
+
+	/**
+	 * Set the budget of the caches without a budget of their own.
+	 * <p>Default is {@link Long#MAX_VALUE}, meaning unlimited.
+	 */
+	public void setDefaultBudget(long defaultBudget) {
+		Assert.isTrue(defaultBudget > 0, "defaultBudget must be positive");
+		this.defaultBudget = defaultBudget;
+	}
+
+	/**
+	 * Set after how long the weight of an entry of the cache with the given name is
+	 * released, if it was put without a {@code ttl} of its own.
+	 */
+	public void setTimeToLive(String cacheName, Duration timeToLive) {
+		Assert.isTrue(!timeToLive.isNegative() && !timeToLive.isZero(), "timeToLive must be positive");
+		this.timesToLive.put(cacheName, timeToLive);
+	}
+
+	/**
+	 * Set the time to live of the weights of the caches without one of their own.
+	 * <p>Default is none, meaning the weights of entries put without a {@code ttl}
+	 * are only released on eviction.
+	 */
+	public void setDefaultTimeToLive(@Nullable Duration defaultTimeToLive) {
+		Assert.isTrue(defaultTimeToLive == null || (!defaultTimeToLive.isNegative() && !defaultTimeToLive.isZero()),
+				"defaultTimeToLive must be positive");
+		this.defaultTimeToLive = defaultTimeToLive;
+	}
+
+	/**
+	 * Set whether the oldest entries are evicted to make room for an entry exceeding
+	 * the budget, instead of refusing it.
+	 * <p>Default is {@code false}.
+	 */
+	public void setEvictOnOverflow(boolean evictOnOverflow) {
+		this.evictOnOverflow = evictOnOverflow;
+	}
+
+	/**
+	 * Reserve the weight of an entry about to be put without a time to live of its own.
+	 *
+	 * @see #reserve(String, Object, Object, Duration)
+	 */
+	@Nullable
+	public List<Object> reserve(String cacheName, Object key, @Nullable Object value) {
+		return reserve(cacheName, key, value, null);
+	}
+
+	/**
+	 * Reserve the weight of an entry about to be put, replacing the weight of a
+	 * previous entry with the same key. A refused entry leaves the weights untouched,
+	 * as the previous entry stays cached.
+	 *
+	 * @param timeToLive the time to live the entry is put with, or {@code null} for the
+	 * {@link #setTimeToLive time to live} of the cache
+	 * @return the keys to evict from the cache so that the entry fits, or {@code null}
+	 * if the entry is refused
+	 */
+	@Nullable
+	public List<Object> reserve(String cacheName, Object key, @Nullable Object value, @Nullable Duration timeToLive) {
+		long weight = weigher.weigh(key, value);
+		long budget = budgets.getOrDefault(cacheName, defaultBudget);
+		if (weight > budget) {
+			return null;
+		}
+		Duration ttl = timeToLive != null ? timeToLive : timesToLive.getOrDefault(cacheName, defaultTimeToLive);
+		long now = System.nanoTime();
+		long expiresAt = ttl != null ? now + ttl.toNanos() : Long.MAX_VALUE;
+		WeightedEntries entries = weights.computeIfAbsent(cacheName, name -> new WeightedEntries());
+		synchronized (entries) {
+			entries.expire(now);
+			Weighted previous = entries.weights.get(key);
+			long others = entries.total - (previous != null ? previous.weight : 0);
+			if (others + weight > budget) {
+				// entries with a shorter time to live may have expired further back
+				entries.expireAll(now);
+				previous = entries.weights.get(key);
+				others = entries.total - (previous != null ? previous.weight : 0);
+			}
+			if (others + weight <= budget) {
+				entries.remove(key);
+				entries.add(key, weight, expiresAt);
+				return Collections.emptyList();
+			}
+			if (!evictOnOverflow) {
+				return null;
+			}
+			List<Object> victims = new ArrayList<>();
+			Iterator<Map.Entry<Object, Weighted>> oldest = entries.weights.entrySet().iterator();
+			while (others + weight > budget) {
+				Map.Entry<Object, Weighted> victim = oldest.next();
+				if (victim.getKey().equals(key)) {
+					continue;
+				}
+				others -= victim.getValue().weight;
+				entries.total -= victim.getValue().weight;
+				victims.add(victim.getKey());
+				oldest.remove();
+			}
+			entries.remove(key);
+			entries.add(key, weight, expiresAt);
+			return victims;
+		}
+	}
+
+	/**
+	 * Release the weight of an entry removed from the cache.
+	 */
+	public void release(String cacheName, Object key) {
+		WeightedEntries entries = weights.get(cacheName);
+		if (entries != null) {
+			synchronized (entries) {
+				entries.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Return the current weight, in bytes, of the given cache.
+	 */
+	public long getWeight(String cacheName) {
+		WeightedEntries entries = weights.get(cacheName);
+		if (entries == null) {
+			return 0;
+		}
+		synchronized (entries) {
+			entries.expireAll(System.nanoTime());
+			return entries.total;
+		}
+	}
+
+	/**
+	 * Return the current weight of every cache written so far, by cache name.
+	 */
+	public Map<String, Long> getWeights() {
+		Map<String, Long> result = new LinkedHashMap<>();
+		for (String cacheName : weights.keySet()) {
+			result.put(cacheName, getWeight(cacheName));
+		}
+		return result;
+	}
+
+	private static final class Weighted {
+
+		final long weight;
+
+		final long expiresAt;
+
+		Weighted(long weight, long expiresAt) {
+			this.weight = weight;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired(long now) {
+			return expiresAt != Long.MAX_VALUE && now - expiresAt >= 0;
+		}
+	}
+
+	/**
+	 * The weights of one cache, in the order they were written.
+	 */
+	private static final class WeightedEntries {
+
+		private final LinkedHashMap<Object, Weighted> weights = new LinkedHashMap<>();
+
+		private long total;
+
+		void add(Object key, long weight, long expiresAt) {
+			weights.put(key, new Weighted(weight, expiresAt));
+			total += weight;
+		}
+
+		void remove(Object key) {
+			Weighted weighted = weights.remove(key);
+			if (weighted != null) {
+				total -= weighted.weight;
+			}
+		}
+
+		/**
+		 * Release the expired weights written first, which are all the expired ones
+		 * as long as the entries share the same time to live.
+		 */
+		void expire(long now) {
+			Iterator<Weighted> oldest = weights.values().iterator();
+			while (oldest.hasNext()) {
+				Weighted weighted = oldest.next();
+				if (!weighted.isExpired(now)) {
+					return;
+				}
+				total -= weighted.weight;
+				oldest.remove();
+			}
+		}
+
+		void expireAll(long now) {
+			Iterator<Weighted> all = weights.values().iterator();
+			while (all.hasNext()) {
+				Weighted weighted = all.next();
+				if (weighted.isExpired(now)) {
+					total -= weighted.weight;
+					all.remove();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.util.Assert;
+
+import java.lang.reflect.Method;
+
+public class CollectionCacheBatchedOperation extends CollectionCacheOperation {
+
+	private final Method collectionMethod;
+
+	private final int maxBatchSize;
+
+	private final long batchWindowMillis;
+
+	public CollectionCacheBatchedOperation(Builder b) {
+		super(b);
+		Assert.notNull(b.collectionMethod, "collectionMethod must not be null");
+		this.collectionMethod = b.collectionMethod;
+		this.maxBatchSize = b.maxBatchSize;
+		this.batchWindowMillis = b.batchWindowMillis;
+	}
+
+	/**
+	 * Return the method invoked with the ids of a batch.
+	 */
+	public Method getCollectionMethod() {
+		return collectionMethod;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public long getBatchWindowMillis() {
+		return batchWindowMillis;
+	}
+
+	public static class Builder extends CollectionCacheOperation.Builder {
+
+		private Method collectionMethod;
+
+		private int maxBatchSize = 100;
+
+		private long batchWindowMillis = 2;
+
+		public void setCollectionMethod(Method collectionMethod) {
+			this.collectionMethod = collectionMethod;
+		}
+
+		public void setMaxBatchSize(int maxBatchSize) {
+			this.maxBatchSize = maxBatchSize;
+		}
+
+		public void setBatchWindowMillis(long batchWindowMillis) {
+			this.batchWindowMillis = batchWindowMillis;
+		}
+
+		@Override
+		protected StringBuilder getOperationDescription() {
+			StringBuilder sb = super.getOperationDescription();
+			sb.append(" | collectionMethod='");
+			sb.append(this.collectionMethod != null ? this.collectionMethod.getName() : null);
+			sb.append("' | maxBatchSize='");
+			sb.append(this.maxBatchSize);
+			sb.append("' | batchWindowMillis='");
+			sb.append(this.batchWindowMillis);
+			sb.append("'");
+			return sb;
+		}
+
+		@Override
+		public CollectionCacheBatchedOperation build() {
+			return new CollectionCacheBatchedOperation(this);
+		}
+	}
+}
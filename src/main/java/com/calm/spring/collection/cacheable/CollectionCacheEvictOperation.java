@@ -20,12 +20,37 @@ import org.springframework.cache.interceptor.CacheEvictOperation;
 
 public class CollectionCacheEvictOperation extends CacheEvictOperation {
 
+    private final int collectionArgumentIndex;
+
     public CollectionCacheEvictOperation(Builder b) {
         super(b);
+        this.collectionArgumentIndex = b.collectionArgumentIndex;
+    }
+
+    /**
+     * Return the index of the parameter holding the ids, or {@code -1} if there is none.
+     */
+    public int getCollectionArgumentIndex() {
+        return collectionArgumentIndex;
     }
 
     public static class Builder extends CacheEvictOperation.Builder {
 
+        private int collectionArgumentIndex = -1;
+
+        public void setCollectionArgumentIndex(int collectionArgumentIndex) {
+            this.collectionArgumentIndex = collectionArgumentIndex;
+        }
+
+        @Override
+        protected StringBuilder getOperationDescription() {
+            StringBuilder sb = super.getOperationDescription();
+            sb.append(" | collectionArgumentIndex='");
+            sb.append(this.collectionArgumentIndex);
+            sb.append("'");
+            return sb;
+        }
+
         @Override
         public CollectionCacheEvictOperation build() {
             return new CollectionCacheEvictOperation(this);
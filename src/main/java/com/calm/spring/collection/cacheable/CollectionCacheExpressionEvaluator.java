@@ -0,0 +1,67 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.context.expression.AnnotatedElementKey;
+import org.springframework.context.expression.CachedExpressionEvaluator;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Evaluates the per-element SpEL expressions of the collection cache operations,
+ * which only refer to a single element of the result as {@code #result}.
+ */
+class CollectionCacheExpressionEvaluator extends CachedExpressionEvaluator {
+
+	private static final String RESULT_VARIABLE = "result";
+
+	private final Map<ExpressionKey, Expression> resultKeyCache = new ConcurrentHashMap<>(64);
+
+	private final Map<ExpressionKey, Expression> ttlCache = new ConcurrentHashMap<>(64);
+
+	private final Map<ExpressionKey, Expression> elementUnlessCache = new ConcurrentHashMap<>(64);
+
+	/**
+	 * Create an evaluation context to be reused for all elements of one invocation.
+	 */
+	public EvaluationContext createEvaluationContext() {
+		return new StandardEvaluationContext();
+	}
+
+	public Object resultKey(String resultKeyExpression, AnnotatedElementKey methodKey,
+			EvaluationContext evalContext, Object element) {
+		evalContext.setVariable(RESULT_VARIABLE, element);
+		return getExpression(this.resultKeyCache, methodKey, resultKeyExpression).getValue(evalContext);
+	}
+
+	public boolean elementUnless(String elementUnlessExpression, AnnotatedElementKey methodKey,
+			EvaluationContext evalContext, @Nullable Object element) {
+		evalContext.setVariable(RESULT_VARIABLE, element);
+		return Boolean.TRUE.equals(getExpression(this.elementUnlessCache, methodKey, elementUnlessExpression).getValue(
+				evalContext, Boolean.class));
+	}
+
+	/**
+	 * Evaluate the time to live of one entry, in a context of its own so that entries
+	 * may be put concurrently.
+	 */
+	@Nullable
+	public Duration ttl(String ttlExpression, AnnotatedElementKey methodKey, @Nullable Object element) {
+		EvaluationContext evalContext = createEvaluationContext();
+		evalContext.setVariable(RESULT_VARIABLE, element);
+		Object ttl = getExpression(this.ttlCache, methodKey, ttlExpression).getValue(evalContext);
+		if (ttl == null || ttl instanceof Duration) {
+			return (Duration) ttl;
+		}
+		if (ttl instanceof Number) {
+			return Duration.ofMillis(((Number) ttl).longValue());
+		}
+		throw new IllegalStateException("Expecting ttl expression '" + ttlExpression +
+				"' to return a Duration or a number of milliseconds, but got " + ttl.getClass().getName());
+	}
+}
@@ -1,28 +1,376 @@
 package com.calm.spring.collection.cacheable;
 
+import com.calm.spring.collection.cacheable.annotation.Admission;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.ProxyMethodInvocation;
 import org.springframework.aop.framework.AopProxyUtils;
 import org.springframework.cache.Cache;
 import org.springframework.cache.interceptor.CacheInterceptor;
 import org.springframework.cache.interceptor.CacheOperation;
 import org.springframework.cache.interceptor.CacheOperationInvoker;
 import org.springframework.cache.interceptor.CacheOperationSource;
+import org.springframework.cache.support.SimpleValueWrapper;
+import org.springframework.context.expression.AnnotatedElementKey;
+import org.springframework.expression.EvaluationContext;
 import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.CollectionUtils;
+import org.springframework.util.ConcurrentReferenceHashMap;
 import org.springframework.util.ObjectUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Collectors;
 
 public class CollectionCacheInterceptor extends CacheInterceptor {
 
 	private static final Object NO_RESULT = new Object();
 
+	/**
+	 * Marks a key that was looked up and missed, as opposed to one not looked up.
+	 */
+	private static final Cache.ValueWrapper LOOKUP_MISSED = new SimpleValueWrapper(null);
+
+	/**
+	 * The number of pages indexed per cache, beyond which the oldest page is evicted.
+	 */
+	private static final int MAX_INDEXED_PAGES = 10_000;
+
+	/**
+	 * The number of cached ids between two gaps of a range, up to which both gaps are
+	 * loaded by one invocation, reloading those ids, rather than by an invocation each.
+	 */
+	private static final int RANGE_GAP_MERGE_DISTANCE = 16;
+
+	/**
+	 * The number of invocations loading the gaps of a range, beyond which the method is
+	 * invoked once for everything from the first to the last gap.
+	 */
+	private static final int MAX_RANGE_LOADS = 4;
+
+	private final CollectionCacheExpressionEvaluator evaluator = new CollectionCacheExpressionEvaluator();
+
+	private final ConcurrentMap<CacheOperation, HitRatioTracker> hitRatioTrackers = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<CacheOperation, CompletableFuture<Map<?, ?>>> snapshotLoads = new ConcurrentHashMap<>();
+
+	/**
+	 * The background loads of operations with a deadline, by operation and by the key
+	 * of every id being loaded, joined by invocations requesting the same ids.
+	 */
+	private final ConcurrentMap<CacheOperation, ConcurrentMap<Object, CompletableFuture<Map<Object, Object>>>> backgroundLoads = new ConcurrentHashMap<>();
+
+	private final PageIndex pageIndex = new PageIndex(MAX_INDEXED_PAGES);
+
+	private final RangeIndex rangeIndex = new RangeIndex();
+
+	/**
+	 * The batchers of each operation by target, held weakly so that the batchers of
+	 * discarded targets, e.g. of prototype or refreshed beans, go with them.
+	 */
+	private final ConcurrentMap<CacheOperation, Map<Object, MicroBatcher>> batchers = new ConcurrentHashMap<>();
+
+	private double hitRatioDecay = 0.1;
+
+	private int hitRatioProbeInterval = 16;
+
+	@Nullable
+	private Executor fanOutExecutor;
+
+	private int fanOutThreshold = 64;
+
+	@Nullable
+	private Executor backgroundLoadExecutor;
+
+	@Nullable
+	private HotKeyTracker hotKeyTracker;
+
+	@Nullable
+	private AdmissionPolicy admissionPolicy;
+
+	@Nullable
+	private CacheCircuitBreaker circuitBreaker;
+
+	@Nullable
+	private CacheWeightBudget weightBudget;
+
+	@Nullable
+	private CacheBloomFilter bloomFilter;
+
+	@Nullable
+	private CollectionCacheTuningRegistry tuningRegistry;
+
+	@Nullable
+	private InvalidationBus invalidationBus;
+
+	private final InvalidationBus.Listener invalidationListener = this::onRemoteInvalidation;
+
+	/**
+	 * The number of writes of each cache by put and evict operations, local or remote,
+	 * so that background puts can tell whether an entry changed since they loaded it.
+	 */
+	private final ConcurrentMap<String, AtomicLong> writeGenerations = new ConcurrentHashMap<>();
+
+	private final Set<CacheOperation> registeredOperations = ConcurrentHashMap.newKeySet();
+
+	private volatile boolean initialized;
+
+	/**
+	 * Set the executor used to look up and put the entries of large collections
+	 * concurrently, e.g. one created by {@link FanOutExecutors#newFanOutExecutor}, and
+	 * the entries of operations with a lookup budget, so that a slow lookup does not
+	 * hold up the caller beyond the budget.
+	 * <p>Default is none, meaning all cache I/O happens on the calling thread.
+	 */
+	public void setFanOutExecutor(@Nullable Executor fanOutExecutor) {
+		this.fanOutExecutor = fanOutExecutor;
+	}
+
+	/**
+	 * Set the minimum number of entries for which the cache I/O is fanned out, which
+	 * is also the number of entries handled per task.
+	 * <p>Default is {@code 64}.
+	 */
+	public void setFanOutThreshold(int fanOutThreshold) {
+		Assert.isTrue(fanOutThreshold > 0, "fanOutThreshold must be positive");
+		this.fanOutThreshold = fanOutThreshold;
+	}
+
+	/**
+	 * Set the executor invoking the methods of operations with a
+	 * {@link com.calm.spring.collection.cacheable.annotation.CollectionCacheable#deadlineMillis()
+	 * deadline}, which keep running there after the deadline has passed, and putting
+	 * the entries of operations tuned to
+	 * {@link CollectionCacheOperationTuning.Population#WRITE_BEHIND write-behind}.
+	 * The executor should be bounded, and reject or run on the caller when saturated.
+	 * <p>Default is none, which is only allowed as long as no operation has a deadline,
+	 * and puts all entries on the calling thread. Background puts are skipped for the
+	 * caches written to by put or evict operations since the entries were loaded.
+	 */
+	public void setBackgroundLoadExecutor(@Nullable Executor backgroundLoadExecutor) {
+		this.backgroundLoadExecutor = backgroundLoadExecutor;
+	}
+
+	/**
+	 * Set the tracker counting the keys looked up by the collection operations, whose
+	 * hot keys are then served from an in-process tier in front of the caches.
+	 * <p>Default is none.
+	 */
+	public void setHotKeyTracker(@Nullable HotKeyTracker hotKeyTracker) {
+		this.hotKeyTracker = hotKeyTracker;
+	}
+
+	/**
+	 * Register an operation as soon as it is parsed, before its first invocation, so
+	 * that its configuration is validated against this interceptor on startup, and its
+	 * settings are exposed by the {@link #setTuningRegistry tuning registry}.
+	 * @throws IllegalStateException if the operation cannot run on this interceptor
+	 * @see CollectionCacheableCacheAnnotationParser#addOperationListener
+	 */
+	public void registerOperation(CacheOperation operation) {
+		if (!registeredOperations.add(operation)) {
+			return;
+		}
+		if (initialized) {
+			validateOperation(operation);
+		}
+		CollectionCacheTuningRegistry registry = this.tuningRegistry;
+		if (registry != null) {
+			registerTuning(registry, operation);
+		}
+	}
+
+	/**
+	 * Validate the operations registered so far, once the interceptor is configured.
+	 */
+	@Override
+	public void afterSingletonsInstantiated() {
+		super.afterSingletonsInstantiated();
+		// before validating, so that operations registered concurrently validate themselves
+		this.initialized = true;
+		for (CacheOperation operation : registeredOperations) {
+			validateOperation(operation);
+		}
+	}
+
+	private void validateOperation(CacheOperation operation) {
+		if (operation instanceof CollectionCacheableOperation && ((CollectionCacheableOperation) operation).getDeadlineMillis() > 0
+				&& this.backgroundLoadExecutor == null) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" + operation +
+					"'. 'deadlineMillis' requires a background load executor on the CollectionCacheInterceptor.");
+		}
+	}
+
+	@Nullable
+	public HotKeyTracker getHotKeyTracker() {
+		return hotKeyTracker;
+	}
+
+	/**
+	 * Set the policy deciding which entries loaded by the collection operations are
+	 * put into the caches, e.g. a {@link TinyLfuAdmissionPolicy}.
+	 * <p>Default is none, meaning all loaded entries are put.
+	 */
+	public void setAdmissionPolicy(@Nullable AdmissionPolicy admissionPolicy) {
+		this.admissionPolicy = admissionPolicy;
+	}
+
+	/**
+	 * Set the circuit breaker skipping caches that keep failing or responding slowly
+	 * when looking up and loading entries. Puts of {@code @CollectionCachePut} and
+	 * evictions are never skipped, so that no stale entry survives a recovery.
+	 * <p>Default is none.
+	 */
+	public void setCircuitBreaker(@Nullable CacheCircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	@Nullable
+	public CacheCircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Set the byte budget per cache limiting the entries put by the collection operations.
+	 * <p>Default is none, meaning entries are put regardless of their size.
+	 */
+	public void setWeightBudget(@Nullable CacheWeightBudget weightBudget) {
+		this.weightBudget = weightBudget;
+	}
+
+	@Nullable
+	public CacheWeightBudget getWeightBudget() {
+		return weightBudget;
+	}
+
+	/**
+	 * Set the Bloom filter recording the keys put by the collection operations, whose
+	 * lookups are skipped for keys the filter rules out.
+	 * <p>Default is none, meaning all keys are looked up.
+	 */
+	public void setBloomFilter(@Nullable CacheBloomFilter bloomFilter) {
+		this.bloomFilter = bloomFilter;
+	}
+
+	@Nullable
+	public CacheBloomFilter getBloomFilter() {
+		return bloomFilter;
+	}
+
+	/**
+	 * Set the registry holding the runtime settings and counters of the collection
+	 * operations, e.g. to switch caching off for an operation during an incident.
+	 * <p>Default is none, meaning all operations run as annotated. The operations
+	 * registered so far are registered with the given registry right away.
+	 */
+	public void setTuningRegistry(@Nullable CollectionCacheTuningRegistry tuningRegistry) {
+		this.tuningRegistry = tuningRegistry;
+		if (tuningRegistry != null) {
+			for (CacheOperation operation : registeredOperations) {
+				registerTuning(tuningRegistry, operation);
+			}
+		}
+	}
+
+	private static void registerTuning(CollectionCacheTuningRegistry registry, CacheOperation operation) {
+		if (operation instanceof CollectionCacheableOperation || operation instanceof CollectionCacheBatchedOperation) {
+			registry.getTuning(operation);
+		}
+	}
+
+	@Nullable
+	public CollectionCacheTuningRegistry getTuningRegistry() {
+		return tuningRegistry;
+	}
+
+	/**
+	 * Set the bus broadcasting the keys evicted by {@code @CollectionCacheEvict} and
+	 * updated by {@code @CollectionCachePut} to the other nodes, and evicting the keys
+	 * they broadcast from the local caches and in-process tiers of this interceptor.
+	 * <p>Default is none.
+	 */
+	public void setInvalidationBus(@Nullable InvalidationBus invalidationBus) {
+		if (this.invalidationBus != null) {
+			this.invalidationBus.removeListener(invalidationListener);
+		}
+		if (invalidationBus != null) {
+			invalidationBus.addListener(invalidationListener);
+		}
+		this.invalidationBus = invalidationBus;
+	}
+
+	@Nullable
+	public InvalidationBus getInvalidationBus() {
+		return invalidationBus;
+	}
+
+	/**
+	 * Set the weight of the latest invocation in the decaying hit ratio used by
+	 * {@link com.calm.spring.collection.cacheable.annotation.CollectionCacheable#minHitRatio()}.
+	 * <p>Default is {@code 0.1}.
+	 */
+	public void setHitRatioDecay(double hitRatioDecay) {
+		Assert.isTrue(hitRatioDecay > 0 && hitRatioDecay <= 1, "hitRatioDecay must be in (0, 1]");
+		this.hitRatioDecay = hitRatioDecay;
+	}
+
+	/**
+	 * Set every how many bypassed invocations the cache is still looked up, so
+	 * that a recovering hit ratio is detected.
+	 * <p>Default is {@code 16}.
+	 */
+	public void setHitRatioProbeInterval(int hitRatioProbeInterval) {
+		Assert.isTrue(hitRatioProbeInterval > 0, "hitRatioProbeInterval must be positive");
+		this.hitRatioProbeInterval = hitRatioProbeInterval;
+	}
+
+	/**
+	 * Intercept as the {@link CacheInterceptor}, with an invoker that can proceed more
+	 * than once through the advice nested inside this interceptor, e.g. once per gap of
+	 * a range.
+	 */
+	@Override
+	@Nullable
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		Object target = invocation.getThis();
+		Assert.state(target != null, "Target must not be null");
+		try {
+			return execute(new ReinvocableInvoker(invocation), target, invocation.getMethod(), invocation.getArguments());
+		}
+		catch (CacheOperationInvoker.ThrowableWrapper th) {
+			throw th.getOriginal();
+		}
+	}
+
 	@Override
 	protected Object execute(CacheOperationInvoker invoker, Object target, Method method, Object[] invocationArgs) {
 		Class<?> targetClass = AopProxyUtils.ultimateTargetClass(target);
@@ -54,6 +402,9 @@ public class CollectionCacheInterceptor extends CacheInterceptor {
 	private Object handleCollectionCache(Collection<CacheOperation> operation, Class<?> targetClass, CacheOperationInvoker invoker, Object target, Method method, Object[] invocationArgs) {
 		CacheOperation cacheOperation = operation.parallelStream().filter(e -> e instanceof CollectionCacheableOperation).findFirst().orElse(null);
 		if (cacheOperation != null) {
+			if (!isEnabled(cacheOperation)) {
+				return invokeOperation(invoker);
+			}
 			return processCollectionCacheable((CollectionCacheableOperation) cacheOperation, targetClass, invoker, target, method, invocationArgs);
 		}
 
@@ -68,21 +419,28 @@ public class CollectionCacheInterceptor extends CacheInterceptor {
 		if (cacheOperation != null) {
 			return processCollectionCacheEvict((CollectionCacheEvictOperation) cacheOperation, targetClass, invoker, target, method, invocationArgs);
 		}
+		cacheOperation = operation.parallelStream().filter(e -> e instanceof CollectionCacheBatchedOperation).findFirst().orElse(null);
+		if (cacheOperation != null) {
+			return processCollectionCacheBatched((CollectionCacheBatchedOperation) cacheOperation, targetClass, target, method, invocationArgs);
+		}
 		return invokeOperation(invoker);
 	}
 
 	private Object processCollectionCacheEvict(CollectionCacheEvictOperation operation, Class<?> targetClass, CacheOperationInvoker invoker, Object target, Method method, Object... invocationArgs) {
-		CollectionCacheableOperationContext context = getCollectionCacheableOperationContext(operation, method, target, targetClass);
-		Collection<?> idsArgument = injectCollectionArgument(invocationArgs);
+		int collectionArgumentIndex = operation.getCollectionArgumentIndex();
+		CollectionCacheableOperationContext context = getCollectionCacheableOperationContext(operation, method, target, targetClass, invocationArgs, collectionArgumentIndex);
+		Collection<?> idsArgument = injectCollectionArgument(invocationArgs, collectionArgumentIndex);
 		if (!context.isConditionPassingWithArgument(idsArgument)) {
 			return invokeMethod(invoker);
 		}
 		for (Object id : idsArgument) {
 			Object key = context.generateKeyFromSingleArgument(id);
 			for (Cache cache : context.getCaches()) {
-				doEvict(cache, key, true);
+				evictFromCache(cache, key);
+				publishInvalidation(cache, key);
 			}
 		}
+		invalidateSnapshots(context);
 		return invoker.invoke();
 	}
 
@@ -96,132 +454,1543 @@ public class CollectionCacheInterceptor extends CacheInterceptor {
 //		}
 		Collection<?> result = (Collection<?>) invoker.invoke();
 		putUncachedResultToCache(result, context);
+		invalidateSnapshots(context);
 		return result;
 	}
 
 
+	/**
+	 * Serve a single id from the caches, or else load it along with the ids missed by
+	 * concurrent callers, by one invocation of the collection method.
+	 */
+	@Nullable
+	private Object processCollectionCacheBatched(CollectionCacheBatchedOperation operation, Class<?> targetClass, Object target, Method method, Object[] invocationArgs) {
+		Object id = invocationArgs[0];
+		if (!isEnabled(operation)) {
+			Method collectionMethod = operation.getCollectionMethod();
+			ReflectionUtils.makeAccessible(collectionMethod);
+			Object result = ReflectionUtils.invokeMethod(collectionMethod, target, Collections.singletonList(id));
+			return result instanceof Map ? ((Map<?, ?>) result).get(id) : null;
+		}
+		CollectionCacheableOperationContext context = getCollectionCacheableOperationContext(operation, method, target, targetClass);
+		Cache.ValueWrapper cacheHit = findInCaches(context, context.generateKeyFromSingleArgument(id));
+		CollectionCacheOperationTuning tuning = getTuning(operation);
+		if (tuning != null) {
+			tuning.recordLookup(cacheHit != null ? 1 : 0, 1);
+		}
+		if (cacheHit != null) {
+			return cacheHit.get();
+		}
+		Map<Object, MicroBatcher> targetBatchers = batchers.computeIfAbsent(operation,
+				key -> new ConcurrentReferenceHashMap<>(16, ConcurrentReferenceHashMap.ReferenceType.WEAK));
+		MicroBatcher batcher = targetBatchers.get(target);
+		if (batcher == null) {
+			// the batcher must not hold on to the target, or the target would never be released
+			WeakReference<Object> targetRef = new WeakReference<>(target);
+			batcher = targetBatchers.computeIfAbsent(target, key -> new MicroBatcher(
+					() -> getBatchSize(operation), operation.getBatchWindowMillis(),
+					ids -> loadBatch(operation, targetClass, getBatchTarget(targetRef), method, ids)));
+		}
+		return batcher.load(id);
+	}
+
+	private int getBatchSize(CollectionCacheBatchedOperation operation) {
+		CollectionCacheOperationTuning tuning = getTuning(operation);
+		return tuning != null && tuning.getBatchSize() > 0 ? tuning.getBatchSize() : operation.getMaxBatchSize();
+	}
+
+	/**
+	 * Return the target of a batch, still referenced by the callers waiting for it.
+	 */
+	private static Object getBatchTarget(WeakReference<Object> targetRef) {
+		Object target = targetRef.get();
+		Assert.state(target != null, "Target of batch released");
+		return target;
+	}
+
+	/**
+	 * Invoke the collection method with the ids of a batch, and cache the returned entries.
+	 */
+	private Map<?, ?> loadBatch(CollectionCacheBatchedOperation operation, Class<?> targetClass, Object target, Method method, List<Object> ids) {
+		Method collectionMethod = operation.getCollectionMethod();
+		ReflectionUtils.makeAccessible(collectionMethod);
+		Object result = ReflectionUtils.invokeMethod(collectionMethod, target, ids);
+		if (!(result instanceof Map)) {
+			throw new IllegalStateException("Expecting result of invocation to be a Map");
+		}
+		// a new context, as the batch is loaded on the thread of one of its callers
+		putUncachedResultToCache((Map<?, ?>) result, getCollectionCacheableOperationContext(operation, method, target, targetClass));
+		return (Map<?, ?>) result;
+	}
+
 	@Nullable
 	private Object unwrapReturnValue(Object returnValue) {
 		return ObjectUtils.unwrapOptional(returnValue);
 	}
 
-	private Map processCollectionCacheable(CollectionCacheableOperation operation, Class<?> targetClass, CacheOperationInvoker invoker, Object target, Method method, Object[] invocationArgs) {
-		CollectionCacheableOperationContext context = getCollectionCacheableOperationContext(operation, method, target, targetClass);
+	private Object processCollectionCacheable(CollectionCacheableOperation operation, Class<?> targetClass, CacheOperationInvoker invoker, Object target, Method method, Object[] invocationArgs) {
+		CollectionCacheableOperationContext context = getCollectionCacheableOperationContext(operation, method, target, targetClass, invocationArgs, operation.getCollectionArgumentIndex());
+		InvocationRecording recording = InvocationRecordings.begin(method, targetClass, operation.getCacheNames());
+		if (recording == null) {
+			return processCollectionCacheable(operation, context, invoker, method, targetClass, invocationArgs);
+		}
+		context.setRecording(recording);
+		try {
+			return processCollectionCacheable(operation, context, invoker, method, targetClass, invocationArgs);
+		}
+		finally {
+			recording.commit();
+		}
+	}
+
+	private Object processCollectionCacheable(CollectionCacheableOperation operation, CollectionCacheableOperationContext context, CacheOperationInvoker invoker, Method method, Class<?> targetClass, Object[] invocationArgs) {
+		if (operation.isRange()) {
+			return processRange(context, invoker, invocationArgs);
+		}
+		if (operation.isListResult()) {
+			return processCollectionCacheableList(operation, context, invoker, method, targetClass, invocationArgs);
+		}
 
+		if (operation.isFindAll() && operation.isSnapshot()) {
+			return processSnapshot(operation, context, invoker);
+		}
 		if (operation.isFindAll()) {
-			Map<?, ?> uncachedResult = invokeMethod(invoker);
-			putUncachedResultToCache(uncachedResult, context);
+			Map<?, ?> uncachedResult = invokeMethod(invoker, context, -1);
+			populate(uncachedResult, context);
 			return uncachedResult;
 		}
 
-		Collection<Object> idsArgument = injectCollectionArgument(invocationArgs);
+		Collection<Object> idsArgument = injectCollectionArgument(invocationArgs, operation.getCollectionArgumentIndex());
 		if (!context.isConditionPassingWithArgument(idsArgument)) {
-			return invokeMethod(invoker);
+			return invokeMethod(invoker, context, idsArgument.size());
 		}
 
-		Map<Object, Object> result = new HashMap<>();
-		Iterator<Object> idIterator = idsArgument.iterator();
-		while (idIterator.hasNext()) {
-			Object id = idIterator.next();
-			Object key = context.generateKeyFromSingleArgument(id);
-			Cache.ValueWrapper cacheHit = findInCaches(context, key);
-			if (cacheHit != null) {
-				result.put(id, cacheHit.get());
-				idIterator.remove();
-			}
+		HitRatioTracker hitRatioTracker = getHitRatioTracker(operation);
+		if (hitRatioTracker != null && !hitRatioTracker.shouldLookup()) {
+			Map<?, ?> uncachedResult = invokeMethod(invoker, context, idsArgument.size());
+			populate(uncachedResult, context);
+			return uncachedResult;
 		}
+
+		long deadline = getDeadline(operation);
+		Map<Object, Object> result = findCachedEntries(context, idsArgument, hitRatioTracker);
 		if (!idsArgument.isEmpty()) {
-			Map<?, ?> uncachedResult = invokeMethod(invoker);
+			Map<Object, Object> uncachedResult;
+			if (deadline != 0) {
+				// loads still running go on, and cache the missing entries for later invocations
+				uncachedResult = loadWithinDeadline(invoker, context, idsArgument, deadline);
+			}
+			else {
+				uncachedResult = invokeMethod(invoker, context, idsArgument.size());
+				populate(uncachedResult, context);
+			}
+			if (operation.isCompositeResult()) {
+				return new CompositeResultMap<>(result, uncachedResult);
+			}
 			result.putAll(uncachedResult);
-			putUncachedResultToCache(uncachedResult, context);
 		}
 		return result;
 	}
 
-	private void putUncachedResultToCache(Map<?, ?> uncachedResult, CollectionCacheableOperationContext context) {
-		if (context.canPutToCache(uncachedResult)) {
-			for (Map.Entry<?, ?> entry : uncachedResult.entrySet()) {
-				Object key = context.generateKeyFromSingleArgument(entry.getKey());
-				for (Cache cache : context.getCaches()) {
-					doPut(cache, key, entry.getValue());
-				}
+	/**
+	 * Serve the indexed spans of a range of ids from the caches, and invoke the method
+	 * for the remaining gaps, with the bounds of each of them.
+	 * <p>Gaps separated by only a few cached ids are loaded together, and the number of
+	 * invocations is capped, beyond which the method is invoked once from the first to
+	 * the last gap. Every invocation runs through the advice nested inside this
+	 * interceptor, e.g. a transaction, or else the gaps are loaded by one invocation.
+	 */
+	private Map<Object, Object> processRange(CollectionCacheableOperationContext context, CacheOperationInvoker invoker, Object[] invocationArgs) {
+		long from = (Long) invocationArgs[0];
+		long to = (Long) invocationArgs[1];
+		if (from > to) {
+			return invokeMethod(invoker, context, 0);
+		}
+		List<String> cacheNames = context.getCaches().stream().map(Cache::getName).collect(Collectors.toList());
+		NavigableMap<Long, Object> hits = findCachedRange(context, rangeIndex.covered(cacheNames, from, to));
+
+		// the gaps between the hits, which are ascending and within the range
+		List<long[]> gaps = new ArrayList<>();
+		long gapStart = from;
+		boolean trailingGap = true;
+		for (long id : hits.keySet()) {
+			if (id > gapStart) {
+				gaps.add(new long[]{gapStart, id - 1});
+			}
+			if (id == to) {
+				trailingGap = false;
+				break;
+			}
+			gapStart = id + 1;
+		}
+		if (trailingGap) {
+			gaps.add(new long[]{gapStart, to});
+		}
+		boolean reinvocable = invoker instanceof ReinvocableInvoker && ((ReinvocableInvoker) invoker).canReinvoke();
+		gaps = mergeGaps(gaps, reinvocable ? MAX_RANGE_LOADS : 1);
+
+		// the invokers are created before the first one proceeds along the advice chain
+		List<CacheOperationInvoker> loads = new ArrayList<>(gaps.size());
+		for (long[] gap : gaps) {
+			if (gaps.size() == 1) {
+				loads.add(invoker);
+			}
+			else {
+				Object[] gapArgs = invocationArgs.clone();
+				gapArgs[0] = gap[0];
+				gapArgs[1] = gap[1];
+				loads.add(((ReinvocableInvoker) invoker).withArguments(gapArgs));
+			}
+		}
+		NavigableMap<Long, Object> result = new TreeMap<>(hits);
+		for (int i = 0; i < gaps.size(); i++) {
+			loadRange(context, loads.get(i), invocationArgs, gaps.get(i)[0], gaps.get(i)[1], result);
+		}
+		invocationArgs[0] = from;
+		invocationArgs[1] = to;
+		return new LinkedHashMap<>(result);
+	}
+
+	/**
+	 * Merge the gaps separated by at most {@link #RANGE_GAP_MERGE_DISTANCE} cached ids,
+	 * and all of them if they are more than the given maximum.
+	 */
+	private static List<long[]> mergeGaps(List<long[]> gaps, int maxGaps) {
+		if (gaps.size() <= 1) {
+			return gaps;
+		}
+		List<long[]> merged = new ArrayList<>(gaps.size());
+		for (long[] gap : gaps) {
+			long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			// unsigned, as the distance between the ends of a range exceeds a long
+			if (last != null && Long.compareUnsigned(gap[0] - last[1] - 1, RANGE_GAP_MERGE_DISTANCE) <= 0) {
+				last[1] = gap[1];
+			}
+			else {
+				merged.add(new long[]{gap[0], gap[1]});
 			}
 		}
+		if (merged.size() > maxGaps) {
+			return Collections.singletonList(new long[]{merged.get(0)[0], merged.get(merged.size() - 1)[1]});
+		}
+		return merged;
 	}
 
-	private void putUncachedResultToCache(Collection<?> elements, CollectionCacheableOperationContext context) {
-		for (Object obj : elements) {
-			Object key = context.generateKeyFromSingleArgument(obj);
-			for (Cache cache : context.getCaches()) {
-				doPut(cache, key, obj);
+	/**
+	 * Look up the ids of the given spans, and drop the ids whose lookup missed from
+	 * the index of the caches that were actually called, as they expired or were
+	 * evicted by the cache itself. Ids not looked up, once the lookup budget is spent,
+	 * or skipped by the circuit breaker or the Bloom filter, stay indexed.
+	 *
+	 * @return the hits, by id
+	 */
+	private NavigableMap<Long, Object> findCachedRange(CollectionCacheableOperationContext context, List<long[]> spans) {
+		NavigableMap<Long, Object> hits = new TreeMap<>();
+		long deadline = getLookupDeadline(context);
+		int requested = 0;
+		for (long[] span : spans) {
+			for (long id = span[0]; !isPast(deadline); id++) {
+				requested++;
+				Object key = context.generateKeyFromSingleArgument(id);
+				Cache.ValueWrapper cacheHit = findInCaches(context, key);
+				if (cacheHit != null) {
+					hits.put(id, cacheHit.get());
+				}
+				else {
+					for (Cache cache : context.getCaches()) {
+						if (!isLookupSkipped(cache, key)) {
+							rangeIndex.remove(cache.getName(), id);
+						}
+					}
+				}
+				if (id == span[1]) {
+					break;
+				}
 			}
 		}
+		CollectionCacheOperationTuning tuning = getTuning(context.getOperation());
+		if (tuning != null) {
+			tuning.recordLookup(hits.size(), requested);
+		}
+		InvocationRecording recording = context.getRecording();
+		if (recording != null) {
+			recording.recordLookup(requested, requested, hits.size());
+		}
+		return hits;
 	}
 
+	/**
+	 * Return whether {@link #findInCaches} did not call the given cache for the given
+	 * key, or could not tell a miss.
+	 */
+	private boolean isLookupSkipped(Cache cache, Object key) {
+		CacheBloomFilter filter = this.bloomFilter;
+		CacheCircuitBreaker breaker = this.circuitBreaker;
+		return (filter != null && !filter.mightContain(cache.getName(), key))
+				|| (breaker != null && breaker.isOpen(cache.getName()));
+	}
 
-	private Map invokeMethod(CacheOperationInvoker invoker) {
-		Object result = invoker.invoke();
-		if (result instanceof Map) {
-			return (Map) result;
+	/**
+	 * Invoke the method for the ids from {@code from} to {@code to}, cache the result,
+	 * and index the spans of the ids it returned, which replace the hits in between.
+	 */
+	private void loadRange(CollectionCacheableOperationContext context, CacheOperationInvoker invoker, Object[] invocationArgs, long from, long to, NavigableMap<Long, Object> loaded) {
+		invocationArgs[0] = from;
+		invocationArgs[1] = to;
+		Map<Object, Object> uncachedResult = invokeMethod(invoker, context, (int) Math.min(to - from + 1, Integer.MAX_VALUE));
+		putUncachedResultToCache(uncachedResult, context);
+		loaded.subMap(from, true, to, true).clear();
+		List<Long> ids = new ArrayList<>(uncachedResult.size());
+		for (Map.Entry<Object, Object> entry : uncachedResult.entrySet()) {
+			if (entry.getKey() instanceof Long && (Long) entry.getKey() >= from && (Long) entry.getKey() <= to) {
+				ids.add((Long) entry.getKey());
+				loaded.put((Long) entry.getKey(), entry.getValue());
+			}
 		}
-		throw new IllegalStateException("Expecting result of invocation to be a Map");
+		if (ids.isEmpty() || !context.canPutToCache(uncachedResult)) {
+			return;
+		}
+		ids.sort(null);
+		long spanStart = ids.get(0);
+		long spanEnd = spanStart;
+		for (long id : ids.subList(1, ids.size())) {
+			if (id != spanEnd + 1) {
+				addIndexedSpan(context, spanStart, spanEnd);
+				spanStart = id;
+			}
+			spanEnd = id;
+		}
+		addIndexedSpan(context, spanStart, spanEnd);
 	}
 
-	@Nullable
-	private Cache.ValueWrapper findInCaches(CollectionCacheableOperationContext context, Object key) {
+	private void addIndexedSpan(CollectionCacheableOperationContext context, long from, long to) {
 		for (Cache cache : context.getCaches()) {
-			Cache.ValueWrapper wrapper = doGet(cache, key);
-			if (wrapper != null) {
-				return wrapper;
-			}
+			rangeIndex.add(cache.getName(), from, to);
 		}
-		return null;
 	}
 
-	private Collection<Object> injectCollectionArgument(Object[] invocationArgs) {
-		if (invocationArgs.length == 1 && invocationArgs[0] instanceof Collection) {
-			Collection<Object> foundCollection = new LinkedList<>((Collection<?>) invocationArgs[0]);
-			invocationArgs[0] = foundCollection;
-			return foundCollection;
+	/**
+	 * Return the {@link System#nanoTime()} at which the deadline of the operation
+	 * passes, or {@code 0} if it has none.
+	 */
+	private static long getDeadline(CollectionCacheableOperation operation) {
+		if (operation.getDeadlineMillis() <= 0) {
+			return 0;
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(operation.getDeadlineMillis());
+		return deadline != 0 ? deadline : 1;
+	}
+
+	/**
+	 * Invoke the method on the background load executor for the given ids and cache
+	 * its result, waiting for it until the given deadline. Ids already being loaded in
+	 * the background, e.g. by an invocation that passed its deadline, are not loaded
+	 * again but wait for that load, so that a slow method is not invoked once more per
+	 * invocation. The recording of the invocation covers the loads up to the deadline.
+	 * <p>A load finishing after the deadline does not put its entries into the caches
+	 * written to since it started, e.g. by a {@code @CollectionCacheEvict}, as they may
+	 * be stale by then.
+	 *
+	 * @return the entries loaded in time, lacking the ids still loading
+	 */
+	private Map<Object, Object> loadWithinDeadline(CacheOperationInvoker invoker, CollectionCacheableOperationContext context, Collection<Object> idsArgument, long deadline) {
+		Executor executor = this.backgroundLoadExecutor;
+		// validated on registration of the operation, unless reset since
+		Assert.state(executor != null, "No background load executor set for " + context.getOperation());
+		ConcurrentMap<Object, CompletableFuture<Map<Object, Object>>> inFlight =
+				backgroundLoads.computeIfAbsent(context.getOperation(), operation -> new ConcurrentHashMap<>());
+		CompletableFuture<Map<Object, Object>> load = new CompletableFuture<>();
+		Map<CompletableFuture<Map<Object, Object>>, List<Object>> joinedLoads = new LinkedHashMap<>();
+		List<Object> keys = new ArrayList<>(idsArgument.size());
+		Iterator<Object> idIterator = idsArgument.iterator();
+		while (idIterator.hasNext()) {
+			Object id = idIterator.next();
+			Object key = context.generateKeyFromSingleArgument(id);
+			CompletableFuture<Map<Object, Object>> running = inFlight.putIfAbsent(key, load);
+			if (running != null) {
+				joinedLoads.computeIfAbsent(running, joined -> new ArrayList<>()).add(id);
+				idIterator.remove();
+			}
+			else {
+				keys.add(key);
+			}
+		}
+		InvocationRecording recording = context.getRecording();
+		if (recording != null) {
+			recording.beginLoad(idsArgument.size());
+		}
+		if (!idsArgument.isEmpty()) {
+			// the load may outlive the invocation, and with it its recording
+			CollectionCacheableOperationContext backgroundContext = context.detach();
+			try {
+				executor.execute(() -> {
+					try {
+						Map<Object, Object> uncachedResult = invokeMethod(invoker, backgroundContext, keys.size());
+						putUncachedResultToCache(uncachedResult, backgroundContext);
+						load.complete(uncachedResult);
+					}
+					catch (Throwable ex) {
+						load.completeExceptionally(ex);
+					}
+				});
+			}
+			catch (RuntimeException ex) {
+				load.completeExceptionally(ex);
+			}
+			load.whenComplete((loaded, failure) -> {
+				for (Object key : keys) {
+					inFlight.remove(key, load);
+				}
+			});
+		}
+		Map<Object, Object> uncachedResult = new HashMap<>();
+		try {
+			if (!idsArgument.isEmpty()) {
+				Map<Object, Object> loaded = awaitLoad(load, deadline);
+				if (loaded != null) {
+					uncachedResult.putAll(loaded);
+				}
+				else {
+					load.whenComplete((loadedLater, failure) -> {
+						if (failure != null) {
+							logger.warn("Background load of " + context.getOperation() + " failed", failure);
+						}
+					});
+				}
+			}
+			for (Map.Entry<CompletableFuture<Map<Object, Object>>, List<Object>> joined : joinedLoads.entrySet()) {
+				Map<Object, Object> loaded = awaitLoad(joined.getKey(), deadline);
+				if (loaded != null) {
+					for (Object id : joined.getValue()) {
+						Object value = loaded.get(id);
+						if (value != null) {
+							uncachedResult.put(id, value);
+						}
+					}
+				}
+			}
+			return uncachedResult;
+		}
+		finally {
+			if (recording != null) {
+				recording.endLoad(uncachedResult.size());
+			}
 		}
-		throw new IllegalStateException("Did not find exactly one Collection argument");
 	}
 
+	/**
+	 * Wait for the given load until the given deadline.
+	 *
+	 * @return the result of the load, or {@code null} if it is still loading
+	 */
 	@Nullable
-	private CollectionCacheableOperation findCollectionCacheableOperation(@Nullable Collection<CacheOperation> operations) {
-		if (operations == null) {
+	private static Map<Object, Object> awaitLoad(CompletableFuture<Map<Object, Object>> load, long deadline) {
+		try {
+			return load.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+		catch (TimeoutException ex) {
 			return null;
 		}
-		List<CollectionCacheableOperation> collectionCacheableOperations = operations.stream()
-				.filter(o -> o instanceof CollectionCacheableOperation)
-				.map(o -> (CollectionCacheableOperation) o)
-				.collect(Collectors.toList());
-		if (collectionCacheableOperations.isEmpty()) {
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
 			return null;
 		}
-		if (collectionCacheableOperations.size() == 1) {
-			return collectionCacheableOperations.get(0);
+		catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			if (ex.getCause() instanceof Error) {
+				throw (Error) ex.getCause();
+			}
+			throw new IllegalStateException(ex.getCause());
 		}
-		throw new IllegalStateException("Found more than one @CollectionCacheable annotation");
 	}
 
-	protected CollectionCacheableOperationContext getCollectionCacheableOperationContext(
-			CacheOperation operation, Method method, Object target, Class<?> targetClass) {
-		CacheOperationMetadata metadata = getCacheOperationMetadata(operation, method, targetClass);
-		Object[] currentArgs = new Object[]{null};
-		return new CollectionCacheableOperationContext(metadata, currentArgs, target);
+	/**
+	 * Serve a {@code findAll} from the cached snapshot, or else invoke the method once
+	 * for all concurrent callers and cache its result as snapshot and per id.
+	 * <p>Both paths return a read-only map.
+	 */
+	private Map<?, ?> processSnapshot(CollectionCacheableOperation operation, CollectionCacheableOperationContext context, CacheOperationInvoker invoker) {
+		Object snapshotKey = CollectionCacheSnapshot.key(context.getMethod(), AopProxyUtils.ultimateTargetClass(context.getTarget()));
+		CollectionCacheSnapshot cachedSnapshot = findSnapshot(context, snapshotKey);
+		if (cachedSnapshot != null) {
+			return cachedSnapshot.getEntries();
+		}
+		CompletableFuture<Map<?, ?>> snapshotLoad = new CompletableFuture<>();
+		CompletableFuture<Map<?, ?>> runningLoad = snapshotLoads.putIfAbsent(operation, snapshotLoad);
+		if (runningLoad != null) {
+			try {
+				return runningLoad.join();
+			}
+			catch (CompletionException ex) {
+				if (ex.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) ex.getCause();
+				}
+				throw ex;
+			}
+		}
+		try {
+			// read before loading, so that an invalidation during the load outdates the snapshot
+			Map<Cache, String> versions = new LinkedHashMap<>();
+			for (Cache cache : context.getCaches()) {
+				versions.put(cache, getSnapshotVersion(cache));
+			}
+			Map<?, ?> uncachedResult = invokeMethod(invoker, context, -1);
+			putUncachedResultToCache(uncachedResult, context);
+			Map<?, ?> entries = Collections.unmodifiableMap(uncachedResult);
+			if (context.canPutToCache(uncachedResult)) {
+				// a ttl expression refers to single entries, only a fixed ttl applies to the snapshot
+				Duration ttl = operation.getTtl();
+				for (Map.Entry<Cache, String> version : versions.entrySet()) {
+					Cache cache = version.getKey();
+					CollectionCacheSnapshot snapshot = new CollectionCacheSnapshot(uncachedResult, version.getValue());
+					if (putToCache(context, cache, snapshotKey, snapshot, cache instanceof ExpiringCache ? ttl : null)) {
+						entries = snapshot.getEntries();
+					}
+				}
+			}
+			snapshotLoad.complete(entries);
+			return entries;
+		}
+		catch (RuntimeException | Error ex) {
+			snapshotLoad.completeExceptionally(ex);
+			throw ex;
+		}
+		finally {
+			snapshotLoads.remove(operation, snapshotLoad);
+		}
 	}
 
-	protected class CollectionCacheableOperationContext extends CacheOperationContext {
-		private final Object[] currentArgs;
-
-		public CollectionCacheableOperationContext(CacheOperationMetadata metadata, Object[] currentArgs, Object target) {
-			super(metadata, currentArgs, target);
-			this.currentArgs = currentArgs;
+	@Nullable
+	private CollectionCacheSnapshot findSnapshot(CollectionCacheableOperationContext context, Object snapshotKey) {
+		for (Cache cache : context.getCaches()) {
+			Cache.ValueWrapper wrapper = doGet(cache, snapshotKey);
+			if (wrapper == null || !(wrapper.get() instanceof CollectionCacheSnapshot)) {
+				continue;
+			}
+			CollectionCacheSnapshot snapshot = (CollectionCacheSnapshot) wrapper.get();
+			Cache.ValueWrapper version = doGet(cache, CollectionCacheSnapshot.VERSION_KEY);
+			if (version != null && snapshot.getVersion().equals(version.get())) {
+				return snapshot;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Return the current snapshot version of the given cache, starting a new one if
+	 * there is none.
+	 */
+	private String getSnapshotVersion(Cache cache) {
+		String version = UUID.randomUUID().toString();
+		try {
+			Cache.ValueWrapper existing = cache.putIfAbsent(CollectionCacheSnapshot.VERSION_KEY, version);
+			if (existing != null && existing.get() instanceof String) {
+				return (String) existing.get();
+			}
+		}
+		catch (RuntimeException ex) {
+			getErrorHandler().handleCachePutError(ex, cache, CollectionCacheSnapshot.VERSION_KEY, version);
+		}
+		return version;
+	}
+
+	/**
+	 * Evict the snapshot version of the caches, outdating all their snapshots instead of
+	 * patching them, as concurrent read-modify-write cycles on a shared cache could
+	 * resurrect evicted entries.
+	 */
+	private void invalidateSnapshots(CollectionCacheableOperationContext context) {
+		for (Cache cache : context.getCaches()) {
+			doEvict(cache, CollectionCacheSnapshot.VERSION_KEY, true);
+			publishInvalidation(cache, CollectionCacheSnapshot.VERSION_KEY);
+		}
+	}
+
+	private Collection<?> processCollectionCacheableList(CollectionCacheableOperation operation, CollectionCacheableOperationContext context, CacheOperationInvoker invoker, Method method, Class<?> targetClass, Object[] invocationArgs) {
+		AnnotatedElementKey methodKey = new AnnotatedElementKey(method, targetClass);
+		if (operation.isPage()) {
+			return processPage(operation, context, invoker, method, methodKey, invocationArgs);
+		}
+		if (operation.isFindAll()) {
+			Collection<?> uncachedResult = invokeCollectionMethod(invoker, context, -1);
+			putUncachedElementsToCache(uncachedResult, context, operation, methodKey);
+			return uncachedResult;
+		}
+
+		// the list result repeats the elements of duplicate ids, which are only loaded once
+		Collection<?> requestedIds = getCollectionArgument(invocationArgs, operation.getCollectionArgumentIndex());
+		Collection<Object> idsArgument = injectCollectionArgument(invocationArgs, operation.getCollectionArgumentIndex());
+		boolean deduplicated = idsArgument.size() < requestedIds.size();
+		if (!context.isConditionPassingWithArgument(idsArgument)) {
+			invocationArgs[operation.getCollectionArgumentIndex()] = requestedIds;
+			return invokeCollectionMethod(invoker, context, requestedIds.size());
+		}
+
+		HitRatioTracker hitRatioTracker = getHitRatioTracker(operation);
+		if (hitRatioTracker != null && !hitRatioTracker.shouldLookup()) {
+			Collection<?> uncachedResult = invokeCollectionMethod(invoker, context, idsArgument.size());
+			Map<Object, Object> loaded = putUncachedElementsToCache(uncachedResult, context, operation, methodKey);
+			return deduplicated ? mergeInRequestedOrder(requestedIds, Collections.emptyMap(), loaded) : uncachedResult;
+		}
+
+		Map<Object, Object> hits = findCachedEntries(context, idsArgument, hitRatioTracker);
+		if (idsArgument.isEmpty()) {
+			return mergeInRequestedOrder(requestedIds, hits, Collections.emptyMap());
+		}
+		Collection<?> uncachedResult = invokeCollectionMethod(invoker, context, idsArgument.size());
+		Map<Object, Object> loaded = putUncachedElementsToCache(uncachedResult, context, operation, methodKey);
+		if (hits.isEmpty() && !deduplicated) {
+			// nothing to merge, the method was invoked with all requested ids
+			return uncachedResult;
+		}
+		return mergeInRequestedOrder(requestedIds, hits, loaded);
+	}
+
+	/**
+	 * Serve a page from its cached index and the cached elements, or else invoke the
+	 * method and cache the elements per id and the ids on the page as index.
+	 */
+	private Collection<?> processPage(CollectionCacheableOperation operation, CollectionCacheableOperationContext context, CacheOperationInvoker invoker, Method method, AnnotatedElementKey methodKey, Object[] invocationArgs) {
+		Object pageKey = CollectionCachePage.key(ClassUtils.getQualifiedMethodName(method), invocationArgs);
+		CollectionCachePage cachedPage = findPage(context, pageKey);
+		if (cachedPage != null) {
+			Collection<Object> missingIds = new LinkedList<>(cachedPage.getIds());
+			Map<Object, Object> hits = findCachedEntries(context, missingIds, null);
+			if (missingIds.isEmpty()) {
+				return mergeInRequestedOrder(cachedPage.getIds(), hits, Collections.emptyMap());
+			}
+			// an element of the page is gone, the page may have changed as well
+		}
+		Collection<?> uncachedResult = invokeCollectionMethod(invoker, context, -1);
+		Map<Object, Object> loaded = putUncachedElementsToCache(uncachedResult, context, operation, methodKey);
+		if (context.canPutToCache(uncachedResult)) {
+			List<Object> ids = new ArrayList<>(uncachedResult.size());
+			List<Object> keys = new ArrayList<>(uncachedResult.size());
+			for (Object id : loaded.keySet()) {
+				ids.add(id);
+				keys.add(context.generateKeyFromSingleArgument(id));
+			}
+			CollectionCachePage page = new CollectionCachePage(ids);
+			// a ttl expression refers to single entries, only a fixed ttl applies to the page
+			Duration ttl = operation.getTtl();
+			for (Cache cache : context.getCaches()) {
+				boolean expiring = ttl != null && cache instanceof ExpiringCache;
+				for (Object droppedPageKey : pageIndex.register(cache.getName(), pageKey, keys, expiring ? ttl : null)) {
+					evictFromCache(cache, droppedPageKey);
+				}
+				if (!putToCache(context, cache, pageKey, page, expiring ? ttl : null)) {
+					// a previous version of the page would go stale unindexed
+					pageIndex.unregister(cache.getName(), pageKey);
+					evictFromCache(cache, pageKey);
+				}
+			}
+		}
+		return uncachedResult;
+	}
+
+	@Nullable
+	private CollectionCachePage findPage(CollectionCacheableOperationContext context, Object pageKey) {
+		for (Cache cache : context.getCaches()) {
+			Cache.ValueWrapper wrapper = doGet(cache, pageKey);
+			if (wrapper != null && wrapper.get() instanceof CollectionCachePage) {
+				return (CollectionCachePage) wrapper.get();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Evict the pages containing the given element, as they may have changed with it.
+	 */
+	private void invalidatePages(Cache cache, Object key) {
+		for (Object pageKey : pageIndex.remove(cache.getName(), key)) {
+			doEvict(cache, pageKey, true);
+		}
+	}
+
+	private Map<Object, Object> findCachedEntries(CollectionCacheableOperationContext context, Collection<Object> idsArgument, @Nullable HitRatioTracker hitRatioTracker) {
+		int requested = idsArgument.size();
+		// a lookup budget is only enforced on a single slow lookup off the calling thread
+		boolean budgeted = ((CollectionCacheableOperation) context.getOperation()).getLookupBudgetMillis() > 0;
+		if (isFanOut(requested) || (budgeted && fanOutExecutor != null && requested > 0)) {
+			return findCachedEntriesConcurrently(context, idsArgument, hitRatioTracker);
+		}
+		Map<Object, Object> result = newHashMap(requested);
+		InvocationRecording recording = context.getRecording();
+		long deadline = getLookupDeadline(context);
+		int lookedUp = 0;
+		Iterator<Object> idIterator = idsArgument.iterator();
+		while (idIterator.hasNext() && !isPast(deadline)) {
+			Object id = idIterator.next();
+			lookedUp++;
+			long start = recording != null ? System.nanoTime() : 0;
+			Object key = context.generateKeyFromSingleArgument(id);
+			long generated = recording != null ? System.nanoTime() : 0;
+			Cache.ValueWrapper cacheHit = findInCaches(context, key);
+			if (recording != null) {
+				recording.recordKeyGeneration(generated - start);
+				recording.recordCacheIo(System.nanoTime() - generated);
+			}
+			if (cacheHit != null) {
+				result.put(id, cacheHit.get());
+				idIterator.remove();
+			}
+		}
+		// ids not looked up within the budget are no misses of the caches
+		if (hitRatioTracker != null) {
+			hitRatioTracker.record(result.size(), lookedUp);
+		}
+		CollectionCacheOperationTuning tuning = getTuning(context.getOperation());
+		if (tuning != null) {
+			tuning.recordLookup(result.size(), lookedUp);
+		}
+		if (recording != null) {
+			recording.recordLookup(requested, lookedUp, result.size());
+		}
+		return result;
+	}
+
+	/**
+	 * Generate the keys on the calling thread, as the context is not thread-safe,
+	 * and look them up in chunks on the {@link #setFanOutExecutor fan-out executor}.
+	 */
+	private Map<Object, Object> findCachedEntriesConcurrently(CollectionCacheableOperationContext context, Collection<Object> idsArgument, @Nullable HitRatioTracker hitRatioTracker) {
+		int requested = idsArgument.size();
+		InvocationRecording recording = context.getRecording();
+		long start = recording != null ? System.nanoTime() : 0;
+		Object[] keys = new Object[requested];
+		int i = 0;
+		for (Object id : idsArgument) {
+			keys[i++] = context.generateKeyFromSingleArgument(id);
+		}
+		long generated = recording != null ? System.nanoTime() : 0;
+		// written by lookups still running once the budget is spent, so read only once
+		AtomicReferenceArray<Cache.ValueWrapper> cacheHits = new AtomicReferenceArray<>(requested);
+		long deadline = getLookupDeadline(context);
+		fanOut(keys, context.getCaches(), deadline, k -> {
+			if (!isPast(deadline)) {
+				Cache.ValueWrapper cacheHit = findInCaches(context, keys[k]);
+				cacheHits.set(k, cacheHit != null ? cacheHit : LOOKUP_MISSED);
+			}
+		});
+		if (recording != null) {
+			recording.recordKeyGeneration(generated - start);
+			recording.recordCacheIo(System.nanoTime() - generated);
+		}
+		Map<Object, Object> result = newHashMap(requested);
+		int lookedUp = 0;
+		Iterator<Object> idIterator = idsArgument.iterator();
+		for (int k = 0; k < requested; k++) {
+			Object id = idIterator.next();
+			Cache.ValueWrapper cacheHit = cacheHits.get(k);
+			if (cacheHit != null) {
+				lookedUp++;
+			}
+			if (cacheHit != null && cacheHit != LOOKUP_MISSED) {
+				result.put(id, cacheHit.get());
+				idIterator.remove();
+			}
+		}
+		// ids not looked up within the budget are no misses of the caches
+		if (hitRatioTracker != null) {
+			hitRatioTracker.record(result.size(), lookedUp);
+		}
+		CollectionCacheOperationTuning tuning = getTuning(context.getOperation());
+		if (tuning != null) {
+			tuning.recordLookup(result.size(), lookedUp);
+		}
+		if (recording != null) {
+			recording.recordLookup(requested, lookedUp, result.size());
+		}
+		return result;
+	}
+
+	/**
+	 * Return the {@link System#nanoTime()} at which the lookup budget of the operation
+	 * is spent, or {@code 0} if it has none.
+	 */
+	private long getLookupDeadline(CollectionCacheableOperationContext context) {
+		long budget = ((CollectionCacheableOperation) context.getOperation()).getLookupBudgetMillis();
+		if (budget <= 0) {
+			return 0;
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget);
+		return deadline != 0 ? deadline : 1;
+	}
+
+	private static boolean isPast(long deadline) {
+		return deadline != 0 && System.nanoTime() - deadline >= 0;
+	}
+
+	private boolean isFanOut(int size) {
+		return fanOutExecutor != null && size >= fanOutThreshold;
+	}
+
+	private void fanOut(Object[] keys, Collection<? extends Cache> caches, KeyTask task) {
+		fanOut(keys, caches, 0, task);
+	}
+
+	/**
+	 * Run the task for the position of every given key on the fan-out executor, in one
+	 * chunk per shard if the only cache is a {@link ShardedCache}, or else in chunks of
+	 * {@link #setFanOutThreshold fanOutThreshold} keys, and wait for all of them, or
+	 * only until the given {@link System#nanoTime()} deadline unless it is {@code 0}.
+	 */
+	private void fanOut(Object[] keys, Collection<? extends Cache> caches, long deadline, KeyTask task) {
+		Executor executor = fanOutExecutor;
+		Assert.state(executor != null, "No fan-out executor set");
+		Cache onlyCache = caches.size() == 1 ? caches.iterator().next() : null;
+		List<CompletableFuture<Void>> chunks = new ArrayList<>();
+		if (onlyCache instanceof ShardedCache) {
+			for (int[] shardKeys : ((ShardedCache) onlyCache).partition(keys)) {
+				chunks.add(CompletableFuture.runAsync(() -> {
+					for (int k : shardKeys) {
+						task.run(k);
+					}
+				}, executor));
+			}
+		}
+		else {
+			for (int from = 0; from < keys.length; from += fanOutThreshold) {
+				int chunkFrom = from;
+				int chunkTo = Math.min(keys.length, from + fanOutThreshold);
+				chunks.add(CompletableFuture.runAsync(() -> {
+					for (int k = chunkFrom; k < chunkTo; k++) {
+						task.run(k);
+					}
+				}, executor));
+			}
+		}
+		CompletableFuture<Void> all = CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0]));
+		try {
+			if (deadline == 0) {
+				all.join();
+			}
+			else {
+				all.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			}
+		}
+		catch (CompletionException | ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			if (ex.getCause() instanceof Error) {
+				throw (Error) ex.getCause();
+			}
+			throw new IllegalStateException(ex.getCause());
+		}
+		catch (TimeoutException ex) {
+			// the lookups still running finish in the background, their results are ignored
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@FunctionalInterface
+	private interface KeyTask {
+		void run(int position);
+	}
+
+	private List<Object> mergeInRequestedOrder(Collection<?> requestedIds, Map<Object, Object> hits, Map<Object, Object> loaded) {
+		List<Object> result = new ArrayList<>(requestedIds.size());
+		for (Object id : requestedIds) {
+			Object element = hits.get(id);
+			if (element == null) {
+				element = loaded.get(id);
+			}
+			if (element != null) {
+				result.add(element);
+			}
+		}
+		return result;
+	}
+
+	@Nullable
+	private HitRatioTracker getHitRatioTracker(CollectionCacheableOperation operation) {
+		if (operation.getMinHitRatio() <= 0) {
+			return null;
+		}
+		HitRatioTracker tracker = hitRatioTrackers.get(operation);
+		if (tracker == null) {
+			tracker = hitRatioTrackers.computeIfAbsent(operation,
+					o -> new HitRatioTracker(operation.getMinHitRatio(), hitRatioDecay, hitRatioProbeInterval));
+		}
+		return tracker;
+	}
+
+	private static <K, V> Map<K, V> newHashMap(int expectedSize) {
+		return new HashMap<>((int) (expectedSize / 0.75f) + 1);
+	}
+
+	private void putUncachedResultToCache(Map<?, ?> uncachedResult, CollectionCacheableOperationContext context) {
+		putUncachedEntriesToCache(uncachedResult, uncachedResult, context);
+	}
+
+	/**
+	 * Put the loaded entries, or hand a copy of them to the background load executor
+	 * if the operation is tuned to write-behind.
+	 */
+	private void populate(Map<?, ?> uncachedResult, CollectionCacheableOperationContext context) {
+		CollectionCacheOperationTuning tuning = getTuning(context.getOperation());
+		Executor executor = this.backgroundLoadExecutor;
+		if (tuning == null || tuning.getPopulationMode() != CollectionCacheOperationTuning.Population.WRITE_BEHIND || executor == null) {
+			putUncachedResultToCache(uncachedResult, context);
+			return;
+		}
+		// a copy, as the caller may modify the returned map
+		Map<?, ?> entries = new LinkedHashMap<>(uncachedResult);
+		CollectionCacheableOperationContext backgroundContext = context.detach();
+		executor.execute(() -> putUncachedResultToCache(entries, backgroundContext));
+	}
+
+	@Nullable
+	private CollectionCacheOperationTuning getTuning(CacheOperation operation) {
+		CollectionCacheTuningRegistry registry = this.tuningRegistry;
+		return registry != null ? registry.getTuning(operation) : null;
+	}
+
+	private boolean isEnabled(CacheOperation operation) {
+		CollectionCacheOperationTuning tuning = getTuning(operation);
+		return tuning == null || tuning.isEnabled();
+	}
+
+	private void putUncachedEntriesToCache(Map<?, ?> entries, Object uncachedResult, CollectionCacheableOperationContext context) {
+		if (!context.canPutToCache(uncachedResult)) {
+			return;
+		}
+		String elementUnless = getElementUnless(context);
+		if (StringUtils.hasText(elementUnless)) {
+			entries = withoutVetoedEntries(entries, elementUnless, context);
+		}
+		InvocationRecording recording = context.getRecording();
+		long start = recording != null ? System.nanoTime() : 0;
+		putEntriesToCache(entries, context);
+		if (recording != null) {
+			recording.recordCacheIo(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Put the entries into every {@link CompressingCache} in one batch, and into the
+	 * other caches one by one, concurrently for large collections.
+	 */
+	private void putEntriesToCache(Map<?, ?> entries, CollectionCacheableOperationContext context) {
+		int size = entries.size();
+		Object[] keys = new Object[size];
+		Object[] values = new Object[size];
+		int i = 0;
+		for (Map.Entry<?, ?> entry : entries.entrySet()) {
+			keys[i] = context.generateKeyFromSingleArgument(entry.getKey());
+			values[i++] = entry.getValue();
+		}
+		Collection<? extends Cache> caches = context.getCaches();
+		List<Cache> singleCaches = new ArrayList<>(caches.size());
+		for (Cache cache : caches) {
+			if (cache instanceof CompressingCache && size > 1) {
+				putAllToCache(context, (CompressingCache) cache, keys, values);
+			}
+			else {
+				singleCaches.add(cache);
+			}
+		}
+		if (singleCaches.isEmpty()) {
+			return;
+		}
+		if (isFanOut(size)) {
+			fanOut(keys, singleCaches, k -> {
+				for (Cache cache : singleCaches) {
+					putToCache(context, cache, keys[k], values[k]);
+				}
+			});
+		}
+		else {
+			for (int k = 0; k < size; k++) {
+				for (Cache cache : singleCaches) {
+					putToCache(context, cache, keys[k], values[k]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Index the loaded elements by the id extracted with the {@code resultKey} expression,
+	 * in the order of the result, and put them to the cache unless vetoed for the whole result.
+	 */
+	private Map<Object, Object> putUncachedElementsToCache(Collection<?> uncachedResult, CollectionCacheableOperationContext context, CollectionCacheableOperation operation, AnnotatedElementKey methodKey) {
+		Map<Object, Object> loaded = new LinkedHashMap<>((int) (uncachedResult.size() / 0.75f) + 1);
+		EvaluationContext evalContext = evaluator.createEvaluationContext();
+		for (Object element : uncachedResult) {
+			loaded.put(evaluator.resultKey(operation.getResultKey(), methodKey, evalContext, element), element);
+		}
+		putUncachedEntriesToCache(loaded, uncachedResult, context);
+		return loaded;
+	}
+
+	private void putUncachedResultToCache(Collection<?> elements, CollectionCacheableOperationContext context) {
+		String elementUnless = getElementUnless(context);
+		AnnotatedElementKey methodKey = getMethodKey(context);
+		EvaluationContext evalContext = evaluator.createEvaluationContext();
+		for (Object obj : elements) {
+			Object key = context.generateKeyFromSingleArgument(obj);
+			boolean vetoed = StringUtils.hasText(elementUnless) && evaluator.elementUnless(elementUnless, methodKey, evalContext, obj);
+			for (Cache cache : context.getCaches()) {
+				if (vetoed) {
+					// the element is updated, so its previous value must not stay cached
+					evictFromCache(cache, key);
+				}
+				else {
+					putToCache(context, cache, key, obj);
+					invalidatePages(cache, key);
+				}
+				publishInvalidation(cache, key);
+			}
+		}
+	}
+
+	private String getElementUnless(CollectionCacheableOperationContext context) {
+		CacheOperation operation = context.getOperation();
+		return operation instanceof CollectionCacheOperation ? ((CollectionCacheOperation) operation).getElementUnless() : "";
+	}
+
+	/**
+	 * Return the entries whose value is not vetoed by the {@code elementUnless} expression.
+	 */
+	private Map<?, ?> withoutVetoedEntries(Map<?, ?> entries, String elementUnless, CollectionCacheableOperationContext context) {
+		AnnotatedElementKey methodKey = getMethodKey(context);
+		EvaluationContext evalContext = evaluator.createEvaluationContext();
+		Map<Object, Object> admitted = newHashMap(entries.size());
+		for (Map.Entry<?, ?> entry : entries.entrySet()) {
+			if (!evaluator.elementUnless(elementUnless, methodKey, evalContext, entry.getValue())) {
+				admitted.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return admitted;
+	}
+
+	private AnnotatedElementKey getMethodKey(CollectionCacheableOperationContext context) {
+		return new AnnotatedElementKey(context.getMethod(), AopProxyUtils.ultimateTargetClass(context.getTarget()));
+	}
+
+
+	private Map invokeMethod(CacheOperationInvoker invoker) {
+		Object result = invoker.invoke();
+		if (result instanceof Map) {
+			return (Map) result;
+		}
+		throw new IllegalStateException("Expecting result of invocation to be a Map");
+	}
+
+	/**
+	 * Invoke the method to load the given number of ids, recording the load if the
+	 * invocation is recorded.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<Object, Object> invokeMethod(CacheOperationInvoker invoker, CollectionCacheableOperationContext context, int ids) {
+		InvocationRecording recording = context.getRecording();
+		if (recording == null) {
+			return invokeMethod(invoker);
+		}
+		recording.beginLoad(ids);
+		Map<Object, Object> result = null;
+		try {
+			result = invokeMethod(invoker);
+			return result;
+		}
+		finally {
+			recording.endLoad(result != null ? result.size() : 0);
+		}
+	}
+
+	private Collection<?> invokeCollectionMethod(CacheOperationInvoker invoker, CollectionCacheableOperationContext context, int ids) {
+		InvocationRecording recording = context.getRecording();
+		if (recording == null) {
+			return invokeCollectionMethod(invoker);
+		}
+		recording.beginLoad(ids);
+		Collection<?> result = null;
+		try {
+			result = invokeCollectionMethod(invoker);
+			return result;
+		}
+		finally {
+			recording.endLoad(result != null ? result.size() : 0);
+		}
+	}
+
+	private Collection<?> invokeCollectionMethod(CacheOperationInvoker invoker) {
+		Object result = invoker.invoke();
+		if (result instanceof Collection) {
+			return (Collection<?>) result;
+		}
+		throw new IllegalStateException("Expecting result of invocation to be a Collection");
+	}
+
+	@Nullable
+	private Cache.ValueWrapper findInCaches(CollectionCacheableOperationContext context, Object key) {
+		HotKeyTracker tracker = this.hotKeyTracker;
+		AdmissionPolicy admissionPolicy = getAdmission(context) != Admission.SCAN ? this.admissionPolicy : null;
+		CacheCircuitBreaker breaker = this.circuitBreaker;
+		CacheBloomFilter filter = this.bloomFilter;
+		for (Cache cache : context.getCaches()) {
+			if (admissionPolicy != null) {
+				admissionPolicy.recordAccess(cache.getName(), key);
+			}
+			boolean hot = tracker != null && tracker.recordAccess(cache.getName(), key);
+			if (hot) {
+				Cache.ValueWrapper pinned = tracker.getPinned(cache.getName(), key);
+				if (pinned != null) {
+					return pinned;
+				}
+			}
+			if (filter != null && !filter.mightContain(cache.getName(), key)) {
+				continue;
+			}
+			if (breaker != null && !breaker.allowRequest(cache.getName())) {
+				continue;
+			}
+			Cache.ValueWrapper wrapper = breaker != null ? doGet(breaker, cache, key) : doGet(cache, key);
+			if (wrapper != null) {
+				if (hot) {
+					tracker.pin(cache.getName(), key, wrapper);
+				}
+				return wrapper;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get an entry like {@link #doGet(Cache, Object)}, recording the outcome of the
+	 * call in the circuit breaker.
+	 */
+	@Nullable
+	private Cache.ValueWrapper doGet(CacheCircuitBreaker breaker, Cache cache, Object key) {
+		long start = System.nanoTime();
+		try {
+			Cache.ValueWrapper wrapper = cache.get(key);
+			breaker.onSuccess(cache.getName(), System.nanoTime() - start);
+			return wrapper;
+		}
+		catch (RuntimeException ex) {
+			breaker.onFailure(cache.getName());
+			getErrorHandler().handleCacheGetError(ex, cache, key);
+			return null;  // If the exception is handled, return a cache miss
+		}
+		catch (Error err) {
+			// a trial call must not leave the circuit waiting for its outcome
+			breaker.onFailure(cache.getName());
+			throw err;
+		}
+	}
+
+	@Nullable
+	private AdmissionPolicy getAdmissionPolicy(CollectionCacheableOperationContext context) {
+		AdmissionPolicy policy = this.admissionPolicy;
+		if (policy == null || getAdmission(context) == Admission.ALWAYS) {
+			return null;
+		}
+		return policy;
+	}
+
+	private Admission getAdmission(CollectionCacheableOperationContext context) {
+		CacheOperation operation = context.getOperation();
+		return operation instanceof CollectionCacheOperation ? ((CollectionCacheOperation) operation).getAdmission() : Admission.DEFAULT;
+	}
+
+	/**
+	 * Put an entry loaded by a collection operation, if admitted by the admission policy
+	 * and the weight budget, evicting the victims they chose to make room for it.
+	 * <p>A rejected {@link CollectionCachePutOperation} entry is evicted instead, as the
+	 * cache may still hold a previous value for it.
+	 */
+	private void putToCache(CollectionCacheableOperationContext context, Cache cache, Object key, @Nullable Object value) {
+		putToCache(context, cache, key, value, cache instanceof ExpiringCache ? getTtl(context, value) : null);
+	}
+
+	/**
+	 * Put an entry with the given time to live, e.g. a snapshot or page, which counts
+	 * against the admission policy and the weight budget like the single entries.
+	 * @return whether the entry was put
+	 */
+	private boolean putToCache(CollectionCacheableOperationContext context, Cache cache, Object key, @Nullable Object value, @Nullable Duration ttl) {
+		if (!admitToCache(context, cache, key, value, ttl)) {
+			return false;
+		}
+		if (ttl != null) {
+			doPut((ExpiringCache) cache, key, value, ttl);
+		}
+		else {
+			doPut(cache, key, value);
+		}
+		HotKeyTracker tracker = this.hotKeyTracker;
+		if (tracker != null) {
+			tracker.onPut(cache.getName(), key, new SimpleValueWrapper(value));
+		}
+		return true;
+	}
+
+	/**
+	 * Put the admitted entries into a {@link CompressingCache} in one batch, so that
+	 * they are serialized into a reused buffer and compressed together.
+	 */
+	private void putAllToCache(CollectionCacheableOperationContext context, CompressingCache cache, Object[] keys, Object[] values) {
+		Map<Object, Object> admitted = new LinkedHashMap<>((int) (keys.length / 0.75f) + 1);
+		Map<Object, Duration> timesToLive = new HashMap<>();
+		for (int k = 0; k < keys.length; k++) {
+			Duration ttl = getTtl(context, values[k]);
+			if (admitToCache(context, cache, keys[k], values[k], ttl)) {
+				admitted.put(keys[k], values[k]);
+				if (ttl != null) {
+					timesToLive.put(keys[k], ttl);
+				}
+			}
+		}
+		if (admitted.isEmpty()) {
+			return;
+		}
+		try {
+			cache.putAll(admitted, timesToLive);
+		}
+		catch (RuntimeException ex) {
+			for (Map.Entry<Object, Object> entry : admitted.entrySet()) {
+				getErrorHandler().handleCachePutError(ex, cache, entry.getKey(), entry.getValue());
+			}
+		}
+		HotKeyTracker tracker = this.hotKeyTracker;
+		if (tracker != null) {
+			for (Map.Entry<Object, Object> entry : admitted.entrySet()) {
+				tracker.onPut(cache.getName(), entry.getKey(), new SimpleValueWrapper(entry.getValue()));
+			}
+		}
+	}
+
+	/**
+	 * Return whether an entry is admitted by the admission policy and the weight budget,
+	 * evicting the victims they chose to make room for it, and record it in the Bloom
+	 * filter, before it is put.
+	 */
+	private boolean admitToCache(CollectionCacheableOperationContext context, Cache cache, Object key, @Nullable Object value, @Nullable Duration ttl) {
+		if (context.isWrittenSinceDetached(cache)) {
+			return false;
+		}
+		CacheCircuitBreaker breaker = this.circuitBreaker;
+		if (breaker != null && context.getOperation() instanceof CollectionCacheableOperation
+				&& breaker.isOpen(cache.getName())) {
+			return false;
+		}
+		AdmissionPolicy admissionPolicy = getAdmissionPolicy(context);
+		Collection<?> admissionVictims = admissionPolicy != null ? admissionPolicy.admit(cache.getName(), key) : null;
+		if (admissionPolicy != null && admissionVictims == null) {
+			if (context.getOperation() instanceof CollectionCachePutOperation) {
+				evictFromCache(cache, key);
+			}
+			return false;
+		}
+		CacheWeightBudget budget = this.weightBudget;
+		if (budget != null) {
+			List<Object> victims = budget.reserve(cache.getName(), key, value, ttl);
+			if (victims == null) {
+				if (context.getOperation() instanceof CollectionCachePutOperation) {
+					evictFromCache(cache, key);
+				}
+				else if (admissionPolicy != null) {
+					admissionPolicy.release(cache.getName(), key);
+				}
+				return false;
+			}
+			for (Object victim : victims) {
+				evictFromCache(cache, victim);
+			}
+		}
+		if (admissionVictims != null) {
+			for (Object victim : admissionVictims) {
+				evictFromCache(cache, victim);
+			}
+		}
+		CacheBloomFilter filter = this.bloomFilter;
+		if (filter != null) {
+			// before the put, so that concurrent lookups never miss the entry
+			filter.put(cache.getName(), key);
+		}
+		return true;
+	}
+
+	/**
+	 * Return the time to live of an entry, including a random jitter, or {@code null}
+	 * if the operation does not declare one.
+	 */
+	@Nullable
+	private Duration getTtl(CollectionCacheableOperationContext context, @Nullable Object value) {
+		CacheOperation operation = context.getOperation();
+		if (!(operation instanceof CollectionCacheOperation)) {
+			return null;
+		}
+		CollectionCacheOperation collectionOperation = (CollectionCacheOperation) operation;
+		Duration ttl = collectionOperation.getTtl();
+		if (ttl == null && StringUtils.hasText(collectionOperation.getTtlExpression())) {
+			ttl = evaluator.ttl(collectionOperation.getTtlExpression(), getMethodKey(context), value);
+		}
+		if (ttl == null || collectionOperation.getTtlJitter().isZero()) {
+			return ttl;
+		}
+		return ttl.plusMillis(ThreadLocalRandom.current().nextLong(collectionOperation.getTtlJitter().toMillis() + 1));
+	}
+
+	/**
+	 * Record the clearing of a cache by an {@code allEntries} evict operation as a
+	 * write, so that no background put restores entries loaded before it.
+	 */
+	@Override
+	protected void doClear(Cache cache, boolean immediate) {
+		onWrite(cache);
+		super.doClear(cache, immediate);
+	}
+
+	private void doPut(ExpiringCache cache, Object key, @Nullable Object value, Duration ttl) {
+		try {
+			cache.put(key, value, ttl);
+		}
+		catch (RuntimeException ex) {
+			getErrorHandler().handleCachePutError(ex, cache, key, value);
+		}
+	}
+
+	private void evictFromCache(Cache cache, Object key) {
+		doEvict(cache, key, true);
+		invalidatePages(cache, key);
+		if (key instanceof Long) {
+			rangeIndex.remove(cache.getName(), (Long) key);
+		}
+		HotKeyTracker tracker = this.hotKeyTracker;
+		if (tracker != null) {
+			tracker.unpin(cache.getName(), key);
+		}
+		CacheWeightBudget budget = this.weightBudget;
+		if (budget != null) {
+			budget.release(cache.getName(), key);
+		}
+		AdmissionPolicy admissionPolicy = this.admissionPolicy;
+		if (admissionPolicy != null) {
+			admissionPolicy.release(cache.getName(), key);
+		}
+	}
+
+	private long getWriteGeneration(Cache cache) {
+		AtomicLong generation = writeGenerations.get(cache.getName());
+		return generation != null ? generation.get() : 0;
+	}
+
+	private void onWrite(Cache cache) {
+		writeGenerations.computeIfAbsent(cache.getName(), name -> new AtomicLong()).incrementAndGet();
+	}
+
+	/**
+	 * Record a write of the given key by a put or evict operation, and send it to the
+	 * other nodes.
+	 */
+	private void publishInvalidation(Cache cache, Object key) {
+		onWrite(cache);
+		InvalidationBus bus = this.invalidationBus;
+		if (bus != null) {
+			bus.invalidate(cache.getName(), key);
+		}
+	}
+
+	/**
+	 * Drop the keys another node evicted from the in-process tiers, after the
+	 * {@link InvalidationBus} evicted them from the given cache.
+	 */
+	private void onRemoteInvalidation(Cache cache, Collection<?> keys) {
+		onWrite(cache);
+		HotKeyTracker tracker = this.hotKeyTracker;
+		CacheWeightBudget budget = this.weightBudget;
+		AdmissionPolicy admissionPolicy = this.admissionPolicy;
+		for (Object key : keys) {
+			if (tracker != null) {
+				tracker.unpin(cache.getName(), key);
+			}
+			if (budget != null) {
+				budget.release(cache.getName(), key);
+			}
+			if (admissionPolicy != null) {
+				admissionPolicy.release(cache.getName(), key);
+			}
+			invalidatePages(cache, key);
+			if (key instanceof Long) {
+				rangeIndex.remove(cache.getName(), (Long) key);
+			}
+		}
+	}
+
+	/**
+	 * Replace the ids argument by a mutable copy holding each distinct id once, in the
+	 * order first seen, so that duplicates are neither looked up nor loaded twice.
+	 * <p>A {@link Set} argument is copied into a {@link LinkedHashSet}, any other into
+	 * a {@link LinkedList}, so that the copy still matches the parameter type.
+	 */
+	private Collection<Object> injectCollectionArgument(Object[] invocationArgs, int collectionArgumentIndex) {
+		Collection<?> ids = getCollectionArgument(invocationArgs, collectionArgumentIndex);
+		Set<Object> distinctIds = new LinkedHashSet<>(ids);
+		Collection<Object> foundCollection = ids instanceof Set ? distinctIds : new LinkedList<>(distinctIds);
+		invocationArgs[collectionArgumentIndex] = foundCollection;
+		return foundCollection;
+	}
+
+	private Collection<?> getCollectionArgument(Object[] invocationArgs, int collectionArgumentIndex) {
+		if (collectionArgumentIndex >= 0 && collectionArgumentIndex < invocationArgs.length
+				&& invocationArgs[collectionArgumentIndex] instanceof Collection) {
+			return (Collection<?>) invocationArgs[collectionArgumentIndex];
+		}
+		throw new IllegalStateException("Did not find exactly one Collection argument");
+	}
+
+	@Nullable
+	private CollectionCacheableOperation findCollectionCacheableOperation(@Nullable Collection<CacheOperation> operations) {
+		if (operations == null) {
+			return null;
+		}
+		List<CollectionCacheableOperation> collectionCacheableOperations = operations.stream()
+				.filter(o -> o instanceof CollectionCacheableOperation)
+				.map(o -> (CollectionCacheableOperation) o)
+				.collect(Collectors.toList());
+		if (collectionCacheableOperations.isEmpty()) {
+			return null;
+		}
+		if (collectionCacheableOperations.size() == 1) {
+			return collectionCacheableOperations.get(0);
+		}
+		throw new IllegalStateException("Found more than one @CollectionCacheable annotation");
+	}
+
+	protected CollectionCacheableOperationContext getCollectionCacheableOperationContext(
+			CacheOperation operation, Method method, Object target, Class<?> targetClass) {
+		CacheOperationMetadata metadata = getCacheOperationMetadata(operation, method, targetClass);
+		Object[] currentArgs = new Object[]{null};
+		return new CollectionCacheableOperationContext(metadata, currentArgs, target, 0);
+	}
+
+	/**
+	 * Create a context whose key generation combines the given arguments with each id,
+	 * if the method has further parameters next to the one holding the ids.
+	 */
+	protected CollectionCacheableOperationContext getCollectionCacheableOperationContext(
+			CacheOperation operation, Method method, Object target, Class<?> targetClass,
+			Object[] invocationArgs, int collectionArgumentIndex) {
+		if (invocationArgs.length <= 1 || collectionArgumentIndex < 0) {
+			return getCollectionCacheableOperationContext(operation, method, target, targetClass);
+		}
+		CacheOperationMetadata metadata = getCacheOperationMetadata(operation, method, targetClass);
+		Object[] currentArgs = invocationArgs.clone();
+		return new CollectionCacheableOperationContext(metadata, currentArgs, target, collectionArgumentIndex);
+	}
+
+	/**
+	 * Invoker proceeding with the intercepted method invocation, which can create further
+	 * invokers proceeding with a copy of it and other arguments through the same advice.
+	 */
+	private static final class ReinvocableInvoker implements CacheOperationInvoker {
+
+		private final MethodInvocation invocation;
+
+		ReinvocableInvoker(MethodInvocation invocation) {
+			this.invocation = invocation;
+		}
+
+		@Override
+		public Object invoke() throws ThrowableWrapper {
+			return proceed(invocation);
+		}
+
+		boolean canReinvoke() {
+			return invocation instanceof ProxyMethodInvocation;
+		}
+
+		/**
+		 * Return an invoker proceeding with the given arguments. To be called before
+		 * invoking this invoker, as proceeding moves the invocation along the chain.
+		 */
+		CacheOperationInvoker withArguments(Object[] arguments) {
+			Assert.state(canReinvoke(), "Invocation cannot be copied: " + invocation);
+			MethodInvocation copy = ((ProxyMethodInvocation) invocation).invocableClone(arguments);
+			return () -> proceed(copy);
+		}
+
+		private static Object proceed(MethodInvocation invocation) {
+			try {
+				return invocation.proceed();
+			}
+			catch (Throwable ex) {
+				throw new ThrowableWrapper(ex);
+			}
+		}
+	}
+
+	protected class CollectionCacheableOperationContext extends CacheOperationContext {
+		private final CacheOperationMetadata metadata;
+
+		private final Object[] currentArgs;
+
+		private final int collectionArgumentIndex;
+
+		@Nullable
+		private InvocationRecording recording;
+
+		// the write generations of the caches when detached, null unless detached
+		@Nullable
+		private Map<String, Long> detachedWriteGenerations;
+
+		public CollectionCacheableOperationContext(CacheOperationMetadata metadata, Object[] currentArgs, Object target) {
+			this(metadata, currentArgs, target, 0);
+		}
+
+		public CollectionCacheableOperationContext(CacheOperationMetadata metadata, Object[] currentArgs, Object target, int collectionArgumentIndex) {
+			super(metadata, currentArgs, target);
+			this.metadata = metadata;
+			this.currentArgs = currentArgs;
+			this.collectionArgumentIndex = collectionArgumentIndex;
+		}
+
+		/**
+		 * Return a copy of this context for work handed to another thread, with
+		 * arguments of its own and without the recording of the invocation.
+		 */
+		CollectionCacheableOperationContext detach() {
+			CollectionCacheableOperationContext detached = new CollectionCacheableOperationContext(metadata, currentArgs.clone(), getTarget(), collectionArgumentIndex);
+			Map<String, Long> generations = new HashMap<>();
+			for (Cache cache : getCaches()) {
+				generations.put(cache.getName(), getWriteGeneration(cache));
+			}
+			detached.detachedWriteGenerations = generations;
+			return detached;
+		}
+
+		/**
+		 * Return whether this is a detached context, and the given cache was written to
+		 * by a put or evict operation since it was detached.
+		 */
+		boolean isWrittenSinceDetached(Cache cache) {
+			Map<String, Long> generations = this.detachedWriteGenerations;
+			if (generations == null) {
+				return false;
+			}
+			Long generation = generations.get(cache.getName());
+			return generation != null && generation != getWriteGeneration(cache);
+		}
+
+		@Nullable
+		InvocationRecording getRecording() {
+			return recording;
+		}
+
+		void setRecording(@Nullable InvocationRecording recording) {
+			this.recording = recording;
 		}
 
 		public Object generateKeyFromSingleArgument(Object arg) {
-			currentArgs[0] = arg;
+			currentArgs[collectionArgumentIndex] = arg;
 			return generateKey(arg); // provide arg as result as well for findAll case
 		}
 
@@ -232,12 +2001,12 @@ public class CollectionCacheInterceptor extends CacheInterceptor {
 
 		@Override
 		protected boolean canPutToCache(Object result) {
-			currentArgs[0] = null;
+			currentArgs[collectionArgumentIndex] = null;
 			return super.canPutToCache(result);
 		}
 
 		public boolean isConditionPassingWithArgument(Object arg) {
-			currentArgs[0] = arg;
+			currentArgs[collectionArgumentIndex] = arg;
 			return super.isConditionPassing(NO_RESULT);
 		}
 
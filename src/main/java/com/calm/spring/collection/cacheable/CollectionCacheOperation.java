@@ -1,32 +1,142 @@
 package com.calm.spring.collection.cacheable;
 
+import com.calm.spring.collection.cacheable.annotation.Admission;
 import org.springframework.cache.interceptor.CachePutOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
 
 public class CollectionCacheOperation extends CachePutOperation{
 	private final boolean isFindAll;
 
+	private final int collectionArgumentIndex;
+
+	private final Admission admission;
+
+	@Nullable
+	private final Duration ttl;
+
+	private final String ttlExpression;
+
+	private final Duration ttlJitter;
+
+	private final String elementUnless;
+
 	public CollectionCacheOperation(Builder b) {
 		super(b);
 		this.isFindAll = b.isFindAll;
+		this.collectionArgumentIndex = b.collectionArgumentIndex;
+		this.admission = b.admission;
+		this.ttl = b.ttl;
+		this.ttlExpression = b.ttlExpression;
+		this.ttlJitter = b.ttlJitter;
+		this.elementUnless = b.elementUnless;
 	}
 
 	public boolean isFindAll() {
 		return isFindAll;
 	}
 
+	/**
+	 * Return the index of the parameter holding the ids, or {@code -1} if there is none.
+	 */
+	public int getCollectionArgumentIndex() {
+		return collectionArgumentIndex;
+	}
+
+	public Admission getAdmission() {
+		return admission;
+	}
+
+	/**
+	 * Return the fixed time to live of the entries, or {@code null} if there is none.
+	 */
+	@Nullable
+	public Duration getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * Return the expression computing the time to live of each entry, or {@code ""} if there is none.
+	 */
+	public String getTtlExpression() {
+		return ttlExpression;
+	}
+
+	public Duration getTtlJitter() {
+		return ttlJitter;
+	}
+
+	public String getElementUnless() {
+		return elementUnless;
+	}
+
 	public static class Builder extends CachePutOperation.Builder {
 
 		private boolean isFindAll;
 
+		private int collectionArgumentIndex = -1;
+
+		private Admission admission = Admission.DEFAULT;
+
+		@Nullable
+		private Duration ttl;
+
+		private String ttlExpression = "";
+
+		private Duration ttlJitter = Duration.ZERO;
+
+		private String elementUnless = "";
+
 		public void setFindAll(boolean findAll) {
 			isFindAll = findAll;
 		}
 
+		public void setCollectionArgumentIndex(int collectionArgumentIndex) {
+			this.collectionArgumentIndex = collectionArgumentIndex;
+		}
+
+		public void setAdmission(Admission admission) {
+			Assert.notNull(admission, "Admission must not be null");
+			this.admission = admission;
+		}
+
+		public void setTtl(@Nullable Duration ttl) {
+			Assert.isTrue(ttl == null || (!ttl.isNegative() && !ttl.isZero()), "ttl must be positive");
+			this.ttl = ttl;
+		}
+
+		public void setTtlExpression(String ttlExpression) {
+			Assert.notNull(ttlExpression, "ttlExpression must not be null");
+			this.ttlExpression = ttlExpression;
+		}
+
+		public void setTtlJitter(Duration ttlJitter) {
+			Assert.isTrue(ttlJitter != null && !ttlJitter.isNegative(), "ttlJitter must not be negative");
+			this.ttlJitter = ttlJitter;
+		}
+
+		public void setElementUnless(String elementUnless) {
+			Assert.notNull(elementUnless, "elementUnless must not be null");
+			this.elementUnless = elementUnless;
+		}
+
 		@Override
 		protected StringBuilder getOperationDescription() {
 			StringBuilder sb = super.getOperationDescription();
 			sb.append(" | isFindAll ='");
 			sb.append(this.isFindAll);
+			sb.append("' | collectionArgumentIndex='");
+			sb.append(this.collectionArgumentIndex);
+			sb.append("' | admission='");
+			sb.append(this.admission);
+			sb.append("' | ttl='");
+			sb.append(this.ttl != null ? this.ttl : this.ttlExpression);
+			sb.append("' | ttlJitter='");
+			sb.append(this.ttlJitter);
+			sb.append("' | elementUnless='");
+			sb.append(this.elementUnless);
 			sb.append("'");
 			return sb;
 		}
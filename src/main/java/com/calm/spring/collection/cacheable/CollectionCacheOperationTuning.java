@@ -0,0 +1,136 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.util.Assert;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime settings and live counters of a single collection cache operation, read by
+ * the {@link CollectionCacheInterceptor} on every invocation without locking, so that
+ * changes take effect on the next invocation.
+ *
+ * @see CollectionCacheTuningRegistry
+ */
+public class CollectionCacheOperationTuning implements CollectionCacheOperationTuningMBean {
+
+	private final String operation;
+
+	private volatile boolean enabled = true;
+
+	private volatile int batchSize;
+
+	private volatile Population population = Population.SYNC;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	public CollectionCacheOperationTuning(String operation) {
+		this.operation = operation;
+	}
+
+	@Override
+	public String getOperation() {
+		return operation;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Set whether the operation looks up and populates its caches. A disabled
+	 * operation invokes its method for every call.
+	 */
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Set the maximum number of ids per batch of a {@code @CollectionCacheBatched}
+	 * operation, overriding its {@code maxBatchSize}.
+	 * <p>Default is {@code 0}, meaning as annotated.
+	 */
+	@Override
+	public void setBatchSize(int batchSize) {
+		Assert.isTrue(batchSize >= 0, "batchSize must not be negative");
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public String getPopulation() {
+		return population.name();
+	}
+
+	/**
+	 * Set how the entries loaded by a method returning a {@code Map} are put into the
+	 * caches, either {@code SYNC} or {@code WRITE_BEHIND}.
+	 * <p>Default is {@code SYNC}.
+	 */
+	@Override
+	public void setPopulation(String population) {
+		this.population = Population.valueOf(population);
+	}
+
+	Population getPopulationMode() {
+		return population;
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public double getHitRatio() {
+		long hits = getHits();
+		long requested = hits + getMisses();
+		return requested > 0 ? (double) hits / requested : 0;
+	}
+
+	@Override
+	public void resetCounters() {
+		hits.reset();
+		misses.reset();
+	}
+
+	void recordLookup(int hits, int lookedUp) {
+		this.hits.add(hits);
+		this.misses.add(lookedUp - hits);
+	}
+
+	/**
+	 * How loaded entries are put into the caches.
+	 */
+	public enum Population {
+
+		/**
+		 * Put on the calling thread before returning.
+		 */
+		SYNC,
+
+		/**
+		 * Put on the {@link CollectionCacheInterceptor#setBackgroundLoadExecutor
+		 * background executor} after returning, or synchronously if there is none.
+		 * <p>A put running after a later write of the same cache would restore stale
+		 * entries, so the puts are skipped for the caches written since the load by
+		 * collection put or evict operations, by other nodes through the
+		 * {@link InvalidationBus}, or cleared by an {@code allEntries} evict. Single
+		 * keys written by plain {@code @CachePut} or {@code @CacheEvict} operations
+		 * are not tracked: use {@code SYNC} for operations sharing caches with them.
+		 */
+		WRITE_BEHIND
+	}
+}
@@ -0,0 +1,29 @@
+package com.calm.spring.collection.cacheable;
+
+/**
+ * Management interface of a {@link CollectionCacheOperationTuning}.
+ */
+public interface CollectionCacheOperationTuningMBean {
+
+	String getOperation();
+
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	int getBatchSize();
+
+	void setBatchSize(int batchSize);
+
+	String getPopulation();
+
+	void setPopulation(String population);
+
+	long getHits();
+
+	long getMisses();
+
+	double getHitRatio();
+
+	void resetCounters();
+}
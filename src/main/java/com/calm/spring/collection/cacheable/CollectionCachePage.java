@@ -0,0 +1,82 @@
+package com.calm.spring.collection.cacheable;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ids of the elements on one page returned by a method annotated with
+ * {@code @CollectionCacheable(page = true)}, stored under a {@link #key key} derived
+ * from the method and its arguments in the caches of the operation, next to the
+ * entries of every single id.
+ * <p>The page is only served while all of its elements are cached. Evictions done by
+ * {@code @CollectionCacheEvict} and puts done by {@code @CollectionCachePut} of an
+ * element invalidate the pages containing it.
+ */
+public final class CollectionCachePage implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<Object> ids;
+
+	public CollectionCachePage(Collection<?> ids) {
+		this.ids = Collections.unmodifiableList(new ArrayList<>(ids));
+	}
+
+	/**
+	 * Return the read-only ids of the elements, in the order of the page.
+	 */
+	public List<Object> getIds() {
+		return ids;
+	}
+
+	/**
+	 * Return the key the page returned by the given method for the given arguments is
+	 * stored under.
+	 */
+	public static Object key(String methodName, Object... args) {
+		return new PageKey(methodName, args);
+	}
+
+	private static final class PageKey implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String methodName;
+
+		private final Object[] args;
+
+		private final int hashCode;
+
+		PageKey(String methodName, Object[] args) {
+			this.methodName = methodName;
+			this.args = args.clone();
+			this.hashCode = 31 * methodName.hashCode() + Arrays.deepHashCode(this.args);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof PageKey)) {
+				return false;
+			}
+			PageKey otherKey = (PageKey) other;
+			return methodName.equals(otherKey.methodName) && Arrays.deepEquals(args, otherKey.args);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public String toString() {
+			return "collection-cache-page:" + methodName + Arrays.deepToString(args);
+		}
+	}
+}
@@ -16,15 +16,13 @@
 
 package com.calm.spring.collection.cacheable;
 
-import org.springframework.cache.interceptor.CachePutOperation;
-
-public class CollectionCachePutOperation extends CachePutOperation {
+public class CollectionCachePutOperation extends CollectionCacheOperation {
 
     public CollectionCachePutOperation(Builder b) {
         super(b);
     }
 
-    public static class Builder extends CachePutOperation.Builder {
+    public static class Builder extends CollectionCacheOperation.Builder {
 
         @Override
         public CollectionCachePutOperation build() {
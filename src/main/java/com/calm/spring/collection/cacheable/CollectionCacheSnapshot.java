@@ -0,0 +1,61 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.util.ClassUtils;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Complete result of a {@code findAll}-like method annotated with
+ * {@code @CollectionCacheable(snapshot = true)}, stored under the {@link #key key}
+ * of the method in the caches of the operation next to the entries of every single id.
+ * <p>Each snapshot carries the version found under {@link #VERSION_KEY} in its cache
+ * when its method was invoked, and is only valid while that version is still current.
+ * Evictions done by {@code @CollectionCacheEvict} and puts done by
+ * {@code @CollectionCachePut} on the same cache evict the version, invalidating all
+ * snapshots of the cache at once, including those still being loaded.
+ */
+public final class CollectionCacheSnapshot implements Serializable {
+
+	private static final long serialVersionUID = 2L;
+
+	/**
+	 * The key the current snapshot version of a cache is stored under.
+	 */
+	public static final Object VERSION_KEY = new SimpleKey("collection-cache-snapshot", "version");
+
+	private final Map<Object, Object> entries;
+
+	private final String version;
+
+	public CollectionCacheSnapshot(Map<?, ?> entries, String version) {
+		this.entries = Collections.unmodifiableMap(new LinkedHashMap<>(entries));
+		this.version = version;
+	}
+
+	/**
+	 * Return the key the snapshot of the given method is stored under, which is equal,
+	 * with an equal hash code, in every process.
+	 */
+	public static Object key(Method method, Class<?> targetClass) {
+		return new SimpleKey("collection-cache-snapshot", ClassUtils.getQualifiedMethodName(method, targetClass));
+	}
+
+	/**
+	 * Return the read-only entries of the snapshot.
+	 */
+	public Map<Object, Object> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Return the version of the cache the snapshot was loaded at.
+	 */
+	public String getVersion() {
+		return version;
+	}
+}
@@ -0,0 +1,111 @@
+package com.calm.spring.collection.cacheable;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.cache.interceptor.CacheOperation;
+import org.springframework.lang.Nullable;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registry of the {@link CollectionCacheOperationTuning runtime settings} of the
+ * {@code @CollectionCacheable} and {@code @CollectionCacheBatched} operations, each
+ * exposed as an MBean, so that caching can be tuned or switched off during an incident
+ * without redeploying.
+ * <p>Set on the {@link CollectionCacheInterceptor#setTuningRegistry interceptor}, an
+ * operation is registered as soon as it is parsed, or on its first invocation if the
+ * interceptor was not told about it, under the object name
+ * {@code com.calm.spring.collection.cacheable:type=<annotation>,name="<method>"}.
+ * Put and evict operations are not registered: they always run, so that no stale
+ * entry survives switching caching off and on again.
+ */
+public class CollectionCacheTuningRegistry implements Closeable {
+
+	public static final String DOMAIN = "com.calm.spring.collection.cacheable";
+
+	private static final Log logger = LogFactory.getLog(CollectionCacheTuningRegistry.class);
+
+	@Nullable
+	private final MBeanServer mBeanServer;
+
+	private final ConcurrentMap<CacheOperation, CollectionCacheOperationTuning> tunings = new ConcurrentHashMap<>();
+
+	private final List<ObjectName> registered = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Create a registry exposing the operations on the given server, e.g.
+	 * {@link java.lang.management.ManagementFactory#getPlatformMBeanServer()}, or only
+	 * programmatically for {@code null}.
+	 */
+	public CollectionCacheTuningRegistry(@Nullable MBeanServer mBeanServer) {
+		this.mBeanServer = mBeanServer;
+	}
+
+	/**
+	 * Return the settings of the given operation, registering them on first use.
+	 */
+	public CollectionCacheOperationTuning getTuning(CacheOperation operation) {
+		CollectionCacheOperationTuning tuning = tunings.get(operation);
+		if (tuning == null) {
+			tuning = tunings.computeIfAbsent(operation, this::register);
+		}
+		return tuning;
+	}
+
+	/**
+	 * Return the settings of all operations registered so far.
+	 */
+	public Collection<CollectionCacheOperationTuning> getTunings() {
+		return Collections.unmodifiableCollection(tunings.values());
+	}
+
+	private CollectionCacheOperationTuning register(CacheOperation operation) {
+		CollectionCacheOperationTuning tuning = new CollectionCacheOperationTuning(operation.toString());
+		if (mBeanServer != null) {
+			try {
+				ObjectName name = new ObjectName(DOMAIN + ":type=" + getType(operation) + ",name=" + ObjectName.quote(operation.getName()));
+				mBeanServer.registerMBean(new StandardMBean(tuning, CollectionCacheOperationTuningMBean.class), name);
+				registered.add(name);
+			}
+			catch (JMException ex) {
+				logger.warn("Failed to register tuning MBean of " + operation, ex);
+			}
+		}
+		return tuning;
+	}
+
+	private static String getType(CacheOperation operation) {
+		return operation instanceof CollectionCacheBatchedOperation ? "CollectionCacheBatched" : "CollectionCacheable";
+	}
+
+	/**
+	 * Unregister all MBeans of this registry and drop the settings, so that operations
+	 * still invoked afterwards are registered again.
+	 */
+	@Override
+	public void close() {
+		tunings.clear();
+		if (mBeanServer == null) {
+			return;
+		}
+		for (ObjectName name : registered) {
+			registered.remove(name);
+			try {
+				mBeanServer.unregisterMBean(name);
+			}
+			catch (JMException ex) {
+				logger.debug("Failed to unregister " + name, ex);
+			}
+		}
+	}
+}
@@ -16,7 +16,9 @@
 
 package com.calm.spring.collection.cacheable;
 
+import com.calm.spring.collection.cacheable.annotation.CollectionCacheBatched;
 import com.calm.spring.collection.cacheable.annotation.CollectionCacheEvict;
+import com.calm.spring.collection.cacheable.annotation.CollectionCacheIds;
 import com.calm.spring.collection.cacheable.annotation.CollectionCachePut;
 import com.calm.spring.collection.cacheable.annotation.CollectionCacheable;
 import org.springframework.cache.annotation.CacheAnnotationParser;
@@ -25,19 +27,25 @@ import org.springframework.cache.annotation.Caching;
 import org.springframework.cache.interceptor.CacheOperation;
 import org.springframework.core.annotation.AnnotatedElementUtils;
 import org.springframework.lang.Nullable;
+import org.springframework.util.ReflectionUtils;
 import org.springframework.util.StringUtils;
 
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * Strategy implementation for parsing Spring's {@link Caching}, {@link CollectionCacheable},
- * {@link CollectionCacheEvict}, and {@link CollectionCachePut} annotations.
+ * {@link CollectionCacheEvict}, {@link CollectionCachePut}, and {@link CollectionCacheBatched} annotations.
  *
  * @author Costin Leau
  * @author Juergen Hoeller
@@ -55,6 +63,7 @@ public class CollectionCacheableCacheAnnotationParser implements CacheAnnotation
 		CACHE_OPERATION_ANNOTATIONS.add(CollectionCacheable.class);
 		CACHE_OPERATION_ANNOTATIONS.add(CollectionCachePut.class);
 		CACHE_OPERATION_ANNOTATIONS.add(CollectionCacheEvict.class);
+		CACHE_OPERATION_ANNOTATIONS.add(CollectionCacheBatched.class);
 //        CACHE_OPERATION_ANNOTATIONS.add(Caching.class);
 	}
 
@@ -64,10 +73,26 @@ public class CollectionCacheableCacheAnnotationParser implements CacheAnnotation
 		return Collections.emptyList();
 	}
 
+	private final List<Consumer<CacheOperation>> operationListeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Register a listener notified about every operation parsed, which happens when
+	 * the proxies are created, e.g. {@link CollectionCacheInterceptor#registerOperation}.
+	 */
+	public void addOperationListener(Consumer<CacheOperation> listener) {
+		this.operationListeners.add(listener);
+	}
+
 	@Override
 	public Collection<CacheOperation> parseCacheAnnotations(Method method) {
 		DefaultCacheConfig defaultConfig = new DefaultCacheConfig(method.getDeclaringClass());
-		return parseCacheAnnotations(defaultConfig, method);
+		Collection<CacheOperation> ops = parseCacheAnnotations(defaultConfig, method);
+		for (CacheOperation op : ops) {
+			for (Consumer<CacheOperation> listener : operationListeners) {
+				listener.accept(op);
+			}
+		}
+		return ops;
 	}
 
 	private Collection<CacheOperation> parseCacheAnnotations(DefaultCacheConfig cachingConfig, Method method) {
@@ -96,16 +121,26 @@ public class CollectionCacheableCacheAnnotationParser implements CacheAnnotation
 				ann -> ops.add(parseCollectionCachePutAnnotation(method, cachingConfig, (CollectionCachePut) ann)));
 		anns.stream().filter(ann -> ann instanceof CollectionCacheEvict).forEach(
 				ann -> ops.add(parseCollectionCacheEvictAnnotation(method, cachingConfig, (CollectionCacheEvict) ann)));
+		anns.stream().filter(ann -> ann instanceof CollectionCacheBatched).forEach(
+				ann -> ops.add(parseCollectionCacheBatchedAnnotation(method, cachingConfig, (CollectionCacheBatched) ann)));
 		return ops;
 	}
 
-	private CollectionCacheOperation parseCollectionCacheableAnnotation(
+	private CollectionCacheableOperation parseCollectionCacheableAnnotation(
 			Method method, DefaultCacheConfig defaultConfig, CollectionCacheable collectionCacheable) {
 
 		boolean isFindAll = checkFindAll(method);
-		validateMethodSignature(isFindAll, method);
+		boolean isListResult = StringUtils.hasText(collectionCacheable.resultKey());
+		// the arguments of a page or range method select the page or range, none of them holds ids
+		int collectionArgumentIndex = collectionCacheable.page() || collectionCacheable.range() ? -1 : findCollectionArgumentIndex(method);
+		if (collectionCacheable.range()) {
+			validateRangeMethodSignature(isListResult, method);
+		}
+		else {
+			validateMethodSignature(isFindAll || collectionCacheable.page(), isListResult, collectionArgumentIndex, method);
+		}
 
-		CollectionCacheOperation.Builder builder = new CollectionCacheOperation.Builder();
+		CollectionCacheableOperation.Builder builder = new CollectionCacheableOperation.Builder();
 
 		builder.setName(method.toString());
 		builder.setCacheNames(collectionCacheable.cacheNames());
@@ -116,21 +151,34 @@ public class CollectionCacheableCacheAnnotationParser implements CacheAnnotation
 		builder.setCacheResolver(collectionCacheable.cacheResolver());
 		builder.setUnless(collectionCacheable.unless());
 		builder.setFindAll(isFindAll);
+		builder.setCollectionArgumentIndex(collectionArgumentIndex);
+		builder.setAdmission(collectionCacheable.admission());
+		applyTimeToLive(method, builder, collectionCacheable.ttl(), collectionCacheable.ttlJitter());
+		builder.setElementUnless(collectionCacheable.elementUnless());
+		builder.setCompositeResult(collectionCacheable.compositeResult());
+		builder.setMinHitRatio(collectionCacheable.minHitRatio());
+		builder.setResultKey(collectionCacheable.resultKey());
+		builder.setSnapshot(collectionCacheable.snapshot());
+		builder.setPage(collectionCacheable.page());
+		builder.setRange(collectionCacheable.range());
+		builder.setLookupBudgetMillis(collectionCacheable.lookupBudgetMillis());
+		builder.setDeadlineMillis(collectionCacheable.deadlineMillis());
 
 		defaultConfig.applyDefault(builder);
-		CollectionCacheOperation op = builder.build();
+		CollectionCacheableOperation op = builder.build();
 		validateCollectionCacheOperation(method, op);
+		validateCollectionCacheableOperation(method, op);
 
 		return op;
 	}
 
-	private CollectionCacheOperation parseCollectionCachePutAnnotation(
+	private CollectionCachePutOperation parseCollectionCachePutAnnotation(
 			Method method, DefaultCacheConfig defaultConfig, CollectionCachePut collectionCachePut) {
 
 		boolean isFindAll = checkFindAll(method);
 		validatePutMethodSignature(isFindAll, method);
 
-		CollectionCacheOperation.Builder builder = new CollectionCacheOperation.Builder();
+		CollectionCachePutOperation.Builder builder = new CollectionCachePutOperation.Builder();
 
 		builder.setName(method.toString());
 		builder.setCacheNames(collectionCachePut.cacheNames());
@@ -141,9 +189,12 @@ public class CollectionCacheableCacheAnnotationParser implements CacheAnnotation
 		builder.setCacheResolver(collectionCachePut.cacheResolver());
 		builder.setUnless(collectionCachePut.unless());
 		builder.setFindAll(isFindAll);
+		builder.setAdmission(collectionCachePut.admission());
+		applyTimeToLive(method, builder, collectionCachePut.ttl(), collectionCachePut.ttlJitter());
+		builder.setElementUnless(collectionCachePut.elementUnless());
 
 		defaultConfig.applyDefault(builder);
-		CollectionCacheOperation op = builder.build();
+		CollectionCachePutOperation op = builder.build();
 		validateCollectionCacheOperation(method, op);
 
 		return op;
@@ -162,6 +213,7 @@ public class CollectionCacheableCacheAnnotationParser implements CacheAnnotation
 		builder.setCacheManager(collectionCacheEvict.cacheManager());
 		builder.setCacheResolver(collectionCacheEvict.cacheResolver());
 		builder.setCacheWide(collectionCacheEvict.allEntries());
+		builder.setCollectionArgumentIndex(findCollectionArgumentIndex(method));
 		defaultConfig.applyDefault(builder);
 		CollectionCacheEvictOperation op = builder.build();
 		validateCollectionCacheEvictOperation(method, op);
@@ -169,6 +221,88 @@ public class CollectionCacheableCacheAnnotationParser implements CacheAnnotation
 		return op;
 	}
 
+	private CollectionCacheBatchedOperation parseCollectionCacheBatchedAnnotation(
+			Method method, DefaultCacheConfig defaultConfig, CollectionCacheBatched collectionCacheBatched) {
+
+		if (method.getParameterCount() != 1) {
+			throw new IllegalStateException("Invalid CollectionCacheBatched annotation configuration on '" +
+					method.toString() + "'. Method does not have exactly one parameter.");
+		}
+		Method collectionMethod = ReflectionUtils.findMethod(method.getDeclaringClass(),
+				collectionCacheBatched.collectionMethod(), Collection.class);
+		if (collectionMethod == null || !collectionMethod.getReturnType().isAssignableFrom(Map.class)) {
+			throw new IllegalStateException("Invalid CollectionCacheBatched annotation configuration on '" +
+					method.toString() + "'. Did not find a method '" + collectionCacheBatched.collectionMethod() +
+					"' taking a Collection and returning a Map.");
+		}
+
+		CollectionCacheBatchedOperation.Builder builder = new CollectionCacheBatchedOperation.Builder();
+
+		builder.setName(method.toString());
+		builder.setCacheNames(collectionCacheBatched.cacheNames());
+		builder.setKey(collectionCacheBatched.key());
+		builder.setKeyGenerator(collectionCacheBatched.keyGenerator());
+		builder.setCacheManager(collectionCacheBatched.cacheManager());
+		builder.setCacheResolver(collectionCacheBatched.cacheResolver());
+		builder.setCollectionArgumentIndex(0);
+		builder.setCollectionMethod(collectionMethod);
+		builder.setMaxBatchSize(collectionCacheBatched.maxBatchSize());
+		builder.setBatchWindowMillis(collectionCacheBatched.batchWindowMillis());
+
+		defaultConfig.applyDefault(builder);
+		CollectionCacheBatchedOperation op = builder.build();
+		validateCollectionCacheOperation(method, op);
+		if (op.getMaxBatchSize() <= 0) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" +
+					method.toString() + "'. 'maxBatchSize' must be positive.");
+		}
+		if (op.getBatchWindowMillis() < 0) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" +
+					method.toString() + "'. 'batchWindowMillis' must not be negative.");
+		}
+
+		return op;
+	}
+
+	/**
+	 * Apply the {@code ttl} attribute as a fixed duration if it is an ISO-8601 duration,
+	 * or else as an expression, along with the {@code ttlJitter} attribute.
+	 */
+	private void applyTimeToLive(Method method, CollectionCacheOperation.Builder builder, String ttl, String ttlJitter) {
+		if (isDuration(ttl)) {
+			builder.setTtl(parseDuration(method, "ttl", ttl));
+		}
+		else {
+			builder.setTtlExpression(ttl);
+		}
+		if (StringUtils.hasText(ttlJitter)) {
+			if (!StringUtils.hasText(ttl)) {
+				throw new IllegalStateException("Invalid cache annotation configuration on '" +
+						method.toString() + "'. 'ttlJitter' requires 'ttl' to be set.");
+			}
+			builder.setTtlJitter(parseDuration(method, "ttlJitter", ttlJitter));
+		}
+	}
+
+	private boolean isDuration(String value) {
+		return value.startsWith("P") || value.startsWith("p");
+	}
+
+	private Duration parseDuration(Method method, String attribute, String value) {
+		try {
+			Duration duration = Duration.parse(value);
+			if (duration.isNegative() || ("ttl".equals(attribute) && duration.isZero())) {
+				throw new IllegalStateException("Invalid cache annotation configuration on '" +
+						method.toString() + "'. '" + attribute + "' must be positive.");
+			}
+			return duration;
+		}
+		catch (DateTimeParseException ex) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" +
+					method.toString() + "'. '" + attribute + "' is not an ISO-8601 duration: " + value, ex);
+		}
+	}
+
 	private void validatePutMethodSignature(boolean isFindAll, Method method) {
 		if (!method.getReturnType().isAssignableFrom(List.class)) {
 			throw new IllegalStateException("Invalid CollectionCachePut annotation configuration on '" +
@@ -180,7 +314,46 @@ public class CollectionCacheableCacheAnnotationParser implements CacheAnnotation
 		return method.getParameterTypes().length == 0;
 	}
 
-	private void validateMethodSignature(boolean isFindAll, Method method) {
+	/**
+	 * Find the parameter holding the ids: the one marked with {@link CollectionCacheIds},
+	 * or else the only {@link Collection} parameter.
+	 *
+	 * @return the parameter index, or {@code -1} if there is no such parameter
+	 */
+	private int findCollectionArgumentIndex(Method method) {
+		Parameter[] parameters = method.getParameters();
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		int marked = -1;
+		int collections = 0;
+		int lastCollection = -1;
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (parameters[i].isAnnotationPresent(CollectionCacheIds.class)) {
+				if (marked >= 0) {
+					throw new IllegalStateException("Invalid cache annotation configuration on '" +
+							method.toString() + "'. More than one parameter is annotated with @CollectionCacheIds.");
+				}
+				if (!Collection.class.isAssignableFrom(parameterTypes[i])) {
+					throw new IllegalStateException("Invalid cache annotation configuration on '" +
+							method.toString() + "'. The parameter annotated with @CollectionCacheIds is not a Collection.");
+				}
+				marked = i;
+			}
+			if (Collection.class.isAssignableFrom(parameterTypes[i])) {
+				collections++;
+				lastCollection = i;
+			}
+		}
+		if (marked >= 0) {
+			return marked;
+		}
+		return collections == 1 ? lastCollection : -1;
+	}
+
+	private void validateMethodSignature(boolean isFindAll, boolean isListResult, int collectionArgumentIndex, Method method) {
+		if (isListResult) {
+			validateListMethodSignature(isFindAll, collectionArgumentIndex, method);
+			return;
+		}
 		if (!method.getReturnType().isAssignableFrom(Map.class)) {
 			throw new IllegalStateException("Invalid CollectionCacheable annotation configuration on '" +
 					method.toString() + "'. Method return type is not assignable from Map.");
@@ -188,13 +361,9 @@ public class CollectionCacheableCacheAnnotationParser implements CacheAnnotation
 		if (isFindAll) {
 			return;
 		}
-		Class<?>[] parameterTypes = method.getParameterTypes();
-		if (parameterTypes.length != 1 || !parameterTypes[0].equals(Collection.class)) {
-			throw new IllegalStateException("Invalid CollectionCacheable annotation configuration on '" +
-					method.toString() + "'. Did not find zero or one Collection argument.");
-		}
-		Type[] genericParameterTypes = method.getGenericParameterTypes();
-		if (genericParameterTypes.length != 1 || !(genericParameterTypes[0] instanceof ParameterizedType)) {
+		validateCollectionArgument(collectionArgumentIndex, method);
+		Type genericParameterType = method.getGenericParameterTypes()[collectionArgumentIndex];
+		if (!(genericParameterType instanceof ParameterizedType)) {
 			// assume method is not generic
 			return;
 		}
@@ -202,7 +371,7 @@ public class CollectionCacheableCacheAnnotationParser implements CacheAnnotation
 			// assume method is not generic
 			return;
 		}
-		ParameterizedType parameterizedCollection = (ParameterizedType) genericParameterTypes[0];
+		ParameterizedType parameterizedCollection = (ParameterizedType) genericParameterType;
 		if (parameterizedCollection.getActualTypeArguments().length != 1) {
 			throw new IllegalStateException("Invalid CollectionCacheable annotation configuration on '" +
 					method.toString() + "'. Parameterized collection does not have exactly one type argument.");
@@ -218,6 +387,41 @@ public class CollectionCacheableCacheAnnotationParser implements CacheAnnotation
 		}
 	}
 
+	private void validateListMethodSignature(boolean isFindAll, int collectionArgumentIndex, Method method) {
+		if (!method.getReturnType().isAssignableFrom(List.class)) {
+			throw new IllegalStateException("Invalid CollectionCacheable annotation configuration on '" +
+					method.toString() + "'. Method return type is not assignable from List, but 'resultKey' is set.");
+		}
+		if (isFindAll) {
+			return;
+		}
+		validateCollectionArgument(collectionArgumentIndex, method);
+	}
+
+	private void validateRangeMethodSignature(boolean isListResult, Method method) {
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		if (parameterTypes.length != 2 || !isLong(parameterTypes[0]) || !isLong(parameterTypes[1])) {
+			throw new IllegalStateException("Invalid CollectionCacheable annotation configuration on '" +
+					method.toString() + "'. Range methods must take the first and the last id as two long parameters.");
+		}
+		if (isListResult || !method.getReturnType().isAssignableFrom(Map.class)) {
+			throw new IllegalStateException("Invalid CollectionCacheable annotation configuration on '" +
+					method.toString() + "'. Method return type is not assignable from Map, but 'range' is set.");
+		}
+	}
+
+	private static boolean isLong(Class<?> type) {
+		return type == long.class || type == Long.class;
+	}
+
+	private void validateCollectionArgument(int collectionArgumentIndex, Method method) {
+		if (collectionArgumentIndex < 0 || !method.getParameterTypes()[collectionArgumentIndex].equals(Collection.class)) {
+			throw new IllegalStateException("Invalid CollectionCacheable annotation configuration on '" +
+					method.toString() + "'. Did not find zero or one Collection argument, " +
+					"or one marked with @CollectionCacheIds.");
+		}
+	}
+
 	private void validateCollectionCacheOperation(AnnotatedElement ae, CollectionCacheOperation operation) {
 		if (StringUtils.hasText(operation.getCacheManager()) && StringUtils.hasText(operation.getCacheResolver())) {
 			throw new IllegalStateException("Invalid cache annotation configuration on '" +
@@ -231,6 +435,53 @@ public class CollectionCacheableCacheAnnotationParser implements CacheAnnotation
 					ae.toString() + "'. Cannot use 'condition' on 'findAll'-like methods.");
 		}
 	}
+	private void validateCollectionCacheableOperation(AnnotatedElement ae, CollectionCacheableOperation operation) {
+		if (operation.getLookupBudgetMillis() < 0) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" +
+					ae.toString() + "'. 'lookupBudgetMillis' must not be negative.");
+		}
+		if (operation.getDeadlineMillis() < 0) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" +
+					ae.toString() + "'. 'deadlineMillis' must not be negative.");
+		}
+		if (operation.getDeadlineMillis() > 0 && (operation.isFindAll() || operation.isListResult())) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" +
+					ae.toString() + "'. Can only use 'deadlineMillis' on methods taking ids and returning a Map.");
+		}
+		if (operation.getMinHitRatio() < 0 || operation.getMinHitRatio() > 1) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" +
+					ae.toString() + "'. 'minHitRatio' must be between 0 and 1.");
+		}
+		if (operation.isListResult() && operation.isCompositeResult()) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" +
+					ae.toString() + "'. Cannot use 'compositeResult' together with 'resultKey'.");
+		}
+		if (operation.isSnapshot() && (!operation.isFindAll() || operation.isListResult())) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" +
+					ae.toString() + "'. Can only use 'snapshot' on 'findAll'-like methods returning a Map.");
+		}
+		if (operation.isPage() && !operation.isListResult()) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" +
+					ae.toString() + "'. 'page' requires 'resultKey' to be set.");
+		}
+		if (operation.isPage() && StringUtils.hasText(operation.getCondition())) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" +
+					ae.toString() + "'. Cannot use 'condition' on paged methods.");
+		}
+		if (operation.isRange() && (StringUtils.hasText(operation.getKey()) || StringUtils.hasText(operation.getKeyGenerator()))) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" +
+					ae.toString() + "'. Cannot use 'key' or 'keyGenerator' on range methods.");
+		}
+		if (operation.isRange() && StringUtils.hasText(operation.getCondition())) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" +
+					ae.toString() + "'. Cannot use 'condition' on range methods.");
+		}
+		if (operation.isRange() && (operation.isCompositeResult() || operation.getMinHitRatio() > 0 || operation.getDeadlineMillis() > 0)) {
+			throw new IllegalStateException("Invalid cache annotation configuration on '" +
+					ae.toString() + "'. Cannot use 'compositeResult', 'minHitRatio' or 'deadlineMillis' on range methods.");
+		}
+	}
+
 	private void validateCollectionCacheEvictOperation(AnnotatedElement ae, CollectionCacheEvictOperation operation) {
 		if (StringUtils.hasText(operation.getCacheManager()) && StringUtils.hasText(operation.getCacheResolver())) {
 			throw new IllegalStateException("Invalid cache annotation configuration on '" +
@@ -16,34 +16,145 @@
 
 package com.calm.spring.collection.cacheable;
 
-import org.springframework.cache.interceptor.CachePutOperation;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
-public class CollectionCacheableOperation extends CachePutOperation {
+public class CollectionCacheableOperation extends CollectionCacheOperation {
 
-    private final boolean isFindAll;
+    private final boolean compositeResult;
+
+    private final double minHitRatio;
+
+    private final String resultKey;
+
+    private final boolean snapshot;
+
+    private final boolean page;
+
+    private final boolean range;
+
+    private final long lookupBudgetMillis;
+
+    private final long deadlineMillis;
 
     public CollectionCacheableOperation(Builder b) {
         super(b);
-        this.isFindAll = b.isFindAll;
+        this.compositeResult = b.compositeResult;
+        this.minHitRatio = b.minHitRatio;
+        this.resultKey = b.resultKey;
+        this.snapshot = b.snapshot;
+        this.page = b.page;
+        this.range = b.range;
+        this.lookupBudgetMillis = b.lookupBudgetMillis;
+        this.deadlineMillis = b.deadlineMillis;
+    }
+
+    public boolean isCompositeResult() {
+        return compositeResult;
+    }
+
+    public double getMinHitRatio() {
+        return minHitRatio;
+    }
+
+    public String getResultKey() {
+        return resultKey;
+    }
+
+    public boolean isListResult() {
+        return StringUtils.hasText(resultKey);
+    }
+
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    public boolean isPage() {
+        return page;
+    }
+
+    public boolean isRange() {
+        return range;
+    }
+
+    public long getLookupBudgetMillis() {
+        return lookupBudgetMillis;
     }
 
-    public boolean isFindAll() {
-        return isFindAll;
+    public long getDeadlineMillis() {
+        return deadlineMillis;
     }
 
-    public static class Builder extends CachePutOperation.Builder {
+    public static class Builder extends CollectionCacheOperation.Builder {
+
+        private boolean compositeResult;
+
+        private double minHitRatio;
+
+        private String resultKey = "";
+
+        private boolean snapshot;
+
+        private boolean page;
+
+        private boolean range;
+
+        private long lookupBudgetMillis;
+
+        private long deadlineMillis;
+
+        public void setCompositeResult(boolean compositeResult) {
+            this.compositeResult = compositeResult;
+        }
+
+        public void setMinHitRatio(double minHitRatio) {
+            this.minHitRatio = minHitRatio;
+        }
+
+        public void setResultKey(String resultKey) {
+            Assert.notNull(resultKey, "ResultKey must not be null");
+            this.resultKey = resultKey;
+        }
+
+        public void setSnapshot(boolean snapshot) {
+            this.snapshot = snapshot;
+        }
 
-        private boolean isFindAll;
+        public void setPage(boolean page) {
+            this.page = page;
+        }
+
+        public void setRange(boolean range) {
+            this.range = range;
+        }
+
+        public void setLookupBudgetMillis(long lookupBudgetMillis) {
+            this.lookupBudgetMillis = lookupBudgetMillis;
+        }
 
-        public void setFindAll(boolean findAll) {
-            isFindAll = findAll;
+        public void setDeadlineMillis(long deadlineMillis) {
+            this.deadlineMillis = deadlineMillis;
         }
 
         @Override
         protected StringBuilder getOperationDescription() {
             StringBuilder sb = super.getOperationDescription();
-            sb.append(" | isFindAll ='");
-            sb.append(this.isFindAll);
+            sb.append(" | compositeResult='");
+            sb.append(this.compositeResult);
+            sb.append("' | minHitRatio='");
+            sb.append(this.minHitRatio);
+            sb.append("' | resultKey='");
+            sb.append(this.resultKey);
+            sb.append("' | snapshot='");
+            sb.append(this.snapshot);
+            sb.append("' | page='");
+            sb.append(this.page);
+            sb.append("' | range='");
+            sb.append(this.range);
+            sb.append("' | lookupBudgetMillis='");
+            sb.append(this.lookupBudgetMillis);
+            sb.append("' | deadlineMillis='");
+            sb.append(this.deadlineMillis);
             sb.append("'");
             return sb;
         }
@@ -6,7 +6,6 @@ import org.springframework.cache.annotation.AbstractCachingConfiguration;
 import org.springframework.cache.annotation.AnnotationCacheOperationSource;
 import org.springframework.cache.annotation.SpringCacheAnnotationParser;
 import org.springframework.cache.interceptor.BeanFactoryCacheOperationSourceAdvisor;
-import org.springframework.cache.interceptor.CacheInterceptor;
 import org.springframework.cache.interceptor.CacheOperationSource;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -15,7 +14,9 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public class CollectionCacheableProxyCachingConfiguration extends AbstractCachingConfiguration {
 
-    private final CacheOperationSource cacheOperationSource = new AnnotationCacheOperationSource(new SpringCacheAnnotationParser(), new CollectionCacheableCacheAnnotationParser());
+    private final CollectionCacheableCacheAnnotationParser collectionCacheableParser = new CollectionCacheableCacheAnnotationParser();
+
+    private final CacheOperationSource cacheOperationSource = new AnnotationCacheOperationSource(new SpringCacheAnnotationParser(), collectionCacheableParser);
 
     @Bean
     public BeanFactoryPostProcessor beanFactoryPostProcessor() {
@@ -33,10 +34,11 @@ public class CollectionCacheableProxyCachingConfiguration extends AbstractCachin
     }
 
     @Bean
-    public CacheInterceptor collectionCacheInterceptor() {
-        CacheInterceptor interceptor = new CollectionCacheInterceptor();
+    public CollectionCacheInterceptor collectionCacheInterceptor() {
+        CollectionCacheInterceptor interceptor = new CollectionCacheInterceptor();
         interceptor.configure(this.errorHandler, this.keyGenerator, this.cacheResolver, this.cacheManager);
         interceptor.setCacheOperationSource(cacheOperationSource);
+        collectionCacheableParser.addOperationListener(interceptor::registerOperation);
         return interceptor;
     }
 }
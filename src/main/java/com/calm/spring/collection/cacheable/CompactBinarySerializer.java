@@ -0,0 +1,653 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.core.ConfigurableObjectInputStream;
+import org.springframework.core.serializer.DefaultSerializer;
+import org.springframework.core.serializer.Deserializer;
+import org.springframework.core.serializer.Serializer;
+import org.springframework.lang.Nullable;
+import org.springframework.objenesis.SpringObjenesis;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.FastByteArrayOutputStream;
+import org.springframework.util.ReflectionUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectStreamClass;
+import java.io.NotSerializableException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compact binary {@link Serializer} and {@link Deserializer} for cache values, as a
+ * faster and smaller alternative to Java serialization for common POJOs.
+ * <p>The fields of a class are its schema: they are written in a fixed order without
+ * their names, primitive fields without any type information, and each class name
+ * only once per value. Strings, boxed primitives, enums, {@code byte[]}, lists, sets
+ * and maps are written natively; lists, sets and maps are read back as
+ * {@link ArrayList}, {@link LinkedHashSet} and {@link LinkedHashMap}, unless a field
+ * requires another collection type with a default constructor. Other JDK types, such
+ * as {@code BigDecimal} or {@code Instant}, fall back to Java serialization.
+ * <p>POJOs are created without calling a constructor, so they need no default one.
+ * Object graphs must not contain cycles. Both sides must use the same version of the
+ * classes, as the schema is not written.
+ * <p>As cached bytes name the classes to create, only the classes of the given allowed
+ * packages, or the allowed classes themselves, are written and read, next to the boxed
+ * primitives, {@code BigDecimal}, {@code BigInteger}, {@code Currency}, {@code Date},
+ * {@code Locale}, {@code UUID} and the classes of {@code java.time}, but not of its
+ * subpackages. This also applies to every class of a value falling back to Java
+ * serialization.
+ */
+public class CompactBinarySerializer implements Serializer<Object>, Deserializer<Object> {
+
+	private static final int NULL = 0;
+	private static final int STRING = 1;
+	private static final int INT = 2;
+	private static final int LONG = 3;
+	private static final int TRUE = 4;
+	private static final int FALSE = 5;
+	private static final int DOUBLE = 6;
+	private static final int FLOAT = 7;
+	private static final int SHORT = 8;
+	private static final int BYTE = 9;
+	private static final int CHAR = 10;
+	private static final int BYTES = 11;
+	private static final int LIST = 12;
+	private static final int SET = 13;
+	private static final int MAP = 14;
+	private static final int ENUM = 15;
+	private static final int OBJECT = 16;
+	private static final int JAVA = 17;
+
+	private static final int MAX_DEPTH = 64;
+
+	/**
+	 * The number of elements and bytes up to which a read collection, map or byte array
+	 * is allocated up front, beyond which it grows as the data actually arrives.
+	 */
+	private static final int MAX_INITIAL_ELEMENTS = 1024;
+	private static final int MAX_INITIAL_BYTES = 8192;
+
+	/**
+	 * The JDK value types allowed next to the configured classes, and the classes their
+	 * Java serialized form refers to.
+	 */
+	private static final Set<String> JDK_CLASSES = new HashSet<>(Arrays.asList(
+			"java.lang.Boolean", "java.lang.Byte", "java.lang.Character", "java.lang.Double", "java.lang.Enum",
+			"java.lang.Float", "java.lang.Integer", "java.lang.Long", "java.lang.Number", "java.lang.Short",
+			"java.lang.String", "java.math.BigDecimal", "java.math.BigInteger", "java.util.Currency",
+			"java.util.Date", "java.util.Locale", "java.util.UUID"));
+
+	/**
+	 * The JDK packages allowed without their subpackages, as all of their classes are
+	 * value types.
+	 */
+	private static final Set<String> JDK_PACKAGES = Collections.singleton("java.time");
+
+	private final ConcurrentMap<Class<?>, Field[]> schemas = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<>();
+
+	private final SpringObjenesis objenesis = new SpringObjenesis();
+
+	private final DefaultSerializer javaSerializer = new DefaultSerializer();
+
+	@Nullable
+	private final ClassLoader classLoader;
+
+	private final List<String> allowed;
+
+	/**
+	 * Create a serializer for the classes of the given packages, or the given classes,
+	 * by fully qualified name, e.g. {@code "com.example.model"}.
+	 */
+	public CompactBinarySerializer(String... allowedPackagesOrClasses) {
+		this(ClassUtils.getDefaultClassLoader(), allowedPackagesOrClasses);
+	}
+
+	public CompactBinarySerializer(@Nullable ClassLoader classLoader, String... allowedPackagesOrClasses) {
+		Assert.noNullElements(allowedPackagesOrClasses, "Allowed packages must not be null");
+		this.classLoader = classLoader;
+		this.allowed = Arrays.asList(allowedPackagesOrClasses.clone());
+	}
+
+	@Override
+	public void serialize(Object object, OutputStream outputStream) throws IOException {
+		new Writer(outputStream).writeValue(object, 0);
+	}
+
+	@Override
+	public Object deserialize(InputStream inputStream) throws IOException {
+		return new Reader(inputStream).readValue(0);
+	}
+
+	/**
+	 * Return the fields written for the given class: all non-static, non-transient
+	 * fields, those of the superclasses first, each class' fields ordered by name.
+	 */
+	private Field[] getSchema(Class<?> type) {
+		Field[] schema = schemas.get(type);
+		if (schema != null) {
+			return schema;
+		}
+		List<Field> fields = new ArrayList<>();
+		for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+			List<Field> declared = new ArrayList<>();
+			for (Field field : current.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+					ReflectionUtils.makeAccessible(field);
+					declared.add(field);
+				}
+			}
+			declared.sort(Comparator.comparing(Field::getName));
+			fields.addAll(0, declared);
+		}
+		schema = fields.toArray(new Field[0]);
+		schemas.putIfAbsent(type, schema);
+		return schema;
+	}
+
+	/**
+	 * Return whether the given class, or the component class of the given array class,
+	 * is in an allowed package, or allowed itself.
+	 */
+	private boolean isAllowed(String className) {
+		String name = className;
+		int dimensions = 0;
+		while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+			dimensions++;
+		}
+		if (dimensions > 0) {
+			if (!name.startsWith("L", dimensions) || !name.endsWith(";")) {
+				// an array of primitives
+				return true;
+			}
+			name = name.substring(dimensions + 1, name.length() - 1);
+		}
+		if (JDK_CLASSES.contains(name) || JDK_PACKAGES.contains(ClassUtils.getPackageName(name))) {
+			return true;
+		}
+		for (String prefix : allowed) {
+			if (name.startsWith(prefix) && (name.length() == prefix.length() || name.charAt(prefix.length()) == '.'
+					|| name.charAt(prefix.length()) == '$')) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Class<?> resolveClass(String className) throws IOException {
+		Class<?> type = classes.get(className);
+		if (type != null) {
+			return type;
+		}
+		if (!isAllowed(className)) {
+			throw new InvalidClassException(className, "Class not allowed to be deserialized");
+		}
+		try {
+			type = ClassUtils.forName(className, classLoader);
+		}
+		catch (ClassNotFoundException | LinkageError ex) {
+			throw new StreamCorruptedException("Cannot resolve class " + className + ": " + ex);
+		}
+		classes.putIfAbsent(className, type);
+		return type;
+	}
+
+	/**
+	 * Read a value written with Java serialization, resolving only allowed classes.
+	 */
+	private Object readJava(byte[] bytes) throws IOException {
+		ConfigurableObjectInputStream in = new ConfigurableObjectInputStream(new ByteArrayInputStream(bytes), classLoader) {
+			@Override
+			protected Class<?> resolveClass(ObjectStreamClass classDesc) throws IOException, ClassNotFoundException {
+				if (!isAllowed(classDesc.getName())) {
+					throw new InvalidClassException(classDesc.getName(), "Class not allowed to be deserialized");
+				}
+				return super.resolveClass(classDesc);
+			}
+
+			@Override
+			protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+				throw new InvalidClassException("Proxy classes not allowed to be deserialized");
+			}
+		};
+		try {
+			return in.readObject();
+		}
+		catch (ClassNotFoundException ex) {
+			throw new StreamCorruptedException("Cannot resolve class: " + ex);
+		}
+	}
+
+	private static boolean isPojo(Class<?> type) {
+		String name = type.getName();
+		return !type.isArray() && !type.isInterface() && !name.startsWith("java.") && !name.startsWith("javax.");
+	}
+
+	private final class Writer {
+
+		private final OutputStream out;
+
+		private final Map<Class<?>, Integer> classRefs = new IdentityHashMap<>();
+
+		Writer(OutputStream out) {
+			this.out = out;
+		}
+
+		void writeValue(@Nullable Object value, int depth) throws IOException {
+			if (depth > MAX_DEPTH) {
+				throw new NotSerializableException("Object graph deeper than " + MAX_DEPTH + ", possibly cyclic");
+			}
+			if (value == null) {
+				out.write(NULL);
+			}
+			else if (value instanceof String) {
+				out.write(STRING);
+				writeString((String) value);
+			}
+			else if (value instanceof Integer) {
+				out.write(INT);
+				writeVarLong(zigZag((Integer) value));
+			}
+			else if (value instanceof Long) {
+				out.write(LONG);
+				writeVarLong(zigZag((Long) value));
+			}
+			else if (value instanceof Boolean) {
+				out.write((Boolean) value ? TRUE : FALSE);
+			}
+			else if (value instanceof Double) {
+				out.write(DOUBLE);
+				writeFixedLong(Double.doubleToRawLongBits((Double) value));
+			}
+			else if (value instanceof Float) {
+				out.write(FLOAT);
+				writeVarLong(Float.floatToRawIntBits((Float) value) & 0xffffffffL);
+			}
+			else if (value instanceof Short) {
+				out.write(SHORT);
+				writeVarLong(zigZag((Short) value));
+			}
+			else if (value instanceof Byte) {
+				out.write(BYTE);
+				out.write((Byte) value);
+			}
+			else if (value instanceof Character) {
+				out.write(CHAR);
+				writeVarLong((Character) value);
+			}
+			else if (value instanceof byte[]) {
+				out.write(BYTES);
+				writeVarLong(((byte[]) value).length);
+				out.write((byte[]) value);
+			}
+			else if (value instanceof Enum) {
+				out.write(ENUM);
+				writeClass(((Enum<?>) value).getDeclaringClass());
+				writeString(((Enum<?>) value).name());
+			}
+			else if (value instanceof List || value instanceof Set) {
+				out.write(value instanceof List ? LIST : SET);
+				Collection<?> collection = (Collection<?>) value;
+				writeVarLong(collection.size());
+				for (Object element : collection) {
+					writeValue(element, depth + 1);
+				}
+			}
+			else if (value instanceof Map) {
+				out.write(MAP);
+				Map<?, ?> map = (Map<?, ?>) value;
+				writeVarLong(map.size());
+				for (Map.Entry<?, ?> entry : map.entrySet()) {
+					writeValue(entry.getKey(), depth + 1);
+					writeValue(entry.getValue(), depth + 1);
+				}
+			}
+			else if (isPojo(value.getClass())) {
+				out.write(OBJECT);
+				writeClass(value.getClass());
+				writeFields(value, depth);
+			}
+			else if (value instanceof Serializable) {
+				out.write(JAVA);
+				FastByteArrayOutputStream bytes = new FastByteArrayOutputStream(256);
+				javaSerializer.serialize(value, bytes);
+				writeVarLong(bytes.size());
+				bytes.writeTo(out);
+			}
+			else {
+				throw new NotSerializableException(value.getClass().getName());
+			}
+		}
+
+		private void writeFields(Object value, int depth) throws IOException {
+			for (Field field : getSchema(value.getClass())) {
+				Class<?> type = field.getType();
+				try {
+					if (type == int.class) {
+						writeVarLong(zigZag(field.getInt(value)));
+					}
+					else if (type == long.class) {
+						writeVarLong(zigZag(field.getLong(value)));
+					}
+					else if (type == boolean.class) {
+						out.write(field.getBoolean(value) ? 1 : 0);
+					}
+					else if (type == double.class) {
+						writeFixedLong(Double.doubleToRawLongBits(field.getDouble(value)));
+					}
+					else if (type == float.class) {
+						writeVarLong(Float.floatToRawIntBits(field.getFloat(value)) & 0xffffffffL);
+					}
+					else if (type == short.class) {
+						writeVarLong(zigZag(field.getShort(value)));
+					}
+					else if (type == byte.class) {
+						out.write(field.getByte(value));
+					}
+					else if (type == char.class) {
+						writeVarLong(field.getChar(value));
+					}
+					else {
+						writeValue(field.get(value), depth + 1);
+					}
+				}
+				catch (IllegalAccessException ex) {
+					throw new NotSerializableException("Cannot read " + field + ": " + ex);
+				}
+			}
+		}
+
+		/**
+		 * Write the name of a class the first time it occurs, and its index afterwards.
+		 */
+		private void writeClass(Class<?> type) throws IOException {
+			Integer ref = classRefs.get(type);
+			if (ref != null) {
+				writeVarLong(ref + 1);
+				return;
+			}
+			if (!isAllowed(type.getName())) {
+				throw new NotSerializableException(type.getName() + " is not allowed");
+			}
+			classRefs.put(type, classRefs.size());
+			out.write(0);
+			writeString(type.getName());
+		}
+
+		private void writeString(String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(bytes.length);
+			out.write(bytes);
+		}
+
+		private void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7fL) != 0) {
+				out.write((int) ((value & 0x7f) | 0x80));
+				value >>>= 7;
+			}
+			out.write((int) value);
+		}
+
+		private void writeFixedLong(long value) throws IOException {
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				out.write((int) (value >>> shift));
+			}
+		}
+
+		private long zigZag(long value) {
+			return (value << 1) ^ (value >> 63);
+		}
+	}
+
+	private final class Reader {
+
+		private final InputStream in;
+
+		private final List<Class<?>> classRefs = new ArrayList<>();
+
+		Reader(InputStream in) {
+			this.in = in;
+		}
+
+		@Nullable
+		Object readValue(int depth) throws IOException {
+			if (depth > MAX_DEPTH) {
+				throw new StreamCorruptedException("Object graph deeper than " + MAX_DEPTH);
+			}
+			int tag = readByte();
+			switch (tag) {
+				case NULL:
+					return null;
+				case STRING:
+					return readString();
+				case INT:
+					return (int) unZigZag(readVarLong());
+				case LONG:
+					return unZigZag(readVarLong());
+				case TRUE:
+					return Boolean.TRUE;
+				case FALSE:
+					return Boolean.FALSE;
+				case DOUBLE:
+					return Double.longBitsToDouble(readFixedLong());
+				case FLOAT:
+					return Float.intBitsToFloat((int) readVarLong());
+				case SHORT:
+					return (short) unZigZag(readVarLong());
+				case BYTE:
+					return (byte) readByte();
+				case CHAR:
+					return (char) readVarLong();
+				case BYTES:
+					return readBytes(readLength());
+				case ENUM:
+					return readEnum(readClass(), readString());
+				case LIST:
+				case SET: {
+					int size = readLength();
+					int capacity = Math.min(size, MAX_INITIAL_ELEMENTS);
+					Collection<Object> collection = tag == LIST ? new ArrayList<>(capacity) : new LinkedHashSet<>(capacity * 4 / 3 + 1);
+					for (int i = 0; i < size; i++) {
+						collection.add(readValue(depth + 1));
+					}
+					return collection;
+				}
+				case MAP: {
+					int size = readLength();
+					Map<Object, Object> map = new LinkedHashMap<>(Math.min(size, MAX_INITIAL_ELEMENTS) * 4 / 3 + 1);
+					for (int i = 0; i < size; i++) {
+						Object key = readValue(depth + 1);
+						map.put(key, readValue(depth + 1));
+					}
+					return map;
+				}
+				case OBJECT:
+					return readObject(readClass(), depth);
+				case JAVA:
+					return readJava(readBytes(readLength()));
+				default:
+					throw new StreamCorruptedException("Unknown type tag " + tag);
+			}
+		}
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		private Object readEnum(Class<?> type, String name) throws IOException {
+			if (!type.isEnum()) {
+				throw new StreamCorruptedException(type.getName() + " is not an enum");
+			}
+			return Enum.valueOf((Class) type, name);
+		}
+
+		private Object readObject(Class<?> type, int depth) throws IOException {
+			if (!isPojo(type)) {
+				throw new StreamCorruptedException(type.getName() + " is not written as object");
+			}
+			Object object = objenesis.newInstance(type);
+			for (Field field : getSchema(type)) {
+				Class<?> fieldType = field.getType();
+				try {
+					if (fieldType == int.class) {
+						field.setInt(object, (int) unZigZag(readVarLong()));
+					}
+					else if (fieldType == long.class) {
+						field.setLong(object, unZigZag(readVarLong()));
+					}
+					else if (fieldType == boolean.class) {
+						field.setBoolean(object, readByte() != 0);
+					}
+					else if (fieldType == double.class) {
+						field.setDouble(object, Double.longBitsToDouble(readFixedLong()));
+					}
+					else if (fieldType == float.class) {
+						field.setFloat(object, Float.intBitsToFloat((int) readVarLong()));
+					}
+					else if (fieldType == short.class) {
+						field.setShort(object, (short) unZigZag(readVarLong()));
+					}
+					else if (fieldType == byte.class) {
+						field.setByte(object, (byte) readByte());
+					}
+					else if (fieldType == char.class) {
+						field.setChar(object, (char) readVarLong());
+					}
+					else {
+						field.set(object, adaptToField(readValue(depth + 1), fieldType));
+					}
+				}
+				catch (IllegalAccessException | IllegalArgumentException ex) {
+					throw new StreamCorruptedException("Cannot set " + field + ": " + ex);
+				}
+			}
+			return object;
+		}
+
+		/**
+		 * Copy a read collection or map into the type a field requires, if different.
+		 */
+		@Nullable
+		@SuppressWarnings("unchecked")
+		private Object adaptToField(@Nullable Object value, Class<?> fieldType) throws IOException {
+			if (value == null || fieldType.isInstance(value)) {
+				return value;
+			}
+			if (!(value instanceof Collection || value instanceof Map)) {
+				return value;
+			}
+			Object adapted;
+			try {
+				adapted = ReflectionUtils.accessibleConstructor(fieldType).newInstance();
+			}
+			catch (ReflectiveOperationException ex) {
+				throw new StreamCorruptedException("Cannot create " + fieldType.getName() + ": " + ex);
+			}
+			if (value instanceof Map) {
+				((Map<Object, Object>) adapted).putAll((Map<?, ?>) value);
+			}
+			else {
+				((Collection<Object>) adapted).addAll((Collection<?>) value);
+			}
+			return adapted;
+		}
+
+		private Class<?> readClass() throws IOException {
+			int ref = readLength();
+			if (ref > 0) {
+				if (ref > classRefs.size()) {
+					throw new StreamCorruptedException("Unknown class reference " + ref);
+				}
+				return classRefs.get(ref - 1);
+			}
+			Class<?> type = resolveClass(readString());
+			classRefs.add(type);
+			return type;
+		}
+
+		private String readString() throws IOException {
+			return new String(readBytes(readLength()), StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Read the given number of bytes, growing the array as they arrive, so that a
+		 * corrupted length fails on the missing bytes rather than on its allocation.
+		 */
+		private byte[] readBytes(int length) throws IOException {
+			byte[] bytes = new byte[Math.min(length, MAX_INITIAL_BYTES)];
+			int offset = 0;
+			while (offset < length) {
+				if (offset == bytes.length) {
+					bytes = Arrays.copyOf(bytes, (int) Math.min(length, (long) bytes.length * 2));
+				}
+				int read = in.read(bytes, offset, bytes.length - offset);
+				if (read < 0) {
+					throw new EOFException();
+				}
+				offset += read;
+			}
+			return bytes;
+		}
+
+		private int readByte() throws IOException {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			return b;
+		}
+
+		private int readLength() throws IOException {
+			long length = readVarLong();
+			if (length < 0 || length > Integer.MAX_VALUE) {
+				throw new StreamCorruptedException("Invalid length " + length);
+			}
+			return (int) length;
+		}
+
+		private long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = readByte();
+				value |= (long) (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new StreamCorruptedException("Malformed variable-length number");
+		}
+
+		private long readFixedLong() throws IOException {
+			long value = 0;
+			for (int i = 0; i < 8; i++) {
+				value = (value << 8) | readByte();
+			}
+			return value;
+		}
+
+		private long unZigZag(long value) {
+			return (value >>> 1) ^ -(value & 1);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package com.calm.spring.collection.cacheable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only {@link Map} view over the cache hits and the map returned by the
+ * invoked method for the remaining ids, so neither has to be copied.
+ * <p>Entries of the loaded map take precedence, as they would when putting
+ * both into a new map.
+ */
+class CompositeResultMap<K, V> extends AbstractMap<K, V> {
+
+	private final Map<K, V> hits;
+
+	private final Map<K, V> loaded;
+
+	private int size = -1;
+
+	CompositeResultMap(Map<K, V> hits, Map<K, V> loaded) {
+		this.hits = Collections.unmodifiableMap(hits);
+		this.loaded = Collections.unmodifiableMap(loaded);
+	}
+
+	@Override
+	public V get(Object key) {
+		V value = loaded.get(key);
+		if (value != null || loaded.containsKey(key)) {
+			return value;
+		}
+		return hits.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return loaded.containsKey(key) || hits.containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		if (size < 0) {
+			int count = loaded.size();
+			for (K key : hits.keySet()) {
+				if (!loaded.containsKey(key)) {
+					count++;
+				}
+			}
+			size = count;
+		}
+		return size;
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return new AbstractSet<Entry<K, V>>() {
+			@Override
+			public Iterator<Entry<K, V>> iterator() {
+				return new CompositeIterator();
+			}
+
+			@Override
+			public int size() {
+				return CompositeResultMap.this.size();
+			}
+		};
+	}
+
+	private class CompositeIterator implements Iterator<Entry<K, V>> {
+
+		private final Iterator<Entry<K, V>> loadedIterator = loaded.entrySet().iterator();
+
+		private final Iterator<Entry<K, V>> hitIterator = hits.entrySet().iterator();
+
+		private Entry<K, V> next;
+
+		@Override
+		public boolean hasNext() {
+			if (next != null) {
+				return true;
+			}
+			if (loadedIterator.hasNext()) {
+				next = loadedIterator.next();
+				return true;
+			}
+			while (hitIterator.hasNext()) {
+				Entry<K, V> candidate = hitIterator.next();
+				if (!loaded.containsKey(candidate.getKey())) {
+					next = candidate;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public Entry<K, V> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Entry<K, V> result = next;
+			next = null;
+			return result;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+import org.springframework.core.serializer.DefaultDeserializer;
+import org.springframework.core.serializer.DefaultSerializer;
+import org.springframework.core.serializer.Deserializer;
+import org.springframework.core.serializer.Serializer;
+import org.springframework.core.serializer.support.SerializationFailedException;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.util.FastByteArrayOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * {@link Cache} decorator storing the serialized form of large values compressed
+ * with a {@link CompressionCodec}.
+ * <p>Values are serialized with Java serialization, or with the given
+ * {@link Serializer}, e.g. a {@link CompactBinarySerializer}. Values whose serialized
+ * form is smaller than the {@link #setThreshold threshold}, and values that are not
+ * {@link Serializable} when using Java serialization, are stored as they are.
+ * Compressed values are stored as a {@link CompressedValue}, so the target cache
+ * must be able to store it, e.g. by Java serialization.
+ * <p>Puts with a time to live are passed on if the target cache is an
+ * {@link ExpiringCache}, and expire according to its configuration otherwise.
+ */
+public class CompressingCache implements ExpiringCache {
+
+	private final Cache target;
+
+	private final CompressionCodec codec;
+
+	private final Serializer<Object> serializer;
+
+	private final Deserializer<Object> deserializer;
+
+	private int threshold = 1024;
+
+	public CompressingCache(Cache target, CompressionCodec codec) {
+		this(target, codec, new DefaultSerializer(), new DefaultDeserializer(CompressingCache.class.getClassLoader()));
+	}
+
+	public CompressingCache(Cache target, CompressionCodec codec, Serializer<Object> serializer, Deserializer<Object> deserializer) {
+		Assert.notNull(target, "Target Cache must not be null");
+		Assert.notNull(codec, "CompressionCodec must not be null");
+		Assert.notNull(serializer, "Serializer must not be null");
+		Assert.notNull(deserializer, "Deserializer must not be null");
+		this.target = target;
+		this.codec = codec;
+		this.serializer = serializer;
+		this.deserializer = deserializer;
+	}
+
+	/**
+	 * Set the size, in bytes, of the serialized form from which values are compressed.
+	 * <p>Default is {@code 1024}.
+	 */
+	public void setThreshold(int threshold) {
+		Assert.isTrue(threshold >= 0, "threshold must not be negative");
+		this.threshold = threshold;
+	}
+
+	public Cache getTargetCache() {
+		return target;
+	}
+
+	@Override
+	public String getName() {
+		return target.getName();
+	}
+
+	@Override
+	public Object getNativeCache() {
+		return target.getNativeCache();
+	}
+
+	@Override
+	@Nullable
+	public ValueWrapper get(Object key) {
+		ValueWrapper wrapper = target.get(key);
+		if (wrapper == null || !(wrapper.get() instanceof CompressedValue)) {
+			return wrapper;
+		}
+		return new SimpleValueWrapper(decode(wrapper.get()));
+	}
+
+	@Override
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public <T> T get(Object key, @Nullable Class<T> type) {
+		ValueWrapper wrapper = get(key);
+		Object value = wrapper != null ? wrapper.get() : null;
+		if (value != null && type != null && !type.isInstance(value)) {
+			throw new IllegalStateException(
+					"Cached value is not of required type [" + type.getName() + "]: " + value);
+		}
+		return (T) value;
+	}
+
+	@Override
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public <T> T get(Object key, Callable<T> valueLoader) {
+		return (T) decode(target.get(key, () -> encode(valueLoader.call())));
+	}
+
+	@Override
+	public void put(Object key, @Nullable Object value) {
+		target.put(key, encode(value));
+	}
+
+	@Override
+	public void put(Object key, @Nullable Object value, Duration timeToLive) {
+		putToTarget(key, encode(value), timeToLive);
+	}
+
+	@Override
+	@Nullable
+	public ValueWrapper putIfAbsent(Object key, @Nullable Object value) {
+		ValueWrapper existing = target.putIfAbsent(key, encode(value));
+		if (existing == null || !(existing.get() instanceof CompressedValue)) {
+			return existing;
+		}
+		return new SimpleValueWrapper(decode(existing.get()));
+	}
+
+	/**
+	 * Put all given entries, serializing them into a single reused buffer and
+	 * compressing the large values in one batch.
+	 */
+	public void putAll(Map<?, ?> entries) {
+		putAll(entries, Collections.emptyMap());
+	}
+
+	/**
+	 * Put all given entries like {@link #putAll(Map)}, each with its time to live from
+	 * the given map, if any.
+	 */
+	public void putAll(Map<?, ?> entries, Map<?, Duration> timesToLive) {
+		List<Object> keys = new ArrayList<>(entries.size());
+		List<byte[]> serialized = new ArrayList<>(entries.size());
+		FastByteArrayOutputStream buffer = new FastByteArrayOutputStream(4096);
+		for (Map.Entry<?, ?> entry : entries.entrySet()) {
+			byte[] bytes = serialize(entry.getValue(), buffer);
+			if (bytes != null) {
+				keys.add(entry.getKey());
+				serialized.add(bytes);
+			}
+			else {
+				putToTarget(entry.getKey(), entry.getValue(), timesToLive.get(entry.getKey()));
+			}
+		}
+		List<byte[]> compressed = codec.compressAll(serialized);
+		for (int i = 0; i < keys.size(); i++) {
+			putToTarget(keys.get(i), new CompressedValue(compressed.get(i)), timesToLive.get(keys.get(i)));
+		}
+	}
+
+	private void putToTarget(Object key, @Nullable Object value, @Nullable Duration timeToLive) {
+		if (timeToLive != null && target instanceof ExpiringCache) {
+			((ExpiringCache) target).put(key, value, timeToLive);
+		}
+		else {
+			target.put(key, value);
+		}
+	}
+
+	@Override
+	public void evict(Object key) {
+		target.evict(key);
+	}
+
+	@Override
+	public boolean evictIfPresent(Object key) {
+		return target.evictIfPresent(key);
+	}
+
+	@Override
+	public void clear() {
+		target.clear();
+	}
+
+	@Override
+	public boolean invalidate() {
+		return target.invalidate();
+	}
+
+	@Nullable
+	private Object encode(@Nullable Object value) {
+		byte[] bytes = serialize(value, new FastByteArrayOutputStream(1024));
+		return bytes != null ? new CompressedValue(codec.compress(bytes)) : value;
+	}
+
+	/**
+	 * Return the serialized form of the value, or {@code null} if it is to be stored as it is.
+	 *
+	 * @param buffer the buffer to serialize into, reset before use
+	 */
+	@Nullable
+	private byte[] serialize(@Nullable Object value, FastByteArrayOutputStream buffer) {
+		if (value == null || (serializer instanceof DefaultSerializer && !(value instanceof Serializable))) {
+			return null;
+		}
+		buffer.reset();
+		try {
+			serializer.serialize(value, buffer);
+		}
+		catch (IOException ex) {
+			throw new SerializationFailedException("Failed to serialize cache value of type " + value.getClass().getName(), ex);
+		}
+		return buffer.size() >= threshold ? buffer.toByteArray() : null;
+	}
+
+	@Nullable
+	private Object decode(@Nullable Object value) {
+		if (!(value instanceof CompressedValue)) {
+			return value;
+		}
+		byte[] bytes = codec.decompress(((CompressedValue) value).getData());
+		try {
+			return deserializer.deserialize(new ByteArrayInputStream(bytes));
+		}
+		catch (IOException ex) {
+			throw new SerializationFailedException("Failed to deserialize cache value", ex);
+		}
+	}
+
+	/**
+	 * A value compressed by a {@link CompressingCache}.
+	 */
+	public static final class CompressedValue implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] data;
+
+		CompressedValue(byte[] data) {
+			this.data = data;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+	}
+}
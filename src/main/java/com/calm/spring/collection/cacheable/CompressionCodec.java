@@ -0,0 +1,26 @@
+package com.calm.spring.collection.cacheable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compresses the serialized values stored by a {@link CompressingCache}.
+ */
+public interface CompressionCodec {
+
+	byte[] compress(byte[] data);
+
+	byte[] decompress(byte[] data);
+
+	/**
+	 * Compress the values of one bulk put, each on its own so that they can be read
+	 * back separately. Implementations may reuse their state across the values.
+	 */
+	default List<byte[]> compressAll(List<byte[]> data) {
+		List<byte[]> result = new ArrayList<>(data.size());
+		for (byte[] value : data) {
+			result.add(compress(value));
+		}
+		return result;
+	}
+}
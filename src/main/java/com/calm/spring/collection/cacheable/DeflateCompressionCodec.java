@@ -0,0 +1,87 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link CompressionCodec} using the DEFLATE algorithm of {@code java.util.zip}.
+ * <p>{@link #compressAll} reuses a single {@link Deflater} and output buffer for all
+ * values of a bulk put.
+ */
+public class DeflateCompressionCodec implements CompressionCodec {
+
+	private final int level;
+
+	public DeflateCompressionCodec() {
+		this(Deflater.BEST_SPEED);
+	}
+
+	/**
+	 * Create a codec with the given compression level, from {@link Deflater#BEST_SPEED}
+	 * to {@link Deflater#BEST_COMPRESSION}.
+	 */
+	public DeflateCompressionCodec(int level) {
+		Assert.isTrue(level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION, "Invalid compression level");
+		this.level = level;
+	}
+
+	@Override
+	public byte[] compress(byte[] data) {
+		return compressAll(Collections.singletonList(data)).get(0);
+	}
+
+	@Override
+	public List<byte[]> compressAll(List<byte[]> data) {
+		List<byte[]> result = new ArrayList<>(data.size());
+		Deflater deflater = new Deflater(level);
+		byte[] buffer = new byte[4096];
+		ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+		try {
+			for (byte[] value : data) {
+				deflater.reset();
+				deflater.setInput(value);
+				deflater.finish();
+				out.reset();
+				while (!deflater.finished()) {
+					out.write(buffer, 0, deflater.deflate(buffer));
+				}
+				result.add(out.toByteArray());
+			}
+		}
+		finally {
+			deflater.end();
+		}
+		return result;
+	}
+
+	@Override
+	public byte[] decompress(byte[] data) {
+		Inflater inflater = new Inflater();
+		byte[] buffer = new byte[4096];
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+		try {
+			inflater.setInput(data);
+			while (!inflater.finished()) {
+				int length = inflater.inflate(buffer);
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IllegalStateException("Truncated compressed value");
+				}
+				out.write(buffer, 0, length);
+			}
+		}
+		catch (DataFormatException ex) {
+			throw new IllegalStateException("Invalid compressed value", ex);
+		}
+		finally {
+			inflater.end();
+		}
+		return out.toByteArray();
+	}
+}
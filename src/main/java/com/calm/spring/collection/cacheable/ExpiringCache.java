@@ -0,0 +1,21 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.cache.Cache;
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+
+/**
+ * {@link Cache} supporting a time to live per entry, used by the collection cache
+ * operations declaring a {@code ttl}.
+ * <p>Entries put into caches not implementing this interface do not expire
+ * individually, but according to the configuration of the cache.
+ */
+public interface ExpiringCache extends Cache {
+
+	/**
+	 * Associate the specified value with the specified key in this cache, letting
+	 * the entry expire after the given time to live.
+	 */
+	void put(Object key, @Nullable Object value, Duration timeToLive);
+}
@@ -0,0 +1,60 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory for the executor used by {@link CollectionCacheInterceptor#setFanOutExecutor}
+ * to run blocking cache I/O concurrently.
+ * <p>On Java 21 and later, every task runs on its own virtual thread, so no pool
+ * has to be sized. On earlier versions, a bounded pool of daemon platform threads is
+ * used, which runs tasks on the calling thread once it is saturated.
+ */
+public abstract class FanOutExecutors {
+
+	private static final String THREAD_NAME_PREFIX = "collection-cache-";
+
+	/**
+	 * Create a virtual thread executor if available, or else a bounded platform thread pool.
+	 *
+	 * @param maxPlatformThreads the maximum number of threads of the fallback pool
+	 */
+	public static ExecutorService newFanOutExecutor(int maxPlatformThreads) {
+		ExecutorService executor = newVirtualThreadExecutor();
+		if (executor != null) {
+			return executor;
+		}
+		return newBoundedExecutor(maxPlatformThreads);
+	}
+
+	/**
+	 * Create an executor starting a new virtual thread per task, or return {@code null}
+	 * if virtual threads are not available on the running JVM.
+	 */
+	@Nullable
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		}
+		catch (ReflectiveOperationException | LinkageError ex) {
+			return null;
+		}
+	}
+
+	public static ExecutorService newBoundedExecutor(int maxThreads) {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(THREAD_NAME_PREFIX);
+		threadFactory.setDaemon(true);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(maxThreads * 16), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+}
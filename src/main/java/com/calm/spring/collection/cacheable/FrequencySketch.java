@@ -0,0 +1,92 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.util.Assert;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-Min sketch estimating how often a key has been seen recently.
+ * <p>Counts are only ever over-estimated. Once the number of increments reaches
+ * ten times the width of the sketch, all counters are halved, so that keys which
+ * are no longer requested age out.
+ */
+public class FrequencySketch {
+
+	private static final int DEPTH = 4;
+
+	private static final int[] SEEDS = {0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f};
+
+	private final AtomicIntegerArray table;
+
+	private final int mask;
+
+	private final int sampleSize;
+
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Create a sketch sized for the given number of distinct keys.
+	 */
+	public FrequencySketch(int expectedKeys) {
+		Assert.isTrue(expectedKeys > 0, "expectedKeys must be positive");
+		int width = Integer.highestOneBit(Math.max(expectedKeys, 16) - 1) << 1;
+		this.table = new AtomicIntegerArray(width * DEPTH);
+		this.mask = width - 1;
+		this.sampleSize = width * 10;
+	}
+
+	/**
+	 * Count one occurrence of the given key.
+	 *
+	 * @return the estimated frequency of the key, including this occurrence
+	 */
+	public int increment(Object key) {
+		int hash = spread(key.hashCode());
+		int frequency = Integer.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++) {
+			frequency = Math.min(frequency, table.incrementAndGet(indexOf(hash, row)));
+		}
+		if (size.incrementAndGet() >= sampleSize) {
+			reset();
+		}
+		return frequency;
+	}
+
+	/**
+	 * Return the estimated frequency of the given key.
+	 */
+	public int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int frequency = Integer.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++) {
+			frequency = Math.min(frequency, table.get(indexOf(hash, row)));
+		}
+		return frequency;
+	}
+
+	private void reset() {
+		int current = size.get();
+		if (current < sampleSize || !size.compareAndSet(current, current / 2)) {
+			// another thread is already aging the counters
+			return;
+		}
+		for (int i = 0; i < table.length(); i++) {
+			int count;
+			do {
+				count = table.get(i);
+			} while (!table.compareAndSet(i, count, count >>> 1));
+		}
+	}
+
+	private int indexOf(int hash, int row) {
+		int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+		h ^= h >>> 16;
+		return row * (mask + 1) + (h & mask);
+	}
+
+	private static int spread(int hash) {
+		int h = hash * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
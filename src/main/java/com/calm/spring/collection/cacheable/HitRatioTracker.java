@@ -0,0 +1,56 @@
+package com.calm.spring.collection.cacheable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exponentially decaying hit ratio of a single {@link CollectionCacheableOperation},
+ * used to skip cache lookups while the ratio stays below the configured minimum.
+ * <p>While lookups are bypassed, every {@code probeInterval}-th invocation still
+ * looks up the cache so that a recovering hit ratio is noticed.
+ */
+class HitRatioTracker {
+
+	private final double minHitRatio;
+
+	private final double decay;
+
+	private final int probeInterval;
+
+	/**
+	 * Raw long bits of the current ratio, starting optimistically at {@code 1.0}.
+	 */
+	private final AtomicLong ratioBits = new AtomicLong(Double.doubleToRawLongBits(1.0));
+
+	private final AtomicLong bypassed = new AtomicLong();
+
+	HitRatioTracker(double minHitRatio, double decay, int probeInterval) {
+		this.minHitRatio = minHitRatio;
+		this.decay = decay;
+		this.probeInterval = probeInterval;
+	}
+
+	public boolean shouldLookup() {
+		if (getHitRatio() >= minHitRatio) {
+			return true;
+		}
+		return bypassed.incrementAndGet() % probeInterval == 0;
+	}
+
+	public void record(int hits, int requested) {
+		if (requested == 0) {
+			return;
+		}
+		double sample = (double) hits / requested;
+		long current;
+		long updated;
+		do {
+			current = ratioBits.get();
+			double ratio = Double.longBitsToDouble(current);
+			updated = Double.doubleToRawLongBits(ratio + decay * (sample - ratio));
+		} while (!ratioBits.compareAndSet(current, updated));
+	}
+
+	public double getHitRatio() {
+		return Double.longBitsToDouble(ratioBits.get());
+	}
+}
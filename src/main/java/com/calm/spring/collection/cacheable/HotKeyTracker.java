@@ -0,0 +1,299 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.cache.Cache;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Detects hot keys of the collection cache operations with a {@link FrequencySketch},
+ * and pins their values in a small in-process tier in front of the caches.
+ * <p>The {@link CollectionCacheInterceptor} counts every key it looks up. Once the
+ * estimated frequency of a key reaches the {@link #setHotThreshold hot threshold},
+ * the value found for it is pinned, and later lookups are served from the pinned
+ * tier until the {@link #setPinTimeToLiveMillis time to live} has passed. Puts and
+ * evictions done by the collection operations update the pinned tier; other writes
+ * to the caches are only seen once the pinned entry has expired.
+ */
+public class HotKeyTracker {
+
+	/**
+	 * Number of pinned keys compared when one has to make room for a new hot key.
+	 */
+	private static final int EVICTION_SAMPLE_SIZE = 8;
+
+	private final FrequencySketch sketch;
+
+	private final ConcurrentMap<HotKey, PinnedValue> pinned = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<HotKey, Integer> topKeys = new ConcurrentHashMap<>();
+
+	private final Object evictionLock = new Object();
+
+	// guarded by evictionLock, continues where the previous sample stopped
+	private Iterator<HotKey> evictionCandidates = Collections.emptyIterator();
+
+	private int hotThreshold = 64;
+
+	private int maxPinnedKeys = 1024;
+
+	private int topKeyCount = 32;
+
+	private long pinTimeToLiveMillis = 10_000;
+
+	/**
+	 * Create a tracker with a sketch sized for the given number of distinct keys.
+	 */
+	public HotKeyTracker(int expectedKeys) {
+		this.sketch = new FrequencySketch(expectedKeys);
+	}
+
+	/**
+	 * Set the estimated frequency from which a key is considered hot.
+	 * <p>Default is {@code 64}.
+	 */
+	public void setHotThreshold(int hotThreshold) {
+		Assert.isTrue(hotThreshold > 0, "hotThreshold must be positive");
+		this.hotThreshold = hotThreshold;
+	}
+
+	/**
+	 * Set the maximum number of pinned keys. When full, a new hot key only replaces
+	 * the least frequent of a small sample of pinned keys if it is more frequent.
+	 * <p>Default is {@code 1024}.
+	 */
+	public void setMaxPinnedKeys(int maxPinnedKeys) {
+		Assert.isTrue(maxPinnedKeys > 0, "maxPinnedKeys must be positive");
+		this.maxPinnedKeys = maxPinnedKeys;
+	}
+
+	/**
+	 * Set the number of hottest keys reported by {@link #getTopKeys()}.
+	 * <p>Default is {@code 32}.
+	 */
+	public void setTopKeyCount(int topKeyCount) {
+		Assert.isTrue(topKeyCount > 0, "topKeyCount must be positive");
+		this.topKeyCount = topKeyCount;
+	}
+
+	/**
+	 * Set how long a pinned value is served before the cache is looked up again.
+	 * <p>Default is {@code 10000}.
+	 */
+	public void setPinTimeToLiveMillis(long pinTimeToLiveMillis) {
+		Assert.isTrue(pinTimeToLiveMillis > 0, "pinTimeToLiveMillis must be positive");
+		this.pinTimeToLiveMillis = pinTimeToLiveMillis;
+	}
+
+	/**
+	 * Count a lookup of the given key.
+	 *
+	 * @return whether the key is hot
+	 */
+	public boolean recordAccess(String cacheName, Object key) {
+		HotKey hotKey = new HotKey(cacheName, key);
+		int frequency = sketch.increment(hotKey);
+		if (frequency < hotThreshold) {
+			return false;
+		}
+		updateTopKeys(hotKey, frequency);
+		return true;
+	}
+
+	public boolean isHot(String cacheName, Object key) {
+		return sketch.frequency(new HotKey(cacheName, key)) >= hotThreshold;
+	}
+
+	/**
+	 * Return the pinned value of the given key, or {@code null} if it is not pinned
+	 * or its pin has expired.
+	 */
+	@Nullable
+	public Cache.ValueWrapper getPinned(String cacheName, Object key) {
+		HotKey hotKey = new HotKey(cacheName, key);
+		PinnedValue value = pinned.get(hotKey);
+		if (value == null) {
+			return null;
+		}
+		if (value.expiresAt < System.currentTimeMillis()) {
+			pinned.remove(hotKey, value);
+			return null;
+		}
+		return value.wrapper;
+	}
+
+	/**
+	 * Pin the value of a hot key, or refresh it if the key is already pinned.
+	 */
+	public void pin(String cacheName, Object key, Cache.ValueWrapper wrapper) {
+		HotKey hotKey = new HotKey(cacheName, key);
+		PinnedValue value = new PinnedValue(wrapper, System.currentTimeMillis() + pinTimeToLiveMillis);
+		if (pinned.replace(hotKey, value) != null) {
+			return;
+		}
+		if (pinned.size() >= maxPinnedKeys && !evictColderThan(sketch.frequency(hotKey))) {
+			return;
+		}
+		pinned.put(hotKey, value);
+	}
+
+	/**
+	 * Update the pinned value of a key that has been put to the cache, pinning it if it is hot.
+	 */
+	public void onPut(String cacheName, Object key, Cache.ValueWrapper wrapper) {
+		if (pinned.containsKey(new HotKey(cacheName, key)) || isHot(cacheName, key)) {
+			pin(cacheName, key, wrapper);
+		}
+	}
+
+	public void unpin(String cacheName, Object key) {
+		pinned.remove(new HotKey(cacheName, key));
+	}
+
+	public void unpinAll(String cacheName) {
+		pinned.keySet().removeIf(hotKey -> hotKey.cacheName.equals(cacheName));
+	}
+
+	public int getPinnedCount() {
+		return pinned.size();
+	}
+
+	/**
+	 * Return the hottest keys seen so far, most frequent first.
+	 */
+	public List<HotKey> getTopKeys() {
+		List<HotKey> result = new ArrayList<>(topKeys.size());
+		for (Map.Entry<HotKey, Integer> entry : topKeys.entrySet()) {
+			result.add(new HotKey(entry.getKey().cacheName, entry.getKey().key, entry.getValue()));
+		}
+		result.sort(Comparator.comparingInt(HotKey::getFrequency).reversed());
+		return result;
+	}
+
+	private void updateTopKeys(HotKey hotKey, int frequency) {
+		if (topKeys.replace(hotKey, frequency) != null) {
+			return;
+		}
+		if (topKeys.size() >= topKeyCount) {
+			Map.Entry<HotKey, Integer> coldest = null;
+			for (Map.Entry<HotKey, Integer> entry : topKeys.entrySet()) {
+				if (coldest == null || entry.getValue() < coldest.getValue()) {
+					coldest = entry;
+				}
+			}
+			if (coldest == null || coldest.getValue() >= frequency) {
+				return;
+			}
+			topKeys.remove(coldest.getKey(), coldest.getValue());
+		}
+		topKeys.put(hotKey, frequency);
+	}
+
+	/**
+	 * Evict the least frequent of the next few pinned keys, if it is less frequent than
+	 * the given frequency. Sampling keeps making room constant-time however large the
+	 * tier is, at the price of not always evicting the least frequent key of all.
+	 */
+	private boolean evictColderThan(int frequency) {
+		HotKey coldest = null;
+		int coldestFrequency = Integer.MAX_VALUE;
+		synchronized (evictionLock) {
+			for (int i = 0; i < EVICTION_SAMPLE_SIZE; i++) {
+				if (!evictionCandidates.hasNext()) {
+					// the iterator of the concurrent map is weakly consistent, never failing
+					evictionCandidates = pinned.keySet().iterator();
+					if (!evictionCandidates.hasNext()) {
+						break;
+					}
+				}
+				HotKey candidate = evictionCandidates.next();
+				int candidateFrequency = sketch.frequency(candidate);
+				if (candidateFrequency < coldestFrequency) {
+					coldest = candidate;
+					coldestFrequency = candidateFrequency;
+				}
+			}
+		}
+		if (coldest == null || coldestFrequency >= frequency) {
+			return false;
+		}
+		pinned.remove(coldest);
+		return true;
+	}
+
+	private static final class PinnedValue {
+
+		private final Cache.ValueWrapper wrapper;
+
+		private final long expiresAt;
+
+		PinnedValue(Cache.ValueWrapper wrapper, long expiresAt) {
+			this.wrapper = wrapper;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * A key of a named cache, with its estimated frequency when reported by {@link #getTopKeys()}.
+	 */
+	public static final class HotKey {
+
+		private final String cacheName;
+
+		private final Object key;
+
+		private final int frequency;
+
+		HotKey(String cacheName, Object key) {
+			this(cacheName, key, 0);
+		}
+
+		HotKey(String cacheName, Object key, int frequency) {
+			this.cacheName = cacheName;
+			this.key = key;
+			this.frequency = frequency;
+		}
+
+		public String getCacheName() {
+			return cacheName;
+		}
+
+		public Object getKey() {
+			return key;
+		}
+
+		public int getFrequency() {
+			return frequency;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (o == null || getClass() != o.getClass()) {
+				return false;
+			}
+			HotKey hotKey = (HotKey) o;
+			return cacheName.equals(hotKey.cacheName) && key.equals(hotKey.key);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * cacheName.hashCode() + key.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return cacheName + ":" + key + " (" + frequency + ")";
+		}
+	}
+}
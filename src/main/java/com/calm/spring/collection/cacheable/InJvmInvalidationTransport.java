@@ -0,0 +1,28 @@
+package com.calm.spring.collection.cacheable;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * {@link InvalidationTransport} delivering the messages to the subscribers within the
+ * same JVM, e.g. to the buses of several application contexts sharing this instance.
+ * <p>Messages are delivered on the publishing thread, which is the flushing thread of
+ * the sending bus.
+ */
+public class InJvmInvalidationTransport implements InvalidationTransport {
+
+	private final List<Consumer<InvalidationMessage>> subscribers = new CopyOnWriteArrayList<>();
+
+	@Override
+	public void publish(InvalidationMessage message) {
+		for (Consumer<InvalidationMessage> subscriber : subscribers) {
+			subscriber.accept(message);
+		}
+	}
+
+	@Override
+	public void subscribe(Consumer<InvalidationMessage> subscriber) {
+		subscribers.add(subscriber);
+	}
+}
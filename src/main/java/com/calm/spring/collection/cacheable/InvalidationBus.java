@@ -0,0 +1,207 @@
+package com.calm.spring.collection.cacheable;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bus broadcasting the keys evicted from the local caches of one node to all other
+ * nodes, which then evict them from their local caches as well.
+ * <p>Keys passed to {@link #invalidate} are collected for the
+ * {@link #setBatchWindowMillis batch window}, or until {@link #setMaxBatchSize
+ * maxBatchSize} keys are pending, and sent as one {@link InvalidationMessage} by the
+ * {@link InvalidationTransport}. Sending and applying messages both happen on the
+ * thread of the bus, so neither the evicting thread nor the threads reading the caches
+ * ever wait for them.
+ * <p>Set on the {@link CollectionCacheInterceptor#setInvalidationBus interceptor}, the
+ * bus broadcasts the evictions and puts of the collection operations.
+ */
+public class InvalidationBus implements Closeable {
+
+	private static final Log logger = LogFactory.getLog(InvalidationBus.class);
+
+	private final String id = UUID.randomUUID().toString();
+
+	private final InvalidationTransport transport;
+
+	private final CacheManager cacheManager;
+
+	private final ScheduledExecutorService executor;
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	private final Object lock = new Object();
+
+	private Map<String, Set<Object>> pendingKeys = new LinkedHashMap<>();
+
+	private int pendingCount;
+
+	private boolean flushScheduled;
+
+	private long batchWindowMillis = 10;
+
+	private int maxBatchSize = 1000;
+
+	/**
+	 * Create a bus sending and receiving messages by the given transport, and applying
+	 * the received ones to the caches of the given cache manager.
+	 */
+	public InvalidationBus(InvalidationTransport transport, CacheManager cacheManager) {
+		this.transport = transport;
+		this.cacheManager = cacheManager;
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("collection-cache-invalidation-");
+		threadFactory.setDaemon(true);
+		this.executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		transport.subscribe(this::receive);
+	}
+
+	/**
+	 * Set how long evicted keys are collected before they are sent as one message.
+	 * <p>Default is {@code 10}.
+	 */
+	public void setBatchWindowMillis(long batchWindowMillis) {
+		Assert.isTrue(batchWindowMillis >= 0, "batchWindowMillis must not be negative");
+		this.batchWindowMillis = batchWindowMillis;
+	}
+
+	/**
+	 * Set the number of pending keys from which they are sent without waiting for
+	 * the end of the batch window.
+	 * <p>Default is {@code 1000}.
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		Assert.isTrue(maxBatchSize > 0, "maxBatchSize must be positive");
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Register a listener notified after received keys have been evicted.
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Broadcast that the given key has been evicted from, or updated in, the given cache.
+	 * <p>Does nothing once the bus has been {@link #close closed}.
+	 */
+	public void invalidate(String cacheName, Object key) {
+		boolean flushNow;
+		synchronized (lock) {
+			if (executor.isShutdown()) {
+				return;
+			}
+			if (pendingKeys.computeIfAbsent(cacheName, name -> new LinkedHashSet<>()).add(key)) {
+				pendingCount++;
+			}
+			flushNow = pendingCount >= maxBatchSize;
+			if (!flushNow && !flushScheduled) {
+				flushScheduled = true;
+				submit(() -> executor.schedule(this::flush, batchWindowMillis, TimeUnit.MILLISECONDS));
+			}
+		}
+		if (flushNow) {
+			submit(() -> executor.execute(this::flush));
+		}
+	}
+
+	/**
+	 * Send the pending keys now.
+	 */
+	public void flush() {
+		Map<String, Set<Object>> batch;
+		synchronized (lock) {
+			flushScheduled = false;
+			if (pendingCount == 0) {
+				return;
+			}
+			batch = pendingKeys;
+			pendingKeys = new LinkedHashMap<>();
+			pendingCount = 0;
+		}
+		try {
+			transport.publish(new InvalidationMessage(id, batch));
+		}
+		catch (RuntimeException ex) {
+			logger.warn("Failed to publish invalidation of " + batch.keySet(), ex);
+		}
+	}
+
+	private void receive(InvalidationMessage message) {
+		if (id.equals(message.getOrigin())) {
+			return;
+		}
+		// hand over to the thread of the bus, so the transport is not held up by the caches
+		submit(() -> executor.execute(() -> apply(message)));
+	}
+
+	private void apply(InvalidationMessage message) {
+		for (Map.Entry<String, Set<Object>> entry : message.getKeys().entrySet()) {
+			Cache cache = cacheManager.getCache(entry.getKey());
+			if (cache == null) {
+				continue;
+			}
+			try {
+				for (Object key : entry.getValue()) {
+					cache.evict(key);
+				}
+				for (Listener listener : listeners) {
+					listener.onInvalidation(cache, entry.getValue());
+				}
+			}
+			catch (RuntimeException ex) {
+				logger.warn("Failed to apply invalidation of cache '" + entry.getKey() + "'", ex);
+			}
+		}
+	}
+
+	private void submit(Runnable task) {
+		try {
+			task.run();
+		}
+		catch (RejectedExecutionException ex) {
+			// the bus has been closed
+		}
+	}
+
+	/**
+	 * Send the pending keys and stop the thread of the bus.
+	 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			executor.shutdown();
+		}
+		flush();
+	}
+
+	/**
+	 * Listener notified about keys evicted from a local cache on behalf of another node.
+	 */
+	@FunctionalInterface
+	public interface Listener {
+
+		void onInvalidation(Cache cache, Collection<?> keys);
+	}
+}
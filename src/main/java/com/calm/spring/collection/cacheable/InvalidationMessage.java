@@ -0,0 +1,44 @@
+package com.calm.spring.collection.cacheable;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Batch of keys evicted on one node, sent by an {@link InvalidationBus} to the other
+ * nodes so that they evict the keys from their local caches as well.
+ * <p>The keys have to be serializable for transports crossing the JVM boundary.
+ */
+public final class InvalidationMessage implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String origin;
+
+	private final Map<String, Set<Object>> keys;
+
+	public InvalidationMessage(String origin, Map<String, Set<Object>> keys) {
+		this.origin = origin;
+		this.keys = keys;
+	}
+
+	/**
+	 * Return the id of the bus that sent the message.
+	 */
+	public String getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * Return the evicted keys by cache name.
+	 */
+	public Map<String, Set<Object>> getKeys() {
+		return Collections.unmodifiableMap(keys);
+	}
+
+	@Override
+	public String toString() {
+		return "InvalidationMessage[origin=" + origin + ", keys=" + keys + "]";
+	}
+}
@@ -0,0 +1,25 @@
+package com.calm.spring.collection.cacheable;
+
+import java.util.function.Consumer;
+
+/**
+ * Transport delivering the {@link InvalidationMessage messages} of an
+ * {@link InvalidationBus} to the buses of the other nodes. Messages delivered back
+ * to the sending bus are ignored by it.
+ * <p>Delivery is best effort: a node missing a message keeps the stale entries
+ * until they expire.
+ *
+ * @see InJvmInvalidationTransport
+ */
+public interface InvalidationTransport {
+
+	/**
+	 * Send the given message to all subscribers.
+	 */
+	void publish(InvalidationMessage message);
+
+	/**
+	 * Register a subscriber for the messages received by this transport.
+	 */
+	void subscribe(Consumer<InvalidationMessage> subscriber);
+}
@@ -0,0 +1,33 @@
+package com.calm.spring.collection.cacheable;
+
+/**
+ * Collects the timings of a single {@code @CollectionCacheable} invocation, only
+ * created while someone is listening, e.g. a JDK Flight Recorder recording.
+ * <p>Not thread-safe: all methods are called on the invoking thread. Work handed to
+ * another thread runs on a {@link CollectionCacheInterceptor.CollectionCacheableOperationContext#detach()
+ * detached} context, which has no recording.
+ *
+ * @see InvocationRecordings
+ */
+interface InvocationRecording {
+
+	void recordKeyGeneration(long nanos);
+
+	void recordCacheIo(long nanos);
+
+	/**
+	 * Record a lookup of the given number of ids, of which only the ones looked up
+	 * before the lookup budget was spent count as hits or misses.
+	 */
+	void recordLookup(int requested, int lookedUp, int hits);
+
+	/**
+	 * Called before the method is invoked to load the given number of ids,
+	 * or {@code -1} for a {@code findAll}-like method.
+	 */
+	void beginLoad(int ids);
+
+	void endLoad(int loaded);
+
+	void commit();
+}
@@ -0,0 +1,31 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+
+/**
+ * Starts the {@link InvocationRecording} of an invocation if JDK Flight Recorder
+ * events are available and enabled.
+ * <p>The JFR classes are only touched if present, so that this library still runs
+ * on Java 8 builds without Flight Recorder.
+ */
+abstract class InvocationRecordings {
+
+	private static final boolean JFR_PRESENT = ClassUtils.isPresent(
+			"jdk.jfr.Event", InvocationRecordings.class.getClassLoader());
+
+	/**
+	 * Return a recording for an invocation of the given method, or {@code null}
+	 * if nothing is recorded, without allocating anything in the latter case.
+	 */
+	@Nullable
+	static InvocationRecording begin(Method method, Class<?> targetClass, Collection<String> cacheNames) {
+		if (!JFR_PRESENT) {
+			return null;
+		}
+		return JfrInvocationRecording.begin(method, targetClass, cacheNames);
+	}
+}
@@ -0,0 +1,156 @@
+package com.calm.spring.collection.cacheable;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+
+/**
+ * Records an invocation as a {@link InvocationEvent}, and each invocation of the
+ * underlying method as a {@link LoadEvent}.
+ * <p>Both events are disabled by default and are enabled in the recording settings,
+ * e.g. {@code jcmd <pid> JFR.start settings=my.jfc} with
+ * {@code com.calm.spring.collection.cacheable.Invocation#enabled=true}.
+ */
+final class JfrInvocationRecording implements InvocationRecording {
+
+	/**
+	 * Whether the invocation event is enabled in any running recording, checked before
+	 * anything is allocated for an invocation.
+	 */
+	private static final EventType INVOCATION_EVENT_TYPE = EventType.getEventType(InvocationEvent.class);
+
+	private final InvocationEvent event;
+
+	@Nullable
+	private LoadEvent loadEvent;
+
+	private long loadStart;
+
+	private JfrInvocationRecording(InvocationEvent event) {
+		this.event = event;
+	}
+
+	@Nullable
+	static InvocationRecording begin(Method method, Class<?> targetClass, Collection<String> cacheNames) {
+		if (!INVOCATION_EVENT_TYPE.isEnabled()) {
+			return null;
+		}
+		InvocationEvent event = new InvocationEvent();
+		event.operation = ClassUtils.getQualifiedMethodName(method, targetClass);
+		event.cacheNames = StringUtils.collectionToCommaDelimitedString(cacheNames);
+		event.begin();
+		return new JfrInvocationRecording(event);
+	}
+
+	@Override
+	public void recordKeyGeneration(long nanos) {
+		event.keyGenerationTime += nanos;
+	}
+
+	@Override
+	public void recordCacheIo(long nanos) {
+		event.cacheIoTime += nanos;
+	}
+
+	@Override
+	public void recordLookup(int requested, int lookedUp, int hits) {
+		event.requested += requested;
+		event.hits += hits;
+		event.misses += lookedUp - hits;
+	}
+
+	@Override
+	public void beginLoad(int ids) {
+		LoadEvent load = new LoadEvent();
+		if (load.isEnabled()) {
+			load.operation = event.operation;
+			load.ids = ids;
+			load.begin();
+			loadEvent = load;
+		}
+		loadStart = System.nanoTime();
+	}
+
+	@Override
+	public void endLoad(int loaded) {
+		event.loaderTime += System.nanoTime() - loadStart;
+		LoadEvent load = loadEvent;
+		if (load != null) {
+			load.loaded = loaded;
+			load.commit();
+			loadEvent = null;
+		}
+	}
+
+	@Override
+	public void commit() {
+		event.commit();
+	}
+
+	@Name("com.calm.spring.collection.cacheable.Invocation")
+	@Label("Collection Cache Invocation")
+	@Description("Invocation of a method annotated with @CollectionCacheable")
+	@Category({"Spring", "Collection Cache"})
+	@Enabled(false)
+	@StackTrace(false)
+	static class InvocationEvent extends Event {
+
+		@Label("Operation")
+		String operation;
+
+		@Label("Cache Names")
+		String cacheNames;
+
+		@Label("Requested Ids")
+		int requested;
+
+		@Label("Hits")
+		int hits;
+
+		@Label("Misses")
+		int misses;
+
+		@Label("Key Generation Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long keyGenerationTime;
+
+		@Label("Cache I/O Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long cacheIoTime;
+
+		@Label("Loader Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long loaderTime;
+	}
+
+	@Name("com.calm.spring.collection.cacheable.Load")
+	@Label("Collection Cache Load")
+	@Description("Invocation of the underlying method loading the ids missed by a @CollectionCacheable invocation")
+	@Category({"Spring", "Collection Cache"})
+	@Enabled(false)
+	@StackTrace(false)
+	static class LoadEvent extends Event {
+
+		@Label("Operation")
+		String operation;
+
+		@Label("Ids")
+		@Description("Number of ids passed to the method, or -1 for a findAll-like method")
+		int ids;
+
+		@Label("Loaded Entries")
+		int loaded;
+	}
+}
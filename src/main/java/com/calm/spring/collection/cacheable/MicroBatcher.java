@@ -0,0 +1,149 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * Gathers the ids requested by concurrent callers into batches loaded by one call.
+ * <p>The caller opening a batch waits for the batch window, or until the batch is full,
+ * and then loads it on its own thread, unless the caller filling the batch already
+ * did. All other callers wait for the batch holding their id, so no thread is started.
+ * An id requested again while its batch is open, or while it is being loaded, joins
+ * the pending load.
+ */
+final class MicroBatcher {
+
+	private final IntSupplier maxBatchSize;
+
+	private final long windowNanos;
+
+	private final Function<List<Object>, Map<?, ?>> loader;
+
+	@Nullable
+	private Batch openBatch;
+
+	// the results of the ids of the open batch and of the batches being loaded
+	private final Map<Object, CompletableFuture<Object>> inFlight = new HashMap<>();
+
+	MicroBatcher(IntSupplier maxBatchSize, long windowMillis, Function<List<Object>, Map<?, ?>> loader) {
+		this.maxBatchSize = maxBatchSize;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		this.loader = loader;
+	}
+
+	/**
+	 * Return the value loaded for the given id, or {@code null} if the loader did not
+	 * return one.
+	 */
+	@Nullable
+	Object load(Object id) {
+		Batch batch;
+		CompletableFuture<Object> result;
+		boolean opened;
+		boolean filled;
+		synchronized (this) {
+			CompletableFuture<Object> pending = inFlight.get(id);
+			if (pending != null) {
+				return join(pending);
+			}
+			if (openBatch == null) {
+				openBatch = new Batch();
+			}
+			batch = openBatch;
+			opened = batch.results.isEmpty();
+			result = new CompletableFuture<>();
+			batch.results.put(id, result);
+			inFlight.put(id, result);
+			filled = batch.results.size() >= maxBatchSize.getAsInt();
+			if (filled) {
+				openBatch = null;
+			}
+		}
+		if (filled) {
+			batch.filled.countDown();
+			dispatch(batch);
+		}
+		else if (opened) {
+			awaitWindow(batch);
+			if (close(batch)) {
+				dispatch(batch);
+			}
+		}
+		return join(result);
+	}
+
+	@Nullable
+	private Object join(CompletableFuture<Object> result) {
+		try {
+			return result.join();
+		}
+		catch (CompletionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			if (ex.getCause() instanceof Error) {
+				throw (Error) ex.getCause();
+			}
+			throw ex;
+		}
+	}
+
+	private void awaitWindow(Batch batch) {
+		try {
+			batch.filled.await(windowNanos, TimeUnit.NANOSECONDS);
+		}
+		catch (InterruptedException ex) {
+			// load right away, the other callers of the batch are waiting for it
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private synchronized boolean close(Batch batch) {
+		if (openBatch != batch) {
+			return false;
+		}
+		openBatch = null;
+		return true;
+	}
+
+	private void dispatch(Batch batch) {
+		try {
+			Map<?, ?> loaded = loader.apply(new ArrayList<>(batch.results.keySet()));
+			for (Map.Entry<Object, CompletableFuture<Object>> entry : batch.results.entrySet()) {
+				entry.getValue().complete(loaded.get(entry.getKey()));
+			}
+		}
+		catch (RuntimeException | Error ex) {
+			for (CompletableFuture<Object> result : batch.results.values()) {
+				result.completeExceptionally(ex);
+			}
+		}
+		finally {
+			// only now, so that ids requested during the load join it
+			synchronized (this) {
+				for (Map.Entry<Object, CompletableFuture<Object>> entry : batch.results.entrySet()) {
+					inFlight.remove(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+	}
+
+	private static final class Batch {
+
+		// only modified while open, under the lock of the batcher
+		private final Map<Object, CompletableFuture<Object>> results = new LinkedHashMap<>();
+
+		private final CountDownLatch filled = new CountDownLatch(1);
+	}
+}
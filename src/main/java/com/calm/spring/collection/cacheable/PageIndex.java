@@ -0,0 +1,159 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-process index from the key of an element to the keys of the cached
+ * {@link CollectionCachePage pages} containing it, per cache, so that writing an
+ * element only invalidates the pages it is on.
+ * <p>Pages cached by other processes are not indexed, they are reloaded once one of
+ * their elements is missing from the cache. Each cache indexes at most a fixed number
+ * of pages, each until the time to live it was put with: the oldest page beyond that
+ * number is dropped from the index, and is to be evicted from the cache, as writes to
+ * its elements would go unnoticed.
+ */
+final class PageIndex {
+
+	private final int maxPages;
+
+	private final ConcurrentMap<String, Pages> pages = new ConcurrentHashMap<>();
+
+	PageIndex(int maxPages) {
+		this.maxPages = maxPages;
+	}
+
+	/**
+	 * Index the given page, replacing a previous version of it.
+	 *
+	 * @param ttl the time to live the page was put with, or {@code null} if none
+	 * @return the keys of the pages dropped from the index to make room for it
+	 */
+	List<Object> register(String cacheName, Object pageKey, Collection<?> elementKeys, @Nullable Duration ttl) {
+		Pages index = pages.computeIfAbsent(cacheName, name -> new Pages());
+		long now = System.nanoTime();
+		long expiresAt = ttl != null ? now + ttl.toNanos() : Long.MAX_VALUE;
+		synchronized (index) {
+			index.expire(now);
+			index.unlink(pageKey);
+			index.link(pageKey, new IndexedPage(new HashSet<>(elementKeys), expiresAt));
+			if (index.pages.size() <= maxPages) {
+				return Collections.emptyList();
+			}
+			List<Object> dropped = new ArrayList<>(index.pages.size() - maxPages);
+			Iterator<Object> oldest = index.pages.keySet().iterator();
+			while (index.pages.size() - dropped.size() > maxPages) {
+				dropped.add(oldest.next());
+			}
+			for (Object droppedKey : dropped) {
+				index.unlink(droppedKey);
+			}
+			return dropped;
+		}
+	}
+
+	/**
+	 * Drop the given page from the index, e.g. as it could not be cached.
+	 */
+	void unregister(String cacheName, Object pageKey) {
+		Pages index = pages.get(cacheName);
+		if (index == null) {
+			return;
+		}
+		synchronized (index) {
+			index.unlink(pageKey);
+		}
+	}
+
+	/**
+	 * Remove and return the keys of the pages containing the given element, dropping
+	 * them from the index for all of their elements.
+	 */
+	Set<Object> remove(String cacheName, Object elementKey) {
+		Pages index = pages.get(cacheName);
+		if (index == null) {
+			return Collections.emptySet();
+		}
+		synchronized (index) {
+			Set<Object> pageKeys = index.elements.get(elementKey);
+			if (pageKeys == null) {
+				return Collections.emptySet();
+			}
+			Set<Object> removed = new HashSet<>(pageKeys);
+			for (Object pageKey : removed) {
+				index.unlink(pageKey);
+			}
+			return removed;
+		}
+	}
+
+	private static final class IndexedPage {
+
+		final Set<Object> elementKeys;
+
+		final long expiresAt;
+
+		IndexedPage(Set<Object> elementKeys, long expiresAt) {
+			this.elementKeys = elementKeys;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * The pages of one cache, in the order they were indexed, and the reverse mapping
+	 * from their elements.
+	 */
+	private static final class Pages {
+
+		private final LinkedHashMap<Object, IndexedPage> pages = new LinkedHashMap<>();
+
+		private final Map<Object, Set<Object>> elements = new HashMap<>();
+
+		void link(Object pageKey, IndexedPage page) {
+			pages.put(pageKey, page);
+			for (Object elementKey : page.elementKeys) {
+				elements.computeIfAbsent(elementKey, key -> new HashSet<>()).add(pageKey);
+			}
+		}
+
+		void unlink(Object pageKey) {
+			IndexedPage page = pages.remove(pageKey);
+			if (page == null) {
+				return;
+			}
+			for (Object elementKey : page.elementKeys) {
+				Set<Object> pageKeys = elements.get(elementKey);
+				if (pageKeys != null && pageKeys.remove(pageKey) && pageKeys.isEmpty()) {
+					elements.remove(elementKey);
+				}
+			}
+		}
+
+		/**
+		 * Drop the expired pages indexed first, which are all the expired ones as long
+		 * as the pages share the same time to live.
+		 */
+		void expire(long now) {
+			while (!pages.isEmpty()) {
+				Map.Entry<Object, IndexedPage> oldest = pages.entrySet().iterator().next();
+				if (oldest.getValue().expiresAt == Long.MAX_VALUE || now - oldest.getValue().expiresAt < 0) {
+					return;
+				}
+				unlink(oldest.getKey());
+			}
+		}
+	}
+}
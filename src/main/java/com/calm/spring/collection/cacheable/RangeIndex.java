@@ -0,0 +1,109 @@
+package com.calm.spring.collection.cacheable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-process index of the spans of numeric ids put into each cache by
+ * {@link com.calm.spring.collection.cacheable.annotation.CollectionCacheable#range()
+ * range} operations, so that the ids outside of them are known to be missing without
+ * looking them up.
+ * <p>The index is a hint: entries of indexed spans may still have expired or been
+ * evicted by the cache itself, and are loaded again once their lookup misses. Spans
+ * cached by other processes are not indexed, they are loaded again once.
+ */
+final class RangeIndex {
+
+	private final ConcurrentMap<String, NavigableMap<Long, Long>> spans = new ConcurrentHashMap<>();
+
+	/**
+	 * Record that the ids from {@code from} to {@code to}, both inclusive, are cached,
+	 * merging the span with the overlapping and adjacent ones.
+	 */
+	void add(String cacheName, long from, long to) {
+		NavigableMap<Long, Long> index = spans.computeIfAbsent(cacheName, name -> new TreeMap<>());
+		synchronized (index) {
+			long start = from;
+			long end = to;
+			Map.Entry<Long, Long> before = index.floorEntry(from);
+			if (before != null && (before.getValue() == Long.MAX_VALUE || before.getValue() + 1 >= from)) {
+				start = before.getKey();
+				end = Math.max(end, before.getValue());
+			}
+			Map.Entry<Long, Long> after = end == Long.MAX_VALUE ? null : index.ceilingEntry(start);
+			while (after != null && after.getKey() <= end + 1) {
+				end = Math.max(end, after.getValue());
+				index.remove(after.getKey());
+				after = end == Long.MAX_VALUE ? null : index.higherEntry(after.getKey());
+			}
+			index.put(start, end);
+		}
+	}
+
+	/**
+	 * Record that the given id is not cached any more, splitting the span holding it.
+	 */
+	void remove(String cacheName, long id) {
+		NavigableMap<Long, Long> index = spans.get(cacheName);
+		if (index == null) {
+			return;
+		}
+		synchronized (index) {
+			Map.Entry<Long, Long> span = index.floorEntry(id);
+			if (span == null || span.getValue() < id) {
+				return;
+			}
+			index.remove(span.getKey());
+			if (span.getKey() < id) {
+				index.put(span.getKey(), id - 1);
+			}
+			if (span.getValue() > id) {
+				index.put(id + 1, span.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Return the spans between {@code from} and {@code to}, both inclusive, cached in
+	 * any of the given caches, as ascending and disjoint {@code [from, to]} pairs.
+	 */
+	List<long[]> covered(Collection<String> cacheNames, long from, long to) {
+		List<long[]> covered = new ArrayList<>();
+		for (String cacheName : cacheNames) {
+			NavigableMap<Long, Long> index = spans.get(cacheName);
+			if (index == null) {
+				continue;
+			}
+			synchronized (index) {
+				Long first = index.floorKey(from);
+				for (Map.Entry<Long, Long> span : index.subMap(first != null ? first : from, true, to, true).entrySet()) {
+					if (span.getValue() >= from) {
+						covered.add(new long[]{Math.max(span.getKey(), from), Math.min(span.getValue(), to)});
+					}
+				}
+			}
+		}
+		if (cacheNames.size() > 1) {
+			covered.sort(Comparator.comparingLong(span -> span[0]));
+			List<long[]> merged = new ArrayList<>(covered.size());
+			for (long[] span : covered) {
+				long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+				if (last != null && (last[1] == Long.MAX_VALUE || span[0] <= last[1] + 1)) {
+					last[1] = Math.max(last[1], span[1]);
+				}
+				else {
+					merged.add(span);
+				}
+			}
+			covered = merged;
+		}
+		return covered;
+	}
+}
@@ -0,0 +1,79 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.core.serializer.DefaultSerializer;
+import org.springframework.core.serializer.Serializer;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * {@link Weigher} taking the size of the serialized form of the value, by default
+ * the Java serialized form, which is what most remote caches store by default.
+ * <p>The serialized bytes are only counted, never buffered. Values which cannot be
+ * serialized get the {@link #setDefaultWeight default weight}.
+ */
+public class SerializedSizeWeigher implements Weigher {
+
+	private final Serializer<Object> serializer;
+
+	private long defaultWeight = 1024;
+
+	public SerializedSizeWeigher() {
+		this(new DefaultSerializer());
+	}
+
+	/**
+	 * Create a weigher counting the bytes written by the given serializer, e.g. the
+	 * one the cache stores its values with.
+	 */
+	public SerializedSizeWeigher(Serializer<Object> serializer) {
+		Assert.notNull(serializer, "Serializer must not be null");
+		this.serializer = serializer;
+	}
+
+	/**
+	 * Set the weight of values that cannot be serialized.
+	 * <p>Default is {@code 1024}.
+	 */
+	public void setDefaultWeight(long defaultWeight) {
+		Assert.isTrue(defaultWeight >= 0, "defaultWeight must not be negative");
+		this.defaultWeight = defaultWeight;
+	}
+
+	@Override
+	public long weigh(Object key, @Nullable Object value) {
+		if (value == null) {
+			return 0;
+		}
+		if (serializer instanceof DefaultSerializer && !(value instanceof Serializable)) {
+			return defaultWeight;
+		}
+		CountingOutputStream counter = new CountingOutputStream();
+		try {
+			serializer.serialize(value, counter);
+		}
+		catch (IOException ex) {
+			// e.g. a field that is not serializable
+			return defaultWeight;
+		}
+		return counter.count;
+	}
+
+	private static final class CountingOutputStream extends OutputStream {
+
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.cache.Cache;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Cache partitioning its keys across several underlying caches, the shards, by
+ * consistent hashing.
+ * <p>Every shard is placed on a hash ring at {@code virtualNodes} points derived from
+ * its name, and a key belongs to the shard owning the first point at or after the
+ * hash of the key. Adding or removing a shard therefore only moves the keys between
+ * that shard and its ring neighbours, about {@code 1 / N} of all keys.
+ * <p>When the {@link CollectionCacheInterceptor} fans out the cache I/O of a large
+ * collection to its {@link CollectionCacheInterceptor#setFanOutExecutor executor}, it
+ * runs the lookups and puts of every shard as one concurrent task.
+ * <p>Keys are hashed by their {@link Object#hashCode()}, which has to be stable across
+ * processes sharing the shards, as for strings, numbers and their compositions.
+ */
+public class ShardedCache implements Cache {
+
+	private final String name;
+
+	private final int virtualNodes;
+
+	private volatile Ring ring;
+
+	public ShardedCache(String name, Collection<? extends Cache> shards) {
+		this(name, shards, 128);
+	}
+
+	public ShardedCache(String name, Collection<? extends Cache> shards, int virtualNodes) {
+		Assert.notEmpty(shards, "At least one shard is required");
+		Assert.isTrue(virtualNodes > 0, "virtualNodes must be positive");
+		this.name = name;
+		this.virtualNodes = virtualNodes;
+		this.ring = new Ring(new ArrayList<>(shards), virtualNodes);
+	}
+
+	/**
+	 * Add the given shard, moving the keys of the ring segments it takes over to it.
+	 * <p>Entries of moved keys stay in their previous shard until they expire or are
+	 * evicted, so they are only missed once.
+	 */
+	public synchronized void addShard(Cache shard) {
+		List<Cache> shards = new ArrayList<>(ring.shards);
+		Assert.isTrue(shards.stream().noneMatch(s -> s.getName().equals(shard.getName())),
+				"Shard names must be unique: " + shard.getName());
+		shards.add(shard);
+		this.ring = new Ring(shards, virtualNodes);
+	}
+
+	/**
+	 * Remove the shard with the given name, moving its keys to its ring neighbours.
+	 */
+	public synchronized void removeShard(String shardName) {
+		List<Cache> shards = new ArrayList<>(ring.shards);
+		shards.removeIf(shard -> shard.getName().equals(shardName));
+		Assert.isTrue(!shards.isEmpty(), "Cannot remove the last shard");
+		this.ring = new Ring(shards, virtualNodes);
+	}
+
+	/**
+	 * Return the current shards.
+	 */
+	public List<Cache> getShards() {
+		return Collections.unmodifiableList(ring.shards);
+	}
+
+	/**
+	 * Return the shard the given key belongs to.
+	 */
+	public Cache getShard(Object key) {
+		return ring.shardOf(key);
+	}
+
+	/**
+	 * Group the positions of the given keys by the shard they belong to.
+	 *
+	 * @return per shard holding any of the keys, the positions of its keys in ascending order
+	 */
+	public int[][] partition(Object[] keys) {
+		Ring ring = this.ring;
+		int[] shardIndices = new int[keys.length];
+		int[] counts = new int[ring.shards.size()];
+		for (int i = 0; i < keys.length; i++) {
+			shardIndices[i] = ring.shardIndexOf(keys[i]);
+			counts[shardIndices[i]]++;
+		}
+		int[][] groups = new int[counts.length][];
+		for (int s = 0; s < counts.length; s++) {
+			groups[s] = new int[counts[s]];
+			counts[s] = 0;
+		}
+		for (int i = 0; i < keys.length; i++) {
+			int s = shardIndices[i];
+			groups[s][counts[s]++] = i;
+		}
+		return Arrays.stream(groups).filter(group -> group.length > 0).toArray(int[][]::new);
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Object getNativeCache() {
+		return getShards();
+	}
+
+	@Override
+	@Nullable
+	public ValueWrapper get(Object key) {
+		return getShard(key).get(key);
+	}
+
+	@Override
+	@Nullable
+	public <T> T get(Object key, @Nullable Class<T> type) {
+		return getShard(key).get(key, type);
+	}
+
+	@Override
+	@Nullable
+	public <T> T get(Object key, Callable<T> valueLoader) {
+		return getShard(key).get(key, valueLoader);
+	}
+
+	@Override
+	public void put(Object key, @Nullable Object value) {
+		getShard(key).put(key, value);
+	}
+
+	@Override
+	@Nullable
+	public ValueWrapper putIfAbsent(Object key, @Nullable Object value) {
+		return getShard(key).putIfAbsent(key, value);
+	}
+
+	@Override
+	public void evict(Object key) {
+		getShard(key).evict(key);
+	}
+
+	@Override
+	public boolean evictIfPresent(Object key) {
+		return getShard(key).evictIfPresent(key);
+	}
+
+	@Override
+	public void clear() {
+		for (Cache shard : ring.shards) {
+			shard.clear();
+		}
+	}
+
+	@Override
+	public boolean invalidate() {
+		boolean invalidated = false;
+		for (Cache shard : ring.shards) {
+			invalidated |= shard.invalidate();
+		}
+		return invalidated;
+	}
+
+	/**
+	 * Immutable hash ring, as sorted points and the index of the shard owning each.
+	 */
+	private static final class Ring {
+
+		private final List<Cache> shards;
+
+		private final long[] points;
+
+		private final int[] owners;
+
+		Ring(List<Cache> shards, int virtualNodes) {
+			this.shards = shards;
+			long[] hashes = new long[shards.size() * virtualNodes];
+			int p = 0;
+			for (Cache shard : shards) {
+				for (int v = 0; v < virtualNodes; v++) {
+					hashes[p++] = hash(shard.getName() + '#' + v);
+				}
+			}
+			// sort the points along with their owners, ties are broken by shard order
+			Integer[] order = new Integer[hashes.length];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> hashes[a] != hashes[b] ? Long.compare(hashes[a], hashes[b]) : Integer.compare(a, b));
+			this.points = new long[hashes.length];
+			this.owners = new int[hashes.length];
+			for (int i = 0; i < order.length; i++) {
+				points[i] = hashes[order[i]];
+				owners[i] = order[i] / virtualNodes;
+			}
+		}
+
+		Cache shardOf(Object key) {
+			return shards.get(shardIndexOf(key));
+		}
+
+		int shardIndexOf(Object key) {
+			int i = Arrays.binarySearch(points, mix(key.hashCode()));
+			if (i < 0) {
+				i = -i - 1;
+			}
+			return owners[i < points.length ? i : 0];
+		}
+
+		private static long hash(String value) {
+			// 64-bit FNV-1a, as the 32-bit String.hashCode() would crowd the ring
+			long hash = 0xcbf29ce484222325L;
+			for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+				hash ^= b;
+				hash *= 0x100000001b3L;
+			}
+			return mix(hash);
+		}
+
+		/**
+		 * The finalizer of MurmurHash3, spreading close values over the whole ring.
+		 */
+		private static long mix(long value) {
+			long h = value;
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= h >>> 33;
+			return h;
+		}
+	}
+}
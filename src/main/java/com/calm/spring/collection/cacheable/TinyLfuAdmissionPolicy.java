@@ -0,0 +1,124 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TinyLFU-style {@link AdmissionPolicy}: a new entry is only admitted if its key
+ * has been looked up more often than the key it evicts.
+ * <p>Access frequencies are estimated with a {@link FrequencySketch}. The keys
+ * admitted per cache are tracked in insertion order up to the capacity of the
+ * cache, split into stripes by key hash so that concurrent puts rarely contend.
+ * Once a stripe is full, the oldest key of the stripe is the victim, which the
+ * {@link CollectionCacheInterceptor} evicts when the new key is admitted. Until a
+ * cache has reached its capacity, all entries are admitted.
+ * <p>Keys evicted by the collection operations, or by other nodes through the
+ * {@link InvalidationBus}, are released; entries expiring or evicted by the cache
+ * itself are not seen, and keep their slot until they are chosen as victim.
+ */
+public class TinyLfuAdmissionPolicy implements AdmissionPolicy {
+
+	private static final int MAX_STRIPES = 16;
+
+	private final FrequencySketch sketch;
+
+	private final int defaultCapacity;
+
+	private final Map<String, Integer> capacities = new ConcurrentHashMap<>();
+
+	private final Map<String, Residents> residents = new ConcurrentHashMap<>();
+
+	/**
+	 * Create a policy for caches holding up to the given number of entries each.
+	 */
+	public TinyLfuAdmissionPolicy(int defaultCapacity) {
+		Assert.isTrue(defaultCapacity > 0, "defaultCapacity must be positive");
+		this.sketch = new FrequencySketch(defaultCapacity);
+		this.defaultCapacity = defaultCapacity;
+	}
+
+	/**
+	 * Set the number of entries the cache with the given name can hold.
+	 * <p>Only applies to caches that have not admitted any entry yet.
+	 */
+	public void setCapacity(String cacheName, int capacity) {
+		Assert.isTrue(capacity > 0, "capacity must be positive");
+		this.capacities.put(cacheName, capacity);
+	}
+
+	@Override
+	public void recordAccess(String cacheName, Object key) {
+		sketch.increment(new SimpleKey(cacheName, key));
+	}
+
+	@Override
+	@Nullable
+	public Collection<?> admit(String cacheName, Object key) {
+		Residents cacheResidents = residents.computeIfAbsent(cacheName,
+				name -> new Residents(capacities.getOrDefault(name, defaultCapacity)));
+		LinkedHashSet<Object> keys = cacheResidents.stripeOf(key);
+		synchronized (keys) {
+			if (keys.contains(key)) {
+				return Collections.emptyList();
+			}
+			if (keys.size() < cacheResidents.stripeCapacity) {
+				keys.add(key);
+				return Collections.emptyList();
+			}
+			Iterator<Object> oldest = keys.iterator();
+			Object victim = oldest.next();
+			if (sketch.frequency(new SimpleKey(cacheName, key)) <= sketch.frequency(new SimpleKey(cacheName, victim))) {
+				return null;
+			}
+			oldest.remove();
+			keys.add(key);
+			return Collections.singletonList(victim);
+		}
+	}
+
+	@Override
+	public void release(String cacheName, Object key) {
+		Residents cacheResidents = residents.get(cacheName);
+		if (cacheResidents == null) {
+			return;
+		}
+		LinkedHashSet<Object> keys = cacheResidents.stripeOf(key);
+		synchronized (keys) {
+			keys.remove(key);
+		}
+	}
+
+	/**
+	 * The admitted keys of one cache, in stripes of insertion-ordered keys.
+	 */
+	private static final class Residents {
+
+		private final LinkedHashSet<?>[] stripes;
+
+		private final int stripeCapacity;
+
+		Residents(int capacity) {
+			int stripeCount = Math.min(MAX_STRIPES, capacity);
+			this.stripes = new LinkedHashSet<?>[stripeCount];
+			for (int i = 0; i < stripeCount; i++) {
+				stripes[i] = new LinkedHashSet<>();
+			}
+			this.stripeCapacity = (capacity + stripeCount - 1) / stripeCount;
+		}
+
+		@SuppressWarnings("unchecked")
+		LinkedHashSet<Object> stripeOf(Object key) {
+			int hash = key.hashCode();
+			hash ^= hash >>> 16;
+			return (LinkedHashSet<Object>) stripes[(hash & Integer.MAX_VALUE) % stripes.length];
+		}
+	}
+}
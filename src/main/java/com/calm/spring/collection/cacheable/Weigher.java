@@ -0,0 +1,15 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Estimates the size of a cache entry, in bytes, for a {@link CacheWeightBudget}.
+ */
+@FunctionalInterface
+public interface Weigher {
+
+	/**
+	 * Return the estimated size of the given entry, never negative.
+	 */
+	long weigh(Object key, @Nullable Object value);
+}
@@ -0,0 +1,29 @@
+package com.calm.spring.collection.cacheable.annotation;
+
+/**
+ * How the entries put by a collection cache operation pass the admission policy
+ * configured on the {@link com.calm.spring.collection.cacheable.CollectionCacheInterceptor}.
+ *
+ * @see CollectionCacheable#admission()
+ * @see CollectionCachePut#admission()
+ */
+public enum Admission {
+
+    /**
+     * Entries are only put if the admission policy admits them, and lookups count
+     * as accesses for the policy. Without an admission policy, all entries are put.
+     */
+    DEFAULT,
+
+    /**
+     * All entries are put, bypassing the admission policy.
+     */
+    ALWAYS,
+
+    /**
+     * Scan traffic, e.g. a {@code findAll}: entries are only put if the admission
+     * policy admits them, and lookups do not count as accesses, so that one large
+     * call cannot raise the estimated value of its own entries.
+     */
+    SCAN
+}
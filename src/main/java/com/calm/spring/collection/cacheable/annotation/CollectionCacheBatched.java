@@ -0,0 +1,111 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.calm.spring.collection.cacheable.annotation;
+
+import org.springframework.cache.annotation.CacheConfig;
+import org.springframework.core.annotation.AliasFor;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Caches a method loading the value of a single id, like {@code @Cacheable}, but loads
+ * the misses of concurrent callers together by one invocation of a collection method
+ * of the same class, e.g. {@code Map<K, V> findByIds(Collection<K> ids)}.
+ * <p>The first miss opens a batch, which collects the ids missed by other callers for
+ * {@link #batchWindowMillis} or until it holds {@link #maxBatchSize} distinct ids. The
+ * collection method is then invoked once with all of them, the returned entries are
+ * cached, and every caller receives the value of its id, or {@code null} if none was
+ * returned. The annotated method itself is never invoked.
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+@Documented
+public @interface CollectionCacheBatched {
+
+    /**
+     * Alias for {@link #cacheNames}.
+     */
+    @AliasFor("cacheNames")
+    String[] value() default {};
+
+    /**
+     * Names of the caches in which method invocation results are stored.
+     *
+     * @see #value
+     * @see CacheConfig#cacheNames
+     */
+    @AliasFor("value")
+    String[] cacheNames() default {};
+
+    /**
+     * Spring Expression Language (SpEL) expression for computing the key dynamically.
+     * <p>Default is {@code ""}, meaning the id is the key, unless a custom
+     * {@link #keyGenerator} has been configured.
+     */
+    String key() default "";
+
+    /**
+     * The bean name of the custom {@link org.springframework.cache.interceptor.KeyGenerator}
+     * to use.
+     *
+     * @see CacheConfig#keyGenerator
+     */
+    String keyGenerator() default "";
+
+    /**
+     * The bean name of the custom {@link org.springframework.cache.CacheManager} to use to
+     * create a default {@link org.springframework.cache.interceptor.CacheResolver} if none
+     * is set already.
+     * <p>Mutually exclusive with the {@link #cacheResolver}  attribute.
+     *
+     * @see CacheConfig#cacheManager
+     */
+    String cacheManager() default "";
+
+    /**
+     * The bean name of the custom {@link org.springframework.cache.interceptor.CacheResolver}
+     * to use.
+     *
+     * @see CacheConfig#cacheResolver
+     */
+    String cacheResolver() default "";
+
+    /**
+     * Name of the method of the same class loading the batched ids, taking a single
+     * {@code Collection} of ids and returning a {@code Map} from id to value.
+     */
+    String collectionMethod();
+
+    /**
+     * Maximum number of distinct ids loaded by one invocation of the collection method.
+     * <p>Default is {@code 100}.
+     */
+    int maxBatchSize() default 100;
+
+    /**
+     * How long a batch collects ids before the collection method is invoked, in
+     * milliseconds. The first caller of the batch waits this long at most.
+     * <p>Default is {@code 2}.
+     */
+    long batchWindowMillis() default 2;
+}
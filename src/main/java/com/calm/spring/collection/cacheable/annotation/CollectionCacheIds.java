@@ -0,0 +1,21 @@
+package com.calm.spring.collection.cacheable.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the {@link java.util.Collection} parameter holding the ids of a method
+ * annotated with {@link CollectionCacheable} or {@link CollectionCacheEvict}.
+ * <p>Only needed if the method has further parameters, e.g.
+ * {@code findByIds(String tenantId, @CollectionCacheIds Collection<Long> ids)}.
+ * The other parameters are part of the key generated for each id, and only the
+ * marked parameter is narrowed to the ids missing in the cache.
+ */
+@Target({ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CollectionCacheIds {
+}
@@ -134,4 +134,45 @@ public @interface CollectionCachePut {
      * @since 3.2
      */
     String unless() default "";
+
+    /**
+     * How the returned elements pass the admission policy configured on the interceptor.
+     * Elements that are not admitted are evicted, so no previous value stays cached.
+     * <p>Default is {@link Admission#DEFAULT}. Use {@link Admission#ALWAYS} if the
+     * returned elements must replace their cached entries, e.g. after an update.
+     */
+    Admission admission() default Admission.DEFAULT;
+
+    /**
+     * Time to live of each entry put by this operation, either as an ISO-8601 duration
+     * such as {@code PT10M}, or as a Spring Expression Language (SpEL) expression
+     * returning a {@link java.time.Duration} or a number of milliseconds.
+     * <p>The SpEL expression evaluates against a context that provides {@code #result}
+     * for a reference to the value of a single entry. A {@code null} value leaves the
+     * entry to the expiration configured on the cache.
+     * <p>Only applied to caches implementing
+     * {@link com.calm.spring.collection.cacheable.ExpiringCache}.
+     * <p>Default is {@code ""}, meaning entries expire as configured on the cache.
+     */
+    String ttl() default "";
+
+    /**
+     * Maximum random duration, as an ISO-8601 duration, added to the {@link #ttl} of
+     * each entry, so that entries loaded together do not all expire at the same time.
+     * <p>Default is {@code ""}, meaning no jitter.
+     */
+    String ttlJitter() default "";
+
+    /**
+     * Spring Expression Language (SpEL) expression used to veto caching single
+     * entries, evaluated once per entry.
+     * <p>Unlike {@link #unless}, which is evaluated once against the whole result,
+     * this expression only vetoes the entries it matches, e.g. {@code #result == null}
+     * or {@code #result.payload.length > 65536}.
+     * Vetoed elements are evicted, so no previous value stays cached.
+     * <p>The SpEL expression evaluates against a context that provides {@code #result}
+     * for a reference to a single returned element.
+     * <p>Default is {@code ""}, meaning that no element is vetoed.
+     */
+    String elementUnless() default "";
 }
@@ -139,4 +139,154 @@ public @interface CollectionCacheable {
      * @since 3.2
      */
     String unless() default "";
+
+    /**
+     * Whether the returned map is a read-only view over the cache hits and the
+     * map returned by the method for the remaining ids, instead of a copy of both.
+     * <p>Default is {@code false}, meaning a new mutable map is returned. Only set
+     * this to {@code true} if callers do not modify the result and the method only
+     * returns entries for the ids it has been invoked with.
+     */
+    boolean compositeResult() default false;
+
+    /**
+     * Minimum decaying hit ratio, between {@code 0} and {@code 1}, below which the
+     * cache lookups are skipped and the method is invoked with all ids directly.
+     * <p>Loaded entries are still put into the cache, and lookups are periodically
+     * probed again so that a recovering hit ratio is detected.
+     * <p>Default is {@code 0}, meaning the cache is always looked up.
+     *
+     * @see com.calm.spring.collection.cacheable.CollectionCacheInterceptor#setHitRatioDecay
+     * @see com.calm.spring.collection.cacheable.CollectionCacheInterceptor#setHitRatioProbeInterval
+     */
+    double minHitRatio() default 0;
+
+    /**
+     * Spring Expression Language (SpEL) expression for extracting the id from each
+     * element of a {@code List} or {@code Collection} result.
+     * <p>Required for, and only allowed on, methods returning {@code List<V>} or
+     * {@code Collection<V>} instead of {@code Map<K, V>}. The extracted ids are
+     * matched against the requested ids, and cache hits and loaded elements are
+     * returned as a list in the order of the requested ids.
+     * <p>The SpEL expression evaluates against a context that provides
+     * {@code #result} for a reference to a single element of the result.
+     */
+    String resultKey() default "";
+
+    /**
+     * How the entries put by this operation pass the admission policy configured
+     * on the interceptor.
+     * <p>Default is {@link Admission#DEFAULT}. Use {@link Admission#SCAN} for
+     * {@code findAll}-like methods and other calls touching most of the entries,
+     * so that they do not push the frequently requested entries out of the cache.
+     */
+    Admission admission() default Admission.DEFAULT;
+
+    /**
+     * Whether the complete result of a {@code findAll}-like method is cached as one
+     * snapshot, and later invocations are served from it instead of invoking the method.
+     * <p>The snapshot is invalidated by {@link CollectionCacheEvict} and
+     * {@link CollectionCachePut} operations on the same cache; other writes to the
+     * cache are not reflected. Concurrent invocations while the snapshot is missing
+     * share a single invocation of the method. The returned map is read-only.
+     * <p>Default is {@code false}, meaning the method is invoked on every call.
+     */
+    boolean snapshot() default false;
+
+    /**
+     * Whether the method returns one page of a larger result, selected by its
+     * arguments, e.g. {@code List<V> findPage(int page, int size)}.
+     * <p>The elements are cached per id extracted by {@link #resultKey}, next to a
+     * compact index of the ids on the page, cached under a key derived from the method
+     * and its arguments. A repeated request for the page is served from the index and
+     * the cached elements, as long as all of them are still cached. Evicting an element
+     * by {@link CollectionCacheEvict}, or updating it by {@link CollectionCachePut},
+     * invalidates only the pages containing it.
+     * <p>Default is {@code false}, meaning the method is invoked with a collection of ids.
+     *
+     * @see com.calm.spring.collection.cacheable.CollectionCachePage
+     */
+    boolean page() default false;
+
+    /**
+     * Whether the method loads a contiguous range of numeric ids, selected by two
+     * {@code long} parameters holding its first and last id, both inclusive, e.g.
+     * {@code Map<Long, V> findByIdRange(long from, long to)}.
+     * <p>The entries are cached per id, and the spans of ids put into each cache are
+     * kept in an in-process interval index. Only the ids within indexed spans are
+     * looked up; the method is invoked for the remaining sub-ranges, with the bounds
+     * of each, and the returned map holds the entries in ascending id order. Sub-ranges
+     * separated by a few cached ids are loaded together, and a range with many of them
+     * by a single invocation from the first to the last.
+     * Evicting an id by {@link CollectionCacheEvict} splits its span.
+     * <p>Requires the ids themselves to be the cache keys, so neither {@link #key} nor
+     * {@link #keyGenerator} can be set.
+     * <p>Default is {@code false}, meaning the method is invoked with a collection of ids.
+     */
+    boolean range() default false;
+
+    /**
+     * Time budget, in milliseconds, for looking up the requested ids in the caches.
+     * <p>Once the budget is spent, the ids not looked up yet are treated as misses and
+     * loaded by the method, so that a degraded cache does not make the invocation
+     * slower than loading all ids. Hits and misses are only counted for the ids looked
+     * up. A lookup already running when the budget is spent is not interrupted: with a
+     * {@link com.calm.spring.collection.cacheable.CollectionCacheInterceptor#setFanOutExecutor
+     * fan-out executor}, the lookups run there and the invocation stops waiting for them,
+     * treating their ids as misses; without one, the lookups run on the calling thread
+     * and a single slow lookup is not bounded.
+     * <p>Default is {@code 0}, meaning no budget.
+     *
+     * @see com.calm.spring.collection.cacheable.CollectionCacheInterceptor#setCircuitBreaker
+     */
+    long lookupBudgetMillis() default 0;
+
+    /**
+     * Time, in milliseconds from the start of the invocation, after which the cache
+     * hits are returned without waiting any longer for the method to load the missing ids.
+     * <p>The method is then invoked on the
+     * {@link com.calm.spring.collection.cacheable.CollectionCacheInterceptor#setBackgroundLoadExecutor
+     * background load executor}, and keeps running past the deadline, putting the loaded
+     * entries into the caches for later invocations. If it completes in time, its entries
+     * are returned along with the hits as usual. Callers therefore have to cope with a
+     * result lacking some of the requested ids. Ids still being loaded in the background
+     * for an earlier invocation are not loaded again, but waited for until the deadline.
+     * <p>As the method runs on another thread, state bound to the calling thread, such
+     * as a transaction or the security context, is not available to it.
+     * <p>Only allowed on methods taking ids and returning a {@code Map}.
+     * <p>Default is {@code 0}, meaning the method is always waited for.
+     */
+    long deadlineMillis() default 0;
+
+    /**
+     * Time to live of each entry put by this operation, either as an ISO-8601 duration
+     * such as {@code PT10M}, or as a Spring Expression Language (SpEL) expression
+     * returning a {@link java.time.Duration} or a number of milliseconds.
+     * <p>The SpEL expression evaluates against a context that provides {@code #result}
+     * for a reference to the value of a single entry. A {@code null} value leaves the
+     * entry to the expiration configured on the cache.
+     * <p>Only applied to caches implementing
+     * {@link com.calm.spring.collection.cacheable.ExpiringCache}.
+     * <p>Default is {@code ""}, meaning entries expire as configured on the cache.
+     */
+    String ttl() default "";
+
+    /**
+     * Maximum random duration, as an ISO-8601 duration, added to the {@link #ttl} of
+     * each entry, so that entries loaded together do not all expire at the same time.
+     * <p>Default is {@code ""}, meaning no jitter.
+     */
+    String ttlJitter() default "";
+
+    /**
+     * Spring Expression Language (SpEL) expression used to veto caching single
+     * entries, evaluated once per entry.
+     * <p>Unlike {@link #unless}, which is evaluated once against the whole result,
+     * this expression only vetoes the entries it matches, e.g. {@code #result == null}
+     * or {@code #result.payload.length > 65536}.
+     * <p>The SpEL expression evaluates against a context that provides {@code #result}
+     * for a reference to the value of a single entry.
+     * <p>Default is {@code ""}, meaning that no entry is vetoed.
+     */
+    String elementUnless() default "";
 }
@@ -0,0 +1,373 @@
+package com.calm.spring.collection.cacheable;
+
+import com.calm.spring.collection.cacheable.annotation.CollectionCacheable;
+import com.calm.spring.collection.cacheable.test.MyDbRepository;
+import com.calm.spring.collection.cacheable.test.MyId;
+import com.calm.spring.collection.cacheable.test.MyValue;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test calling a {@code @CollectionCacheable} method from many threads, with
+ * overlapping Zipf-distributed id sets, against a fake store and a cache that both
+ * add configurable latency.
+ * <p>Reports the call latency percentiles, the store queries and rows, and the
+ * stampedes, i.e. ids loaded by one call while another call was still loading them.
+ * <p>Not a test: run its {@code main} method on a quiet machine, e.g. with
+ * {@code java -cp target/classes:target/test-classes:<dependencies> -Dharness.threads=64
+ * com.calm.spring.collection.cacheable.CollectionCacheLoadHarness}. All settings are
+ * the {@code harness.*} system properties read below.
+ */
+public class CollectionCacheLoadHarness {
+
+	private static final int THREADS = Integer.getInteger("harness.threads", 32);
+
+	private static final int WARMUP_SECONDS = Integer.getInteger("harness.warmupSeconds", 5);
+
+	private static final int SECONDS = Integer.getInteger("harness.seconds", 20);
+
+	private static final int KEY_SPACE = Integer.getInteger("harness.keySpace", 100_000);
+
+	private static final int BATCH_SIZE = Integer.getInteger("harness.batchSize", 50);
+
+	private static final double ZIPF_EXPONENT = Double.parseDouble(System.getProperty("harness.zipfExponent", "1.1"));
+
+	private static final long STORE_QUERY_MICROS = Long.getLong("harness.storeQueryMicros", 2_000);
+
+	private static final long STORE_ROW_MICROS = Long.getLong("harness.storeRowMicros", 20);
+
+	private static final long CACHE_MICROS = Long.getLong("harness.cacheMicros", 50);
+
+	private static final int FAN_OUT_THREADS = Integer.getInteger("harness.fanOutThreads", 0);
+
+	public static void main(String[] args) throws Exception {
+		try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(HarnessConfig.class)) {
+			ExecutorService fanOutExecutor = null;
+			if (FAN_OUT_THREADS > 0) {
+				fanOutExecutor = FanOutExecutors.newFanOutExecutor(FAN_OUT_THREADS);
+				context.getBean(CollectionCacheInterceptor.class).setFanOutExecutor(fanOutExecutor);
+			}
+			HarnessRepository repository = context.getBean(HarnessRepository.class);
+			FakeStore store = context.getBean(FakeStore.class);
+			ZipfSampler sampler = new ZipfSampler(KEY_SPACE, ZIPF_EXPONENT);
+
+			System.out.printf("threads=%d keySpace=%d batchSize=%d zipfExponent=%.2f storeQuery=%dus storeRow=%dus cache=%dus fanOutThreads=%d%n",
+					THREADS, KEY_SPACE, BATCH_SIZE, ZIPF_EXPONENT, STORE_QUERY_MICROS, STORE_ROW_MICROS, CACHE_MICROS, FAN_OUT_THREADS);
+			run(repository, sampler, WARMUP_SECONDS);
+			store.reset();
+			long start = System.nanoTime();
+			LatencyHistogram histogram = run(repository, sampler, SECONDS);
+			double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+			long calls = histogram.getTotalCount();
+			long requestedIds = calls * BATCH_SIZE;
+			System.out.printf("calls=%d (%.0f/s) p50=%dus p99=%dus p999=%dus max=%dus%n", calls, calls / elapsedSeconds,
+					micros(histogram.getValueAtPercentile(50)), micros(histogram.getValueAtPercentile(99)),
+					micros(histogram.getValueAtPercentile(99.9)), micros(histogram.getMaxValue()));
+			System.out.printf("storeQueries=%d storeRows=%d rowsPerRequestedId=%.4f stampedes=%d%n", store.queries.get(),
+					store.rows.get(), (double) store.rows.get() / requestedIds, store.stampedes.get());
+			if (fanOutExecutor != null) {
+				fanOutExecutor.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Call the repository from all threads for the given duration, and return the merged
+	 * latency histogram of all calls.
+	 */
+	private static LatencyHistogram run(HarnessRepository repository, ZipfSampler sampler, int seconds) throws InterruptedException {
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		LatencyHistogram[] histograms = new LatencyHistogram[THREADS];
+		CountDownLatch done = new CountDownLatch(THREADS);
+		for (int t = 0; t < THREADS; t++) {
+			LatencyHistogram histogram = new LatencyHistogram();
+			histograms[t] = histogram;
+			Thread thread = new Thread(() -> {
+				try {
+					while (System.nanoTime() - end < 0) {
+						Set<MyId> ids = sampler.sampleIds(BATCH_SIZE);
+						long start = System.nanoTime();
+						repository.findByIds(ids);
+						histogram.record(System.nanoTime() - start);
+					}
+				}
+				finally {
+					done.countDown();
+				}
+			}, "harness-" + t);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		done.await();
+		LatencyHistogram merged = new LatencyHistogram();
+		for (LatencyHistogram histogram : histograms) {
+			merged.add(histogram);
+		}
+		return merged;
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	private static void sleepMicros(long micros) {
+		if (micros > 0) {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+		}
+	}
+
+	@Configuration
+	@EnableCaching
+	@Import(CollectionCacheableProxyCachingConfiguration.class)
+	static class HarnessConfig {
+
+		@Bean
+		public CacheManager cacheManager() {
+			return new ConcurrentMapCacheManager() {
+				@Override
+				protected Cache createConcurrentMapCache(String name) {
+					return new SlowCache(name);
+				}
+			};
+		}
+
+		@Bean
+		public FakeStore fakeStore() {
+			return new FakeStore();
+		}
+
+		@Bean
+		public HarnessRepository harnessRepository(FakeStore fakeStore) {
+			return new HarnessRepository(fakeStore);
+		}
+	}
+
+	public static class HarnessRepository {
+
+		private final FakeStore store;
+
+		public HarnessRepository(FakeStore store) {
+			this.store = store;
+		}
+
+		@CollectionCacheable("harness")
+		public Map<MyId, MyValue> findByIds(Collection<MyId> ids) {
+			return store.findByIds(ids);
+		}
+	}
+
+	/**
+	 * Store answering one query per call after a fixed latency plus a latency per row,
+	 * counting the ids loaded while another query was still loading them.
+	 */
+	static class FakeStore implements MyDbRepository {
+
+		private final ConcurrentMap<MyId, AtomicInteger> loading = new ConcurrentHashMap<>();
+
+		private final AtomicLong queries = new AtomicLong();
+
+		private final AtomicLong rows = new AtomicLong();
+
+		private final AtomicLong stampedes = new AtomicLong();
+
+		Map<MyId, MyValue> findByIds(Collection<MyId> ids) {
+			queries.incrementAndGet();
+			rows.addAndGet(ids.size());
+			for (MyId id : ids) {
+				if (loading.computeIfAbsent(id, key -> new AtomicInteger()).getAndIncrement() > 0) {
+					stampedes.incrementAndGet();
+				}
+			}
+			try {
+				sleepMicros(STORE_QUERY_MICROS + STORE_ROW_MICROS * ids.size());
+				Map<MyId, MyValue> result = new LinkedHashMap<>();
+				for (MyId id : ids) {
+					result.put(id, new MyValue("value-of-" + id.getId()));
+				}
+				return result;
+			}
+			finally {
+				for (MyId id : ids) {
+					loading.get(id).decrementAndGet();
+				}
+			}
+		}
+
+		@Override
+		public MyValue findById(MyId id) {
+			return findByIds(Collections.singleton(id)).get(id);
+		}
+
+		@Override
+		public Map<MyId, MyValue> findAll() {
+			throw new UnsupportedOperationException("The harness only loads by ids");
+		}
+
+		@Override
+		public Map<Long, MyValue> findByIdRange(long from, long to) {
+			throw new UnsupportedOperationException("The harness only loads by ids");
+		}
+
+		void reset() {
+			queries.set(0);
+			rows.set(0);
+			stampedes.set(0);
+		}
+	}
+
+	/**
+	 * In-memory cache adding a fixed latency to every call, like a remote cache.
+	 */
+	static class SlowCache extends ConcurrentMapCache {
+
+		SlowCache(String name) {
+			super(name);
+		}
+
+		@Override
+		public ValueWrapper get(Object key) {
+			sleepMicros(CACHE_MICROS);
+			return super.get(key);
+		}
+
+		@Override
+		public void put(Object key, Object value) {
+			sleepMicros(CACHE_MICROS);
+			super.put(key, value);
+		}
+	}
+
+	/**
+	 * Samples ranks from {@code 1} to {@code n} with a probability proportional to
+	 * {@code 1 / rank^exponent}, by a binary search over the cumulative distribution.
+	 */
+	static class ZipfSampler {
+
+		private final double[] cumulative;
+
+		ZipfSampler(int n, double exponent) {
+			cumulative = new double[n];
+			double sum = 0;
+			for (int rank = 1; rank <= n; rank++) {
+				sum += 1 / Math.pow(rank, exponent);
+				cumulative[rank - 1] = sum;
+			}
+			for (int i = 0; i < n; i++) {
+				cumulative[i] /= sum;
+			}
+		}
+
+		int sample() {
+			int i = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+			return (i >= 0 ? i : -i - 1) + 1;
+		}
+
+		/**
+		 * Sample distinct ids, so that hot ids are shared by the sets of many threads.
+		 */
+		Set<MyId> sampleIds(int size) {
+			Set<MyId> ids = new LinkedHashSet<>();
+			while (ids.size() < Math.min(size, cumulative.length)) {
+				ids.add(new MyId("id-" + sample()));
+			}
+			return ids;
+		}
+	}
+
+	/**
+	 * Histogram in the layout of an HdrHistogram with a relative precision of 1/128: the
+	 * values below 256 are counted exactly, each further power of two is split into 128
+	 * linear buckets. Not thread-safe, every thread records into its own one.
+	 */
+	static class LatencyHistogram {
+
+		private static final int SUB_BUCKET_BITS = 7;
+
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+		private final long[] counts = new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS];
+
+		private long totalCount;
+
+		private long maxValue;
+
+		void record(long value) {
+			counts[indexOf(Math.max(0, value))]++;
+			totalCount++;
+			maxValue = Math.max(maxValue, value);
+		}
+
+		void add(LatencyHistogram other) {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += other.counts[i];
+			}
+			totalCount += other.totalCount;
+			maxValue = Math.max(maxValue, other.maxValue);
+		}
+
+		long getTotalCount() {
+			return totalCount;
+		}
+
+		long getMaxValue() {
+			return maxValue;
+		}
+
+		/**
+		 * Return the highest value equivalent to the one at the given percentile.
+		 */
+		long getValueAtPercentile(double percentile) {
+			long target = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= target) {
+					return Math.min(highestEquivalentValue(i), maxValue);
+				}
+			}
+			return maxValue;
+		}
+
+		static int indexOf(long value) {
+			if (value < 2 * SUB_BUCKETS) {
+				return (int) value;
+			}
+			int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+			return shift * SUB_BUCKETS + (int) (value >>> shift);
+		}
+
+		static long highestEquivalentValue(int index) {
+			if (index < 2 * SUB_BUCKETS) {
+				return index;
+			}
+			int shift = index / SUB_BUCKETS - 1;
+			long subBucket = index - (long) shift * SUB_BUCKETS;
+			return ((subBucket + 1) << shift) - 1;
+		}
+	}
+}
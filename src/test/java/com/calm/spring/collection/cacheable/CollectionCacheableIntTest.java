@@ -1,14 +1,24 @@
 package com.calm.spring.collection.cacheable;
 
+import com.calm.spring.collection.cacheable.test.MyCompressionCodec;
 import com.calm.spring.collection.cacheable.test.MyDbRepository;
+import com.calm.spring.collection.cacheable.test.MyExpiringCache;
+import com.calm.spring.collection.cacheable.test.MyFlakyCache;
 import com.calm.spring.collection.cacheable.test.MyId;
 import com.calm.spring.collection.cacheable.test.MyRepository;
 import com.calm.spring.collection.cacheable.test.MyValue;
+import com.calm.spring.collection.cacheable.test.SocketInvalidationTransport;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.aopalliance.intercept.MethodInterceptor;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.aop.framework.ProxyFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -16,16 +26,56 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.cache.interceptor.CacheOperation;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.util.FastByteArrayOutputStream;
 
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.InvalidClassException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -51,6 +101,12 @@ public class CollectionCacheableIntTest {
 	@Autowired
 	private CacheManager cacheManager;
 
+	@Autowired
+	private CollectionCacheInterceptor collectionCacheInterceptor;
+
+	@Autowired
+	private MyCompressionCodec myCompressionCodec;
+
 	@Before
 	public void setUp() throws Exception {
 		cacheManager.getCacheNames().stream()
@@ -85,6 +141,63 @@ public class CollectionCacheableIntTest {
 		verify(myDbRepository, times(1)).findById(SOME_KEY_2);
 	}
 
+	@Test
+	public void findByIdsWithDuplicateIds() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+
+		// repeated ids are only looked up and loaded once
+		assertThat(sut.findByIds(ImmutableList.of(SOME_KEY_1, SOME_KEY_2, SOME_KEY_1)))
+				.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+
+		verify(myDbRepository, times(1)).findById(SOME_KEY_1);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_2);
+	}
+
+	@Test
+	public void findByIdBatched() throws Exception {
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch loaded = new CountDownLatch(1);
+		when(myDbRepository.findById(SOME_KEY_1)).thenAnswer(invocation -> {
+			loading.countDown();
+			loaded.await(10, TimeUnit.SECONDS);
+			return SOME_VALUE_1;
+		});
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+		when(myDbRepository.findById(SOME_KEY_3)).thenReturn(SOME_VALUE_3);
+
+		// the misses of three callers fill one batch, which is loaded right away instead
+		// of after the one minute window
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<MyValue>> values = new ArrayList<>();
+			for (MyId id : Arrays.asList(SOME_KEY_1, SOME_KEY_2, SOME_KEY_3)) {
+				values.add(executor.submit(() -> sut.findByIdBatched(id)));
+			}
+			// an id requested while its batch is loading joins the load instead of
+			// opening another batch
+			assertThat(loading.await(10, TimeUnit.SECONDS)).isTrue();
+			values.add(executor.submit(() -> sut.findByIdBatched(SOME_KEY_1)));
+			Thread.sleep(100);
+			loaded.countDown();
+			assertThat(values.get(0).get(10, TimeUnit.SECONDS)).isEqualTo(SOME_VALUE_1);
+			assertThat(values.get(1).get(10, TimeUnit.SECONDS)).isEqualTo(SOME_VALUE_2);
+			assertThat(values.get(2).get(10, TimeUnit.SECONDS)).isEqualTo(SOME_VALUE_3);
+			assertThat(values.get(3).get(10, TimeUnit.SECONDS)).isEqualTo(SOME_VALUE_1);
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		// the loaded values are cached
+		assertThat(sut.findByIdBatched(SOME_KEY_2)).isEqualTo(SOME_VALUE_2);
+		assertThat(sut.findById(SOME_KEY_3)).isEqualTo(SOME_VALUE_3);
+
+		verify(myDbRepository, times(1)).findById(SOME_KEY_1);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_2);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_3);
+	}
+
 	@Test
 	public void findByIdsAfterTwoFindById() throws Exception {
 		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
@@ -190,6 +303,326 @@ public class CollectionCacheableIntTest {
 		verify(myDbRepository, times(1)).findById(SOME_KEY_2);
 	}
 
+	@Test
+	public void findByIdsWithCompositeResult() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+
+		// the hit for SOME_KEY_1 and the loaded SOME_KEY_2 are merged without copying
+		assertThat(sut.findById(SOME_KEY_1)).isEqualTo(SOME_VALUE_1);
+		Map<MyId, MyValue> result = sut.findByIdsWithCompositeResult(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2));
+		assertThat(result).hasSize(2)
+				.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+		assertThatThrownBy(() -> result.put(SOME_KEY_3, SOME_VALUE_3))
+				.isInstanceOf(UnsupportedOperationException.class);
+
+		verify(myDbRepository, times(1)).findById(SOME_KEY_1);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_2);
+	}
+
+	@Test
+	public void findByIdsWithElementUnless() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+
+		// only the vetoed entry is left out of the cache, the result is complete
+		assertThat(sut.findByIdsWithElementUnless(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2)))
+				.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+		assertThat(sut.findByIdsWithElementUnless(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2)))
+				.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+
+		verify(myDbRepository, times(1)).findById(SOME_KEY_1);
+		verify(myDbRepository, times(2)).findById(SOME_KEY_2);
+	}
+
+	@Test
+	public void findByIdsWithWeightBudget() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+		when(myDbRepository.findById(SOME_KEY_3)).thenReturn(SOME_VALUE_3);
+		// every value weighs 12 bytes, so two of them fit
+		CacheWeightBudget budget = new CacheWeightBudget((key, value) -> ((MyValue) value).getValue().length());
+		budget.setBudget("myCache", 30);
+		collectionCacheInterceptor.setWeightBudget(budget);
+		try {
+			// the entry exceeding the budget is refused
+			sut.findByIds(ImmutableList.of(SOME_KEY_1));
+			sut.findByIds(ImmutableList.of(SOME_KEY_2));
+			sut.findByIds(ImmutableList.of(SOME_KEY_3));
+			assertThat(budget.getWeight("myCache")).isEqualTo(24);
+			assertThat(cacheManager.getCache("myCache").get(SOME_KEY_3)).isNull();
+
+			// evicting the oldest entry makes room instead
+			budget.setEvictOnOverflow(true);
+			sut.findByIds(ImmutableList.of(SOME_KEY_3));
+			assertThat(budget.getWeights()).containsOnly(entry("myCache", 24L));
+			assertThat(cacheManager.getCache("myCache").get(SOME_KEY_1)).isNull();
+			assertThat(cacheManager.getCache("myCache").get(SOME_KEY_3)).isNotNull();
+
+			// a refused entry keeps the weight of the previous one, which stays cached
+			budget.setEvictOnOverflow(false);
+			assertThat(budget.reserve("myCache", SOME_KEY_2, new MyValue("a value too large to fit"))).isNull();
+			assertThat(budget.getWeight("myCache")).isEqualTo(24);
+
+			// weights are released once their entries expired
+			assertThat(budget.reserve("myOtherCache", SOME_KEY_1, SOME_VALUE_1, Duration.ofMillis(1))).isEmpty();
+			Thread.sleep(10);
+			assertThat(budget.getWeight("myOtherCache")).isZero();
+		}
+		finally {
+			collectionCacheInterceptor.setWeightBudget(null);
+		}
+	}
+
+	@Test
+	public void findByIdsWithMinHitRatio() throws Exception {
+		when(myDbRepository.findById(any())).thenAnswer(invocation -> new MyValue(invocation.<MyId>getArgument(0).getId()));
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+
+		// only misses drive the hit ratio below the minimum, so lookups are skipped afterwards
+		for (int i = 0; i < 10; i++) {
+			sut.findByIdsWithMinHitRatio(ImmutableSet.of(new MyId("miss-" + i)));
+		}
+		assertThat(sut.findByIdsWithMinHitRatio(ImmutableSet.of(SOME_KEY_1))).containsOnly(entry(SOME_KEY_1, SOME_VALUE_1));
+		assertThat(sut.findByIdsWithMinHitRatio(ImmutableSet.of(SOME_KEY_1))).containsOnly(entry(SOME_KEY_1, SOME_VALUE_1));
+		// the bypassed invocations still populate the cache
+		assertThat(sut.findById(SOME_KEY_1)).isEqualTo(SOME_VALUE_1);
+
+		verify(myDbRepository, times(2)).findById(SOME_KEY_1);
+	}
+
+	@Test
+	public void findByIdsAsList() throws Exception {
+		when(myDbRepository.findById(any())).thenAnswer(invocation -> new MyValue(invocation.<MyId>getArgument(0).getId()));
+
+		// hits and loaded elements are matched back to the ids and returned in requested order
+		assertThat(sut.findByIdsAsList(ImmutableList.of(SOME_KEY_2, SOME_KEY_1)))
+				.containsExactly(new MyValue(SOME_KEY_2.getId()), new MyValue(SOME_KEY_1.getId()));
+		assertThat(sut.findByIdsAsList(ImmutableList.of(SOME_KEY_1, SOME_KEY_3, SOME_KEY_2)))
+				.containsExactly(new MyValue(SOME_KEY_1.getId()), new MyValue(SOME_KEY_3.getId()), new MyValue(SOME_KEY_2.getId()));
+
+		verify(myDbRepository, times(1)).findById(SOME_KEY_1);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_2);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_3);
+	}
+
+	@Test
+	public void findByIdsAsListWithDuplicateIds() throws Exception {
+		when(myDbRepository.findById(any())).thenAnswer(invocation -> new MyValue(invocation.<MyId>getArgument(0).getId()));
+
+		// the element of a repeated id is repeated in the result, but only loaded once
+		assertThat(sut.findByIdsAsList(ImmutableList.of(SOME_KEY_1, SOME_KEY_2, SOME_KEY_1)))
+				.containsExactly(new MyValue(SOME_KEY_1.getId()), new MyValue(SOME_KEY_2.getId()), new MyValue(SOME_KEY_1.getId()));
+
+		verify(myDbRepository, times(1)).findById(SOME_KEY_1);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_2);
+	}
+
+	@Test
+	public void findPage() throws Exception {
+		when(myDbRepository.findAll()).thenReturn(ImmutableMap.of(SOME_KEY_1, SOME_VALUE_1, SOME_KEY_2, SOME_VALUE_2, SOME_KEY_3, SOME_VALUE_3));
+
+		// repeated page requests are served from the page index and the cached elements
+		assertThat(sut.findPage(0, 2)).containsExactly(SOME_VALUE_1, SOME_VALUE_2);
+		assertThat(sut.findPage(1, 2)).containsExactly(SOME_VALUE_3);
+		assertThat(sut.findPage(0, 2)).containsExactly(SOME_VALUE_1, SOME_VALUE_2);
+		assertThat(sut.findPage(1, 2)).containsExactly(SOME_VALUE_3);
+		verify(myDbRepository, times(2)).findAll();
+
+		// evicting an element only invalidates the page containing it, even once it is cached again
+		when(myDbRepository.findById(new MyId(SOME_VALUE_3.getValue()))).thenReturn(SOME_VALUE_3);
+		sut.deleteListed(ImmutableList.of(new MyId(SOME_VALUE_3.getValue())));
+		assertThat(sut.findByIdsAsList(ImmutableList.of(new MyId(SOME_VALUE_3.getValue())))).containsExactly(SOME_VALUE_3);
+		assertThat(sut.findPage(0, 2)).containsExactly(SOME_VALUE_1, SOME_VALUE_2);
+		verify(myDbRepository, times(2)).findAll();
+		assertThat(sut.findPage(1, 2)).containsExactly(SOME_VALUE_3);
+		verify(myDbRepository, times(3)).findAll();
+
+		// a dropped page is unlinked from all of its elements, and the index is bounded
+		PageIndex index = new PageIndex(2);
+		assertThat(index.register("myListCache", "page-a", ImmutableList.of(SOME_KEY_1, SOME_KEY_2), null)).isEmpty();
+		assertThat(index.register("myListCache", "page-b", ImmutableList.of(SOME_KEY_2), null)).isEmpty();
+		assertThat(index.remove("myListCache", SOME_KEY_1)).containsOnly("page-a");
+		assertThat(index.remove("myListCache", SOME_KEY_2)).containsOnly("page-b");
+		index.register("myListCache", "page-c", ImmutableList.of(SOME_KEY_3), null);
+		index.register("myListCache", "page-d", ImmutableList.of(SOME_KEY_3), null);
+		assertThat(index.register("myListCache", "page-e", ImmutableList.of(SOME_KEY_3), null)).containsOnly("page-c");
+		assertThat(index.remove("myListCache", SOME_KEY_3)).containsOnly("page-d", "page-e");
+
+		// and pages leave the index with their time to live
+		index.register("myListCache", "page-f", ImmutableList.of(SOME_KEY_1), Duration.ofMillis(1));
+		Thread.sleep(5);
+		index.register("myListCache", "page-g", ImmutableList.of(SOME_KEY_1), null);
+		assertThat(index.remove("myListCache", SOME_KEY_1)).containsOnly("page-g");
+	}
+
+	@Test
+	public void findByIdRange() throws Exception {
+		when(myDbRepository.findByIdRange(anyLong(), anyLong())).thenAnswer(invocation -> {
+			Map<Long, MyValue> values = new LinkedHashMap<>();
+			for (long id = invocation.<Long>getArgument(0); id <= invocation.<Long>getArgument(1); id++) {
+				values.put(id, new MyValue("value-" + id));
+			}
+			return values;
+		});
+
+		assertThat(sut.findByIdRange(10, 39)).hasSize(30);
+		// only the sub-ranges outside the cached span are loaded
+		assertThat(sut.findByIdRange(5, 44).keySet()).containsExactlyElementsOf(LongStream.rangeClosed(5, 44).boxed().collect(Collectors.toList()));
+		// evicting ids splits the cached span, and sub-ranges close to each other are loaded together
+		sut.deleteRange(ImmutableList.of(12L, 13L, 20L));
+		assertThat(sut.findByIdRange(5, 44)).hasSize(40).containsEntry(12L, new MyValue("value-12"));
+		// beyond the maximum number of sub-ranges, the method is invoked once for all of them
+		assertThat(sut.findByIdRange(60, 139)).hasSize(80);
+		sut.deleteRange(ImmutableList.of(60L, 80L, 100L, 120L, 139L));
+		assertThat(sut.findByIdRange(60, 139)).hasSize(80);
+
+		// every sub-range is loaded through the advice nested inside the cache interceptor
+		AtomicInteger advised = new AtomicInteger();
+		ProxyFactory proxyFactory = new ProxyFactory(AopTestUtils.<MyRepository>getTargetObject(sut));
+		proxyFactory.addAdvice(collectionCacheInterceptor);
+		proxyFactory.addAdvice((MethodInterceptor) invocation -> {
+			advised.incrementAndGet();
+			return invocation.proceed();
+		});
+		MyRepository advisedRepository = (MyRepository) proxyFactory.getProxy();
+		assertThat(advisedRepository.findByIdRange(200, 229)).hasSize(30);
+		assertThat(advisedRepository.findByIdRange(195, 234)).hasSize(40);
+		assertThat(advised).hasValue(3);
+
+		verify(myDbRepository).findByIdRange(10, 39);
+		verify(myDbRepository).findByIdRange(5, 9);
+		verify(myDbRepository).findByIdRange(40, 44);
+		verify(myDbRepository).findByIdRange(12, 20);
+		verify(myDbRepository, times(2)).findByIdRange(60, 139);
+		verify(myDbRepository).findByIdRange(195, 199);
+		verify(myDbRepository).findByIdRange(230, 234);
+		verify(myDbRepository, times(9)).findByIdRange(anyLong(), anyLong());
+	}
+
+	@Test
+	public void findByIdsForTenant() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+
+		// the tenant is part of each key, so only the same tenant is served from the cache
+		assertThat(sut.findByIdsForTenant("tenant-1", ImmutableSet.of(SOME_KEY_1, SOME_KEY_2)))
+				.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+		assertThat(sut.findByIdsForTenant("tenant-1", ImmutableSet.of(SOME_KEY_1)))
+				.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1));
+		assertThat(sut.findByIdsForTenant("tenant-2", ImmutableSet.of(SOME_KEY_1)))
+				.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1));
+
+		verify(myDbRepository, times(2)).findById(SOME_KEY_1);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_2);
+	}
+
+	@Test
+	public void findByIdsWithFanOut() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+		when(myDbRepository.findById(SOME_KEY_3)).thenReturn(SOME_VALUE_3);
+
+		ExecutorService executor = FanOutExecutors.newFanOutExecutor(2);
+		collectionCacheInterceptor.setFanOutExecutor(executor);
+		collectionCacheInterceptor.setFanOutThreshold(2);
+		try {
+			// lookups and puts of the three ids are split into two chunks
+			assertThat(sut.findByIds(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2, SOME_KEY_3)))
+					.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2), entry(SOME_KEY_3, SOME_VALUE_3));
+			assertThat(sut.findByIds(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2, SOME_KEY_3)))
+					.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2), entry(SOME_KEY_3, SOME_VALUE_3));
+		}
+		finally {
+			collectionCacheInterceptor.setFanOutExecutor(null);
+			executor.shutdown();
+		}
+
+		verify(myDbRepository, times(1)).findById(SOME_KEY_1);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_2);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_3);
+	}
+
+	@Test
+	public void findByIdsSharded() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+		when(myDbRepository.findById(SOME_KEY_3)).thenReturn(SOME_VALUE_3);
+		ShardedCache cache = (ShardedCache) cacheManager.getCache("myShardedCache");
+
+		ExecutorService executor = FanOutExecutors.newFanOutExecutor(3);
+		collectionCacheInterceptor.setFanOutExecutor(executor);
+		collectionCacheInterceptor.setFanOutThreshold(2);
+		try {
+			// lookups and puts run as one task per shard
+			assertThat(sut.findByIdsSharded(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2, SOME_KEY_3)))
+					.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2), entry(SOME_KEY_3, SOME_VALUE_3));
+			assertThat(sut.findByIdsSharded(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2, SOME_KEY_3)))
+					.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2), entry(SOME_KEY_3, SOME_VALUE_3));
+		}
+		finally {
+			collectionCacheInterceptor.setFanOutExecutor(null);
+			executor.shutdown();
+		}
+
+		for (MyId id : Arrays.asList(SOME_KEY_1, SOME_KEY_2, SOME_KEY_3)) {
+			assertThat(cache.getShard(id).get(id)).isNotNull();
+		}
+		verify(myDbRepository, times(1)).findById(SOME_KEY_1);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_2);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_3);
+	}
+
+	@Test
+	public void shardedCacheRebalancing() throws Exception {
+		ShardedCache cache = new ShardedCache("sharded", Arrays.asList(new ConcurrentMapCache("shard-0"),
+				new ConcurrentMapCache("shard-1"), new ConcurrentMapCache("shard-2"), new ConcurrentMapCache("shard-3")));
+		List<String> keys = new ArrayList<>();
+		Map<String, String> shards = new HashMap<>();
+		for (int i = 0; i < 10_000; i++) {
+			keys.add("key-" + i);
+			shards.put("key-" + i, cache.getShard("key-" + i).getName());
+		}
+
+		// an added shard only takes over keys, about a fifth of them
+		cache.addShard(new ConcurrentMapCache("shard-4"));
+		List<String> moved = keys.stream()
+				.filter(key -> !cache.getShard(key).getName().equals(shards.get(key)))
+				.collect(Collectors.toList());
+		assertThat(moved).hasSizeBetween(1_000, 3_000)
+				.allMatch(key -> cache.getShard(key).getName().equals("shard-4"));
+
+		// a removed shard only hands over its own keys
+		cache.removeShard("shard-4");
+		cache.removeShard("shard-1");
+		assertThat(keys.stream().filter(key -> !shards.get(key).equals("shard-1")))
+				.allMatch(key -> cache.getShard(key).getName().equals(shards.get(key)));
+	}
+
+	@Test
+	public void findByIdsWithHotKeys() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+
+		HotKeyTracker hotKeyTracker = new HotKeyTracker(100);
+		hotKeyTracker.setHotThreshold(2);
+		collectionCacheInterceptor.setHotKeyTracker(hotKeyTracker);
+		try {
+			// the second lookup finds the key hot and pins its value
+			sut.findByIds(ImmutableSet.of(SOME_KEY_1));
+			sut.findByIds(ImmutableSet.of(SOME_KEY_1));
+			cacheManager.getCache("myCache").clear();
+
+			// the pinned value is served although the cache has been cleared
+			assertThat(sut.findByIds(ImmutableSet.of(SOME_KEY_1))).containsOnly(entry(SOME_KEY_1, SOME_VALUE_1));
+			assertThat(hotKeyTracker.getTopKeys()).extracting(HotKeyTracker.HotKey::getKey).containsExactly(SOME_KEY_1);
+		}
+		finally {
+			collectionCacheInterceptor.setHotKeyTracker(null);
+		}
+
+		verify(myDbRepository, times(1)).findById(SOME_KEY_1);
+	}
+
 	@Test
 	public void findAll() throws Exception {
 		when(myDbRepository.findAll()).thenReturn(ImmutableMap.of(SOME_KEY_1, SOME_VALUE_1));
@@ -224,6 +657,496 @@ public class CollectionCacheableIntTest {
 		verify(myDbRepository, times(1)).findById(SOME_KEY_1);
 	}
 
+	@Test
+	public void findAllAsScan() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+		when(myDbRepository.findAll()).thenReturn(ImmutableMap.of(SOME_KEY_2, SOME_VALUE_2, SOME_KEY_3, SOME_VALUE_3));
+
+		TinyLfuAdmissionPolicy admissionPolicy = new TinyLfuAdmissionPolicy(100);
+		admissionPolicy.setCapacity("myCache", 1);
+		collectionCacheInterceptor.setAdmissionPolicy(admissionPolicy);
+		try {
+			sut.findByIds(ImmutableSet.of(SOME_KEY_1));
+			sut.findByIds(ImmutableSet.of(SOME_KEY_1));
+
+			// the scanned entries are less frequent than the cached one and are not admitted
+			assertThat(sut.findAllAsScan()).containsOnly(entry(SOME_KEY_2, SOME_VALUE_2), entry(SOME_KEY_3, SOME_VALUE_3));
+			assertThat(sut.findByIds(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2)))
+					.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+		}
+		finally {
+			collectionCacheInterceptor.setAdmissionPolicy(null);
+		}
+
+		verify(myDbRepository, times(1)).findById(SOME_KEY_1);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_2);
+	}
+
+	@Test
+	public void findAllAsSnapshot() throws Exception {
+		when(myDbRepository.findAll()).thenReturn(ImmutableMap.of(SOME_KEY_1, SOME_VALUE_1, SOME_KEY_2, SOME_VALUE_2));
+
+		// the second findAll is served from the snapshot, the entries are cached per id as well
+		Map<MyId, MyValue> loaded = sut.findAllAsSnapshot();
+		assertThat(loaded).containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+		assertThatThrownBy(() -> loaded.remove(SOME_KEY_1)).isInstanceOf(UnsupportedOperationException.class);
+		assertThat(sut.findAllAsSnapshot()).containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+		assertThat(sut.findByIds(ImmutableSet.of(SOME_KEY_1))).containsOnly(entry(SOME_KEY_1, SOME_VALUE_1));
+		verify(myDbRepository, times(1)).findAll();
+
+		// another snapshot method on the same cache has a snapshot of its own
+		assertThat(sut.findFirstAsSnapshot()).containsOnly(entry(SOME_KEY_1, SOME_VALUE_1));
+		assertThat(sut.findAllAsSnapshot()).hasSize(2);
+		verify(myDbRepository, times(2)).findAll();
+
+		// an eviction on the same cache invalidates the snapshot
+		sut.delete(Arrays.asList(SOME_KEY_1));
+		assertThat(sut.findAllAsSnapshot()).containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+
+		verify(myDbRepository, times(3)).findAll();
+		verify(myDbRepository, never()).findById(any());
+	}
+
+	@Test
+	public void findAllAsSnapshotWithWeightBudget() throws Exception {
+		when(myDbRepository.findAll()).thenReturn(ImmutableMap.of(SOME_KEY_1, SOME_VALUE_1, SOME_KEY_2, SOME_VALUE_2));
+		// a snapshot weighs as much as its entries, so it does not fit next to them
+		CacheWeightBudget budget = new CacheWeightBudget((key, value) -> value instanceof CollectionCacheSnapshot
+				? ((CollectionCacheSnapshot) value).getEntries().values().stream().mapToLong(v -> ((MyValue) v).getValue().length()).sum()
+				: ((MyValue) value).getValue().length());
+		budget.setBudget("myCache", 30);
+		collectionCacheInterceptor.setWeightBudget(budget);
+		try {
+			// the snapshot exceeding the budget is refused, while its entries are cached per id
+			assertThat(sut.findAllAsSnapshot()).containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+			assertThat(budget.getWeight("myCache")).isEqualTo(24);
+			assertThat(cacheManager.getCache("myCache").get(SOME_KEY_1)).isNotNull();
+
+			// so the next findAll invokes the method again
+			assertThat(sut.findAllAsSnapshot()).containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+		}
+		finally {
+			collectionCacheInterceptor.setWeightBudget(null);
+		}
+
+		verify(myDbRepository, times(2)).findAll();
+	}
+
+	@Test
+	public void findByIdsWithTtl() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+
+		assertThat(sut.findByIdsWithTtl(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2)))
+				.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+
+		// every entry gets the fixed ttl plus its own jitter
+		MyExpiringCache cache = (MyExpiringCache) cacheManager.getCache("myExpiringCache");
+		assertThat(cache.getTimeToLive(SOME_KEY_1)).isBetween(Duration.ofMinutes(10), Duration.ofMinutes(11));
+		assertThat(cache.getTimeToLive(SOME_KEY_2)).isBetween(Duration.ofMinutes(10), Duration.ofMinutes(11));
+	}
+
+	@Test
+	public void findByIdsWithTtlExpression() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+
+		sut.findByIdsWithTtlExpression(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2));
+
+		MyExpiringCache cache = (MyExpiringCache) cacheManager.getCache("myExpiringCache");
+		assertThat(cache.getTimeToLive(SOME_KEY_1)).isEqualTo(Duration.ofMinutes(1));
+		assertThat(cache.getTimeToLive(SOME_KEY_2)).isEqualTo(Duration.ofHours(1));
+	}
+
+	@Test
+	public void findByIdsWithLookupBudget() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+		when(myDbRepository.findById(SOME_KEY_3)).thenReturn(SOME_VALUE_3);
+		sut.findByIdsWithLookupBudget(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2, SOME_KEY_3));
+
+		MyFlakyCache cache = (MyFlakyCache) cacheManager.getCache("myFlakyCache");
+		CollectionCacheTuningRegistry registry = new CollectionCacheTuningRegistry(null);
+		collectionCacheInterceptor.setTuningRegistry(registry);
+		ExecutorService executor = FanOutExecutors.newFanOutExecutor(2);
+		cache.setDelayMillis(20);
+		try {
+			// the first lookup spends the whole budget, the remaining ids are loaded
+			assertThat(sut.findByIdsWithLookupBudget(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2, SOME_KEY_3)))
+					.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2), entry(SOME_KEY_3, SOME_VALUE_3));
+			// the ids not looked up are no misses
+			CollectionCacheOperationTuning tuning = registry.getTunings().stream()
+					.filter(t -> t.getOperation().contains("findByIdsWithLookupBudget")).findFirst().get();
+			assertThat(tuning.getHits()).isEqualTo(1);
+			assertThat(tuning.getMisses()).isZero();
+
+			// with a fan-out executor, the caller stops waiting for a slow lookup at the budget
+			collectionCacheInterceptor.setFanOutExecutor(executor);
+			cache.setDelayMillis(1000);
+			long start = System.nanoTime();
+			assertThat(sut.findByIdsWithLookupBudget(ImmutableSet.of(SOME_KEY_1)))
+					.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1));
+			assertThat(System.nanoTime() - start).isLessThan(TimeUnit.MILLISECONDS.toNanos(500));
+			assertThat(tuning.getHits()).isEqualTo(1);
+			assertThat(tuning.getMisses()).isZero();
+		}
+		finally {
+			cache.setDelayMillis(0);
+			collectionCacheInterceptor.setFanOutExecutor(null);
+			collectionCacheInterceptor.setTuningRegistry(null);
+			executor.shutdownNow();
+		}
+
+		verify(myDbRepository, times(2)).findById(SOME_KEY_1);
+		verify(myDbRepository, times(2)).findById(SOME_KEY_2);
+		verify(myDbRepository, times(2)).findById(SOME_KEY_3);
+	}
+
+	@Test
+	public void findByIdsWithBloomFilter() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+		// put around the collection operations, so not recorded by the filter
+		cacheManager.getCache("myCache").put(SOME_KEY_2, SOME_VALUE_2);
+
+		CacheBloomFilter filter = new CacheBloomFilter(1000, 0.001, "myCache");
+		collectionCacheInterceptor.setBloomFilter(filter);
+		try {
+			// the filter rules out both keys, which are loaded without looking them up
+			assertThat(sut.findByIds(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2)))
+					.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+			assertThat(filter.mightContain("myCache", SOME_KEY_1)).isTrue();
+			assertThat(sut.findByIds(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2)))
+					.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+
+			// keys not put again drop out after two generations
+			filter.rebuild("myCache");
+			filter.rebuild("myCache");
+			assertThat(sut.findByIds(ImmutableSet.of(SOME_KEY_1)))
+					.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1));
+		}
+		finally {
+			collectionCacheInterceptor.setBloomFilter(null);
+		}
+
+		verify(myDbRepository, times(2)).findById(SOME_KEY_1);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_2);
+	}
+
+	@Test
+	public void tuningRegistry() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		CollectionCacheTuningRegistry registry = new CollectionCacheTuningRegistry(mBeanServer);
+		collectionCacheInterceptor.setTuningRegistry(registry);
+		ObjectName name = new ObjectName(CollectionCacheTuningRegistry.DOMAIN + ":type=CollectionCacheable,name="
+				+ ObjectName.quote(MyRepository.class.getMethod("findByIds", Collection.class).toString()));
+		try {
+			// the operations parsed on startup are registered before their first invocation
+			assertThat(mBeanServer.isRegistered(name)).isTrue();
+			sut.findByIds(ImmutableSet.of(SOME_KEY_1));
+			sut.findByIds(ImmutableSet.of(SOME_KEY_1));
+			assertThat(mBeanServer.getAttribute(name, "Hits")).isEqualTo(1L);
+			assertThat(mBeanServer.getAttribute(name, "Misses")).isEqualTo(1L);
+
+			// a disabled operation invokes the method every time
+			mBeanServer.setAttribute(name, new Attribute("Enabled", false));
+			sut.findByIds(ImmutableSet.of(SOME_KEY_1));
+			mBeanServer.setAttribute(name, new Attribute("Enabled", true));
+
+			// write-behind puts the loaded entries after returning
+			mBeanServer.setAttribute(name, new Attribute("Population", "WRITE_BEHIND"));
+			assertThat(sut.findByIds(ImmutableSet.of(SOME_KEY_2))).containsOnly(entry(SOME_KEY_2, SOME_VALUE_2));
+			Cache cache = cacheManager.getCache("myCache");
+			awaitUntil(() -> cache.get(SOME_KEY_2) != null);
+		}
+		finally {
+			collectionCacheInterceptor.setTuningRegistry(null);
+			registry.close();
+		}
+		assertThat(mBeanServer.isRegistered(name)).isFalse();
+		assertThat(registry.getTunings()).isEmpty();
+
+		verify(myDbRepository, times(2)).findById(SOME_KEY_1);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_2);
+	}
+
+	@Test
+	public void findByIdsWithDeadline() throws Exception {
+		CountDownLatch slowLoad = new CountDownLatch(1);
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenAnswer(invocation -> {
+			slowLoad.await(10, TimeUnit.SECONDS);
+			return SOME_VALUE_2;
+		});
+		sut.findById(SOME_KEY_1);
+
+		// only the hit is returned once the deadline has passed
+		assertThat(sut.findByIdsWithDeadline(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2)))
+				.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1));
+
+		// an id still loading in the background is waited for, not loaded once more
+		assertThat(sut.findByIdsWithDeadline(ImmutableSet.of(SOME_KEY_2))).isEmpty();
+
+		// the load completes in the background, and is cached for the next invocation
+		slowLoad.countDown();
+		Cache cache = cacheManager.getCache("myCache");
+		awaitUntil(() -> cache.get(SOME_KEY_2) != null);
+		assertThat(sut.findByIdsWithDeadline(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2)))
+				.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2));
+
+		verify(myDbRepository, times(1)).findById(SOME_KEY_1);
+		verify(myDbRepository, times(1)).findById(SOME_KEY_2);
+
+		// a load finishing after an evict on its cache does not put its entries there
+		CountDownLatch staleLoad = new CountDownLatch(1);
+		when(myDbRepository.findById(SOME_KEY_3)).thenAnswer(invocation -> {
+			staleLoad.await(10, TimeUnit.SECONDS);
+			return SOME_VALUE_3;
+		});
+		assertThat(sut.findByIdsWithDeadline(ImmutableSet.of(SOME_KEY_3))).isEmpty();
+		sut.delete(ImmutableList.of(SOME_KEY_3));
+		staleLoad.countDown();
+		Thread.sleep(100);
+		assertThat(cache.get(SOME_KEY_3)).isNull();
+
+		// an operation with a deadline needs a background load executor
+		CollectionCacheInterceptor interceptor = new CollectionCacheInterceptor();
+		interceptor.configure(null, null, null, () -> cacheManager);
+		interceptor.afterSingletonsInstantiated();
+		Collection<CacheOperation> operations = new CollectionCacheableCacheAnnotationParser()
+				.parseCacheAnnotations(MyRepository.class.getMethod("findByIdsWithDeadline", Collection.class));
+		assertThatThrownBy(() -> interceptor.registerOperation(operations.iterator().next()))
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("background load executor");
+	}
+
+	@Test
+	public void findByIdsWithCircuitBreaker() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		CacheCircuitBreaker breaker = new CacheCircuitBreaker();
+		breaker.setFailureThreshold(1);
+		breaker.setCoolDownMillis(60_000);
+		MyFlakyCache cache = (MyFlakyCache) cacheManager.getCache("myFlakyCache");
+		collectionCacheInterceptor.setCircuitBreaker(breaker);
+		cache.setFailing(true);
+		try {
+			// the failure is still reported to the error handler, and opens the circuit
+			assertThatThrownBy(() -> sut.findByIdsWithLookupBudget(ImmutableSet.of(SOME_KEY_1)))
+					.isInstanceOf(IllegalStateException.class);
+			assertThat(breaker.isOpen("myFlakyCache")).isTrue();
+
+			// the open circuit skips the cache, so the ids are loaded without failing
+			assertThat(sut.findByIdsWithLookupBudget(ImmutableSet.of(SOME_KEY_1))).containsOnly(entry(SOME_KEY_1, SOME_VALUE_1));
+			assertThat(cache.getNativeCache()).isEmpty();
+
+			// a lookup started before the circuit opened does not close it on returning
+			breaker.onSuccess("myFlakyCache", 0);
+			assertThat(breaker.isOpen("myFlakyCache")).isTrue();
+
+			cache.setFailing(false);
+			breaker.reset("myFlakyCache");
+			assertThat(sut.findByIdsWithLookupBudget(ImmutableSet.of(SOME_KEY_1))).containsOnly(entry(SOME_KEY_1, SOME_VALUE_1));
+			assertThat(sut.findByIdsWithLookupBudget(ImmutableSet.of(SOME_KEY_1))).containsOnly(entry(SOME_KEY_1, SOME_VALUE_1));
+		}
+		finally {
+			cache.setFailing(false);
+			collectionCacheInterceptor.setCircuitBreaker(null);
+		}
+
+		verify(myDbRepository, times(2)).findById(SOME_KEY_1);
+	}
+
+	@Test
+	public void invalidationBus() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+		InJvmInvalidationTransport transport = new InJvmInvalidationTransport();
+		ConcurrentMapCacheManager remoteCacheManager = new ConcurrentMapCacheManager("myCache");
+		Cache remoteCache = remoteCacheManager.getCache("myCache");
+		remoteCache.put(SOME_KEY_1.getId(), SOME_VALUE_1);
+		remoteCache.put(SOME_KEY_2.getId(), SOME_VALUE_2);
+		try (InvalidationBus localBus = new InvalidationBus(transport, cacheManager);
+				InvalidationBus remoteBus = new InvalidationBus(transport, remoteCacheManager)) {
+			collectionCacheInterceptor.setInvalidationBus(localBus);
+			try {
+				// a local eviction is broadcast to the other node
+				sut.delete(ImmutableList.of(SOME_KEY_1));
+				awaitUntil(() -> remoteCache.get(SOME_KEY_1.getId()) == null);
+				assertThat(remoteCache.get(SOME_KEY_2.getId())).isNotNull();
+
+				// an eviction broadcast by the other node is applied locally
+				assertThat(sut.findByIds(ImmutableSet.of(SOME_KEY_2))).containsOnly(entry(SOME_KEY_2, SOME_VALUE_2));
+				remoteBus.invalidate("myCache", SOME_KEY_2);
+				awaitUntil(() -> cacheManager.getCache("myCache").get(SOME_KEY_2) == null);
+				assertThat(sut.findByIds(ImmutableSet.of(SOME_KEY_2))).containsOnly(entry(SOME_KEY_2, SOME_VALUE_2));
+			}
+			finally {
+				collectionCacheInterceptor.setInvalidationBus(null);
+			}
+		}
+
+		// a closed bus neither collects nor sends keys
+		InvalidationBus closedBus = new InvalidationBus(transport, cacheManager);
+		closedBus.close();
+		List<InvalidationMessage> published = new CopyOnWriteArrayList<>();
+		transport.subscribe(published::add);
+		closedBus.invalidate("myCache", SOME_KEY_1.getId());
+		closedBus.flush();
+		assertThat(published).isEmpty();
+
+		verify(myDbRepository, times(2)).findById(SOME_KEY_2);
+	}
+
+	@Test
+	public void socketInvalidationTransport() throws Exception {
+		ConcurrentMapCacheManager remoteCacheManager = new ConcurrentMapCacheManager("myCache");
+		Cache remoteCache = remoteCacheManager.getCache("myCache");
+		remoteCache.put(SOME_KEY_1.getId(), SOME_VALUE_1);
+		remoteCache.put(SOME_KEY_2.getId(), SOME_VALUE_2);
+		try (SocketInvalidationTransport localTransport = new SocketInvalidationTransport(0);
+				SocketInvalidationTransport remoteTransport = new SocketInvalidationTransport(0);
+				InvalidationBus localBus = new InvalidationBus(localTransport, new ConcurrentMapCacheManager());
+				InvalidationBus remoteBus = new InvalidationBus(remoteTransport, remoteCacheManager)) {
+			localTransport.addPeer(remoteTransport.getPort());
+			List<InvalidationMessage> received = new CopyOnWriteArrayList<>();
+			remoteTransport.subscribe(received::add);
+			List<Object> invalidated = new CopyOnWriteArrayList<>();
+			remoteBus.addListener((cache, keys) -> invalidated.addAll(keys));
+
+			// keys evicted within the batch window are sent as one message
+			localBus.setBatchWindowMillis(50);
+			localBus.invalidate("myCache", SOME_KEY_1.getId());
+			localBus.invalidate("myCache", SOME_KEY_2.getId());
+			awaitUntil(() -> remoteCache.get(SOME_KEY_1.getId()) == null && remoteCache.get(SOME_KEY_2.getId()) == null);
+			assertThat(received).hasSize(1);
+			awaitUntil(() -> invalidated.size() == 2);
+			assertThat(invalidated).containsOnly(SOME_KEY_1.getId(), SOME_KEY_2.getId());
+		}
+	}
+
+	@Test
+	public void findByIdsRecordsFlightRecorderEvents() throws Exception {
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+		sut.findByIds(ImmutableSet.of(SOME_KEY_1));
+
+		Path dump = Files.createTempFile("collection-cache", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("com.calm.spring.collection.cacheable.Invocation");
+			recording.enable("com.calm.spring.collection.cacheable.Load");
+			recording.start();
+			sut.findByIds(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2));
+			recording.stop();
+			recording.dump(dump);
+
+			List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+			RecordedEvent invocation = events.stream()
+					.filter(e -> e.getEventType().getName().endsWith(".Invocation")).findFirst().get();
+			assertThat(invocation.getString("operation")).endsWith("MyRepository.findByIds");
+			assertThat(invocation.getInt("requested")).isEqualTo(2);
+			assertThat(invocation.getInt("hits")).isEqualTo(1);
+			assertThat(invocation.getInt("misses")).isEqualTo(1);
+			RecordedEvent load = events.stream()
+					.filter(e -> e.getEventType().getName().endsWith(".Load")).findFirst().get();
+			assertThat(load.getInt("ids")).isEqualTo(1);
+			assertThat(load.getInt("loaded")).isEqualTo(1);
+		}
+		finally {
+			Files.delete(dump);
+		}
+	}
+
+	@Test
+	public void compressingCache() throws Exception {
+		ConcurrentMapCache target = new ConcurrentMapCache("myCompressedCache");
+		CompressingCache cache = new CompressingCache(target, new DeflateCompressionCodec());
+		cache.setThreshold(256);
+		String large = String.join(",", Collections.nCopies(200, "some-value"));
+
+		// only values from the threshold on are compressed, and all are read back as put
+		cache.put(SOME_KEY_1, "some-value-1");
+		cache.putAll(ImmutableMap.of(SOME_KEY_2, large, SOME_KEY_3, "some-value-3"));
+		assertThat(target.getNativeCache().get(SOME_KEY_1)).isEqualTo("some-value-1");
+		assertThat(target.getNativeCache().get(SOME_KEY_2)).isInstanceOf(CompressingCache.CompressedValue.class);
+		assertThat(((CompressingCache.CompressedValue) target.getNativeCache().get(SOME_KEY_2)).getData().length)
+				.isLessThan(large.length() / 10);
+		assertThat(target.getNativeCache().get(SOME_KEY_3)).isEqualTo("some-value-3");
+		assertThat(cache.get(SOME_KEY_1, String.class)).isEqualTo("some-value-1");
+		assertThat(cache.get(SOME_KEY_2, String.class)).isEqualTo(large);
+		assertThat(cache.get(SOME_KEY_3).get()).isEqualTo("some-value-3");
+
+		// the time to live is passed on to an expiring target
+		MyExpiringCache expiringTarget = new MyExpiringCache("myCompressedExpiringCache");
+		CompressingCache expiringCache = new CompressingCache(expiringTarget, new DeflateCompressionCodec());
+		expiringCache.put(SOME_KEY_1, large, Duration.ofMinutes(10));
+		assertThat(expiringTarget.getTimeToLive(SOME_KEY_1)).isEqualTo(Duration.ofMinutes(10));
+		assertThat(expiringCache.get(SOME_KEY_1, String.class)).isEqualTo(large);
+
+		// the entries loaded by a collection operation are compressed in one batch
+		when(myDbRepository.findById(SOME_KEY_1)).thenReturn(SOME_VALUE_1);
+		when(myDbRepository.findById(SOME_KEY_2)).thenReturn(SOME_VALUE_2);
+		when(myDbRepository.findById(SOME_KEY_3)).thenReturn(SOME_VALUE_3);
+		assertThat(sut.findByIdsCompressed(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2, SOME_KEY_3))).hasSize(3);
+		assertThat(myCompressionCodec.getBatchSizes()).containsExactly(3);
+		MyExpiringCache compressedTarget = (MyExpiringCache) ((CompressingCache) cacheManager.getCache("myCompressedCache")).getTargetCache();
+		assertThat(compressedTarget.getNativeCache().get(SOME_KEY_1)).isInstanceOf(CompressingCache.CompressedValue.class);
+		assertThat(compressedTarget.getTimeToLive(SOME_KEY_1)).isEqualTo(Duration.ofMinutes(10));
+		assertThat(sut.findByIdsCompressed(ImmutableSet.of(SOME_KEY_1, SOME_KEY_2, SOME_KEY_3)))
+				.containsOnly(entry(SOME_KEY_1, SOME_VALUE_1), entry(SOME_KEY_2, SOME_VALUE_2), entry(SOME_KEY_3, SOME_VALUE_3));
+		verify(myDbRepository, times(1)).findById(SOME_KEY_1);
+	}
+
+	@Test
+	public void compactBinarySerializer() throws Exception {
+		CompactBinarySerializer serializer = new CompactBinarySerializer("com.calm.spring.collection.cacheable");
+		ConcurrentMapCache target = new ConcurrentMapCache("myCompactCache");
+		CompressingCache cache = new CompressingCache(target, new DeflateCompressionCodec(), serializer, serializer);
+		cache.setThreshold(0);
+		Map<MyId, List<MyValue>> value = ImmutableMap.of(SOME_KEY_1, ImmutableList.of(SOME_VALUE_1, SOME_VALUE_2));
+
+		// POJOs without default constructor or Serializable are written, and read back equal
+		cache.putAll(ImmutableMap.of(SOME_KEY_1, SOME_VALUE_1, SOME_KEY_2, value));
+		assertThat(target.getNativeCache().get(SOME_KEY_1)).isInstanceOf(CompressingCache.CompressedValue.class);
+		assertThat(cache.get(SOME_KEY_1, MyValue.class)).isEqualTo(SOME_VALUE_1);
+		assertThat(cache.get(SOME_KEY_2).get()).isEqualTo(value);
+
+		// the class name is written once, the field names never
+		ArrayList<Object> values = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			values.add(new MySerializableValue("some-value-" + i));
+		}
+		assertThat(new SerializedSizeWeigher(serializer).weigh(SOME_KEY_1, values))
+				.isLessThan(new SerializedSizeWeigher().weigh(SOME_KEY_1, values));
+		assertThat(new SerializedSizeWeigher(serializer).weigh(SOME_KEY_1, SOME_VALUE_1))
+				.isLessThan(SOME_VALUE_1.getClass().getName().length() + SOME_VALUE_1.getValue().length() + 8);
+
+		// classes outside of the allowed packages are neither created nor deserialized
+		CompactBinarySerializer restricted = new CompactBinarySerializer(MyValue.class.getName());
+		FastByteArrayOutputStream bytes = new FastByteArrayOutputStream();
+		serializer.serialize(ImmutableList.of(SOME_VALUE_1, new MySerializableValue("some-value")), bytes);
+		assertThatThrownBy(() -> restricted.deserialize(bytes.getInputStream())).isInstanceOf(InvalidClassException.class);
+		bytes.reset();
+		serializer.serialize(SOME_VALUE_1, bytes);
+		assertThat(restricted.deserialize(bytes.getInputStream())).isEqualTo(SOME_VALUE_1);
+
+		// JDK value types are allowed, other JDK classes are not
+		bytes.reset();
+		List<Object> jdkValues = ImmutableList.of(new BigDecimal("1.50"), Instant.ofEpochSecond(1), UUID.randomUUID());
+		restricted.serialize(jdkValues, bytes);
+		assertThat(restricted.deserialize(bytes.getInputStream())).isEqualTo(jdkValues);
+		bytes.reset();
+		serializer.serialize(new AtomicLong(1), bytes);
+		assertThatThrownBy(() -> serializer.deserialize(bytes.getInputStream())).isInstanceOf(InvalidClassException.class);
+
+		// a corrupted length fails on the missing data rather than allocating it
+		byte[] hugeList = {12, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07};
+		assertThatThrownBy(() -> serializer.deserialize(new ByteArrayInputStream(hugeList))).isInstanceOf(EOFException.class);
+		byte[] hugeBytes = {11, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 1, 2, 3};
+		assertThatThrownBy(() -> serializer.deserialize(new ByteArrayInputStream(hugeBytes))).isInstanceOf(EOFException.class);
+	}
+
 	@Test
 	public void findAllWithKey() throws Exception {
 		when(myDbRepository.findAll()).thenReturn(ImmutableMap.of(SOME_KEY_1, SOME_VALUE_1));
@@ -234,6 +1157,14 @@ public class CollectionCacheableIntTest {
 		verify(myDbRepository, never()).findById(any());
 	}
 
+	private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime() - deadline).as("condition met in time").isNegative();
+			Thread.sleep(5);
+		}
+	}
+
 	@Test
 	public void test() {
 		when(myDbRepository.findAll()).thenReturn(ImmutableMap.of(SOME_KEY_1, SOME_VALUE_1));
@@ -255,11 +1186,59 @@ public class CollectionCacheableIntTest {
 		sut.delete(Arrays.asList(new MyId("test")));
 	}
 
+	static class MySerializableValue implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String value;
+
+		MySerializableValue(String value) {
+			this.value = value;
+		}
+	}
+
 	@Configuration
 	@EnableCaching
 	@EnableAutoConfiguration
 	@Import({MyRepository.class, CollectionCacheableProxyCachingConfiguration.class})
 	public static class TestConfig {
 
+		@Bean(destroyMethod = "shutdown")
+		public ExecutorService backgroundLoadExecutor(CollectionCacheInterceptor collectionCacheInterceptor) {
+			ExecutorService executor = Executors.newFixedThreadPool(2);
+			collectionCacheInterceptor.setBackgroundLoadExecutor(executor);
+			return executor;
+		}
+
+		@Bean
+		public MyCompressionCodec myCompressionCodec() {
+			return new MyCompressionCodec();
+		}
+
+		@Bean
+		public CacheManager cacheManager(MyCompressionCodec myCompressionCodec) {
+			return new ConcurrentMapCacheManager() {
+				@Override
+				protected Cache createConcurrentMapCache(String name) {
+					if ("myExpiringCache".equals(name)) {
+						return new MyExpiringCache(name);
+					}
+					if ("myCompressedCache".equals(name)) {
+						CompactBinarySerializer serializer = new CompactBinarySerializer("com.calm.spring.collection.cacheable");
+						CompressingCache cache = new CompressingCache(new MyExpiringCache(name), myCompressionCodec, serializer, serializer);
+						cache.setThreshold(0);
+						return cache;
+					}
+					if ("myFlakyCache".equals(name)) {
+						return new MyFlakyCache(name);
+					}
+					if ("myShardedCache".equals(name)) {
+						return new ShardedCache(name, Arrays.asList(new ConcurrentMapCache("shard-0"),
+								new ConcurrentMapCache("shard-1"), new ConcurrentMapCache("shard-2")));
+					}
+					return super.createConcurrentMapCache(name);
+				}
+			};
+		}
 	}
 }
\ No newline at end of file
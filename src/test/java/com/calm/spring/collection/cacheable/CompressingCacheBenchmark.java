@@ -0,0 +1,87 @@
+package com.calm.spring.collection.cacheable;
+
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.Deflater;
+
+/**
+ * Measures the CPU cost of a {@link CompressingCache} against the bytes it saves,
+ * for JSON-like values of growing size and the compression levels of
+ * {@link DeflateCompressionCodec}.
+ * <p>Not a test: run its {@code main} method on a quiet machine.
+ */
+public class CompressingCacheBenchmark {
+
+	private static final int BATCH_SIZE = 100;
+
+	private static final int WARMUP_ROUNDS = 200;
+
+	private static final int ROUNDS = 500;
+
+	public static void main(String[] args) {
+		System.out.printf("%8s %6s %12s %12s %8s %14s %14s%n",
+				"fields", "level", "raw bytes", "stored bytes", "ratio", "put ns/entry", "get ns/entry");
+		for (int fields : new int[]{4, 16, 64, 256}) {
+			Map<Object, Object> batch = newBatch(fields);
+			run(batch, fields, "raw", null);
+			for (int level : new int[]{Deflater.BEST_SPEED, 6, Deflater.BEST_COMPRESSION}) {
+				run(batch, fields, String.valueOf(level), new DeflateCompressionCodec(level));
+			}
+		}
+	}
+
+	private static void run(Map<Object, Object> batch, int fields, String level, DeflateCompressionCodec codec) {
+		ConcurrentMapCache target = new ConcurrentMapCache("benchmark", true);
+		CompressingCache cache = new CompressingCache(target, codec != null ? codec : new DeflateCompressionCodec());
+		cache.setThreshold(codec != null ? 0 : Integer.MAX_VALUE);
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			putAndGet(cache, batch);
+		}
+		long putNanos = 0;
+		long getNanos = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			cache.putAll(batch);
+			long put = System.nanoTime();
+			for (Object key : batch.keySet()) {
+				cache.get(key);
+			}
+			putNanos += put - start;
+			getNanos += System.nanoTime() - put;
+		}
+		long rawBytes = 0;
+		long storedBytes = 0;
+		SerializedSizeWeigher weigher = new SerializedSizeWeigher();
+		for (Map.Entry<Object, Object> entry : batch.entrySet()) {
+			rawBytes += weigher.weigh(entry.getKey(), entry.getValue());
+			storedBytes += weigher.weigh(entry.getKey(), target.getNativeCache().get(entry.getKey()));
+		}
+		long entries = (long) ROUNDS * batch.size();
+		System.out.printf("%8d %6s %12d %12d %8.2f %14d %14d%n", fields, level, rawBytes, storedBytes,
+				(double) rawBytes / storedBytes, putNanos / entries, getNanos / entries);
+	}
+
+	private static void putAndGet(CompressingCache cache, Map<Object, Object> batch) {
+		cache.putAll(batch);
+		for (Object key : batch.keySet()) {
+			cache.get(key);
+		}
+	}
+
+	private static Map<Object, Object> newBatch(int fields) {
+		Map<Object, Object> batch = new LinkedHashMap<>();
+		for (int id = 0; id < BATCH_SIZE; id++) {
+			List<String> json = new ArrayList<>(fields);
+			for (int field = 0; field < fields; field++) {
+				json.add("\"field" + field + "\":\"value-" + ThreadLocalRandom.current().nextInt(1000) + "\"");
+			}
+			batch.put("id-" + id, "{" + String.join(",", json) + "}");
+		}
+		return batch;
+	}
+}
@@ -0,0 +1,21 @@
+package com.calm.spring.collection.cacheable.test;
+
+import com.calm.spring.collection.cacheable.DeflateCompressionCodec;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class MyCompressionCodec extends DeflateCompressionCodec {
+
+	private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+	@Override
+	public List<byte[]> compressAll(List<byte[]> data) {
+		batchSizes.add(data.size());
+		return super.compressAll(data);
+	}
+
+	public List<Integer> getBatchSizes() {
+		return batchSizes;
+	}
+}
@@ -6,4 +6,6 @@ public interface MyDbRepository {
     MyValue findById(MyId id);
 
     Map<MyId, MyValue> findAll();
+
+    Map<Long, MyValue> findByIdRange(long from, long to);
 }
@@ -0,0 +1,35 @@
+package com.calm.spring.collection.cacheable.test;
+
+import com.calm.spring.collection.cacheable.ExpiringCache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class MyExpiringCache extends ConcurrentMapCache implements ExpiringCache {
+
+	private final Map<Object, Duration> timeToLives = new ConcurrentHashMap<>();
+
+	public MyExpiringCache(String name) {
+		super(name);
+	}
+
+	@Override
+	public void put(Object key, @Nullable Object value, Duration timeToLive) {
+		put(key, value);
+		timeToLives.put(key, timeToLive);
+	}
+
+	@Nullable
+	public Duration getTimeToLive(Object key) {
+		return timeToLives.get(key);
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		timeToLives.clear();
+	}
+}
@@ -0,0 +1,38 @@
+package com.calm.spring.collection.cacheable.test;
+
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+
+public class MyFlakyCache extends ConcurrentMapCache {
+
+	private volatile boolean failing;
+
+	private volatile long delayMillis;
+
+	public MyFlakyCache(String name) {
+		super(name);
+	}
+
+	public void setFailing(boolean failing) {
+		this.failing = failing;
+	}
+
+	public void setDelayMillis(long delayMillis) {
+		this.delayMillis = delayMillis;
+	}
+
+	@Override
+	public ValueWrapper get(Object key) {
+		if (failing) {
+			throw new IllegalStateException("Cache " + getName() + " is down");
+		}
+		if (delayMillis > 0) {
+			try {
+				Thread.sleep(delayMillis);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return super.get(key);
+	}
+}
@@ -1,6 +1,9 @@
 package com.calm.spring.collection.cacheable.test;
 
+import com.calm.spring.collection.cacheable.annotation.Admission;
+import com.calm.spring.collection.cacheable.annotation.CollectionCacheBatched;
 import com.calm.spring.collection.cacheable.annotation.CollectionCacheEvict;
+import com.calm.spring.collection.cacheable.annotation.CollectionCacheIds;
 import com.calm.spring.collection.cacheable.annotation.CollectionCachePut;
 import com.calm.spring.collection.cacheable.annotation.CollectionCacheable;
 import org.slf4j.Logger;
@@ -11,6 +14,8 @@ import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Repository;
 
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -37,7 +42,12 @@ public class MyRepository {
 		return myDbRepository.findById(id);
 	}
 
-	@CollectionCacheable(cacheNames = "myCache", key = "#result.id")
+	@CollectionCacheBatched(cacheNames = "myCache", collectionMethod = "findByIds", maxBatchSize = 3, batchWindowMillis = 60_000)
+	public MyValue findByIdBatched(MyId id) {
+		throw new UnsupportedOperationException("Loaded by findByIds");
+	}
+
+	@CollectionCacheable(cacheNames = "myCache")
 	public Map<MyId, MyValue> findByIds(Collection<MyId> ids) {
 		LOGGER.info("Getting mapped values for ids={}", ids);
 		return ids.stream().collect(Collectors.toMap(x -> x, myDbRepository::findById));
@@ -61,12 +71,113 @@ public class MyRepository {
 		return ids.stream().collect(Collectors.toMap(x -> x, myDbRepository::findById));
 	}
 
+	@CollectionCacheable(cacheNames = "myCache", compositeResult = true)
+	public Map<MyId, MyValue> findByIdsWithCompositeResult(Collection<MyId> ids) {
+		LOGGER.info("Getting mapped values as composite result for ids={}", ids);
+		return ids.stream().collect(Collectors.toMap(x -> x, myDbRepository::findById));
+	}
+
+	@CollectionCacheable(cacheNames = "myCache", minHitRatio = 0.5)
+	public Map<MyId, MyValue> findByIdsWithMinHitRatio(Collection<MyId> ids) {
+		LOGGER.info("Getting mapped values with min hit ratio for ids={}", ids);
+		return ids.stream().collect(Collectors.toMap(x -> x, myDbRepository::findById));
+	}
+
+	@CollectionCacheable(cacheNames = "myListCache", resultKey = "new com.calm.spring.collection.cacheable.test.MyId(#result.value)")
+	public List<MyValue> findByIdsAsList(Collection<MyId> ids) {
+		LOGGER.info("Getting listed values for ids={}", ids);
+		return ids.stream().map(myDbRepository::findById).collect(Collectors.toList());
+	}
+
+	@CollectionCacheable(cacheNames = "myListCache", resultKey = "new com.calm.spring.collection.cacheable.test.MyId(#result.value)", page = true)
+	public List<MyValue> findPage(int page, int size) {
+		LOGGER.info("Getting page={} of size={}", page, size);
+		return myDbRepository.findAll().values().stream()
+				.sorted(Comparator.comparing(MyValue::getValue))
+				.skip((long) page * size)
+				.limit(size)
+				.collect(Collectors.toList());
+	}
+
+	@CollectionCacheable(cacheNames = "myExpiringCache", ttl = "PT10M", ttlJitter = "PT1M")
+	public Map<MyId, MyValue> findByIdsWithTtl(Collection<MyId> ids) {
+		LOGGER.info("Getting expiring values for ids={}", ids);
+		return ids.stream().collect(Collectors.toMap(x -> x, myDbRepository::findById));
+	}
+
+	@CollectionCacheable(cacheNames = "myCompressedCache", ttl = "PT10M")
+	public Map<MyId, MyValue> findByIdsCompressed(Collection<MyId> ids) {
+		LOGGER.info("Getting compressed values for ids={}", ids);
+		return ids.stream().collect(Collectors.toMap(x -> x, myDbRepository::findById));
+	}
+
+	@CollectionCacheable(cacheNames = "myExpiringCache", ttl = "#result.value == 'some-value-1' ? 60000 : T(java.time.Duration).ofHours(1)")
+	public Map<MyId, MyValue> findByIdsWithTtlExpression(Collection<MyId> ids) {
+		LOGGER.info("Getting expiring values for ids={}", ids);
+		return ids.stream().collect(Collectors.toMap(x -> x, myDbRepository::findById));
+	}
+
+	@CollectionCacheable(cacheNames = "myFlakyCache", lookupBudgetMillis = 10)
+	public Map<MyId, MyValue> findByIdsWithLookupBudget(Collection<MyId> ids) {
+		LOGGER.info("Getting values with lookup budget for ids={}", ids);
+		return ids.stream().collect(Collectors.toMap(x -> x, myDbRepository::findById));
+	}
+
+	@CollectionCacheable(cacheNames = "myCache", deadlineMillis = 100)
+	public Map<MyId, MyValue> findByIdsWithDeadline(Collection<MyId> ids) {
+		LOGGER.info("Getting values with deadline for ids={}", ids);
+		return ids.stream().collect(Collectors.toMap(x -> x, myDbRepository::findById));
+	}
+
+	@CollectionCacheable(cacheNames = "myRangeCache", range = true)
+	public Map<Long, MyValue> findByIdRange(long from, long to) {
+		LOGGER.info("Getting values for ids from={} to={}", from, to);
+		return myDbRepository.findByIdRange(from, to);
+	}
+
+	@CollectionCacheable(cacheNames = "myCache", elementUnless = "#result.value == 'some-value-2'")
+	public Map<MyId, MyValue> findByIdsWithElementUnless(Collection<MyId> ids) {
+		LOGGER.info("Getting filtered values for ids={}", ids);
+		return ids.stream().collect(Collectors.toMap(x -> x, myDbRepository::findById));
+	}
+
+	@CollectionCacheable(cacheNames = "myShardedCache")
+	public Map<MyId, MyValue> findByIdsSharded(Collection<MyId> ids) {
+		LOGGER.info("Getting sharded values for ids={}", ids);
+		return ids.stream().collect(Collectors.toMap(x -> x, myDbRepository::findById));
+	}
+
+	@CollectionCacheable(cacheNames = "myTenantCache")
+	public Map<MyId, MyValue> findByIdsForTenant(String tenant, @CollectionCacheIds Collection<MyId> ids) {
+		LOGGER.info("Getting mapped values for tenant={} and ids={}", tenant, ids);
+		return ids.stream().collect(Collectors.toMap(x -> x, myDbRepository::findById));
+	}
+
 	@CollectionCacheable("myCache")
 	public Map<MyId, MyValue> findAll() {
 		LOGGER.info("Getting all values");
 		return myDbRepository.findAll();
 	}
 
+	@CollectionCacheable(cacheNames = "myCache", admission = Admission.SCAN)
+	public Map<MyId, MyValue> findAllAsScan() {
+		LOGGER.info("Getting all values as scan");
+		return myDbRepository.findAll();
+	}
+
+	@CollectionCacheable(cacheNames = "myCache", snapshot = true)
+	public Map<MyId, MyValue> findAllAsSnapshot() {
+		LOGGER.info("Getting all values as snapshot");
+		return myDbRepository.findAll();
+	}
+
+	@CollectionCacheable(cacheNames = "myCache", snapshot = true)
+	public Map<MyId, MyValue> findFirstAsSnapshot() {
+		LOGGER.info("Getting first value as snapshot");
+		return myDbRepository.findAll().entrySet().stream().limit(1)
+				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+	}
+
 	@CollectionCacheable(cacheNames = "myCache", unless = "#result.size() > 1")
 	public Map<MyId, MyValue> findAllWithUnless() {
 		LOGGER.info("Getting all values with unless");
@@ -79,7 +190,7 @@ public class MyRepository {
 		return myDbRepository.findAll();
 	}
 
-	@CollectionCachePut(cacheNames = "myCache", key = "#result.id")
+	@CollectionCachePut(cacheNames = "myCache", key = "#result.value")
 	public Collection<MyValue> test(MyId id) {
 		return myDbRepository.findAll().values();
 	}
@@ -92,4 +203,12 @@ public class MyRepository {
 	@CollectionCacheEvict(cacheNames = "myCache", key = "#id.id", beforeInvocation = true)
 	public void delete(Collection<MyId> id) {
 	}
+
+	@CollectionCacheEvict(cacheNames = "myListCache")
+	public void deleteListed(Collection<MyId> ids) {
+	}
+
+	@CollectionCacheEvict(cacheNames = "myRangeCache")
+	public void deleteRange(Collection<Long> ids) {
+	}
 }
@@ -0,0 +1,225 @@
+package com.calm.spring.collection.cacheable.test;
+
+import com.calm.spring.collection.cacheable.InvalidationMessage;
+import com.calm.spring.collection.cacheable.InvalidationTransport;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.core.ConfigurableObjectInputStream;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.ClassUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * {@link InvalidationTransport} exchanging Java serialized messages with peer
+ * transports over TCP connections on the loopback interface, e.g. between several
+ * processes or application contexts in integration tests.
+ * <p>Each transport listens on its own port, and sends every message to all peers
+ * {@link #addPeer added} to it. A message that cannot be sent to a peer is dropped
+ * for that peer, and the connection is reopened for the next one.
+ * <p>Only meant for tests: the transport deserializes whatever its peers send, so it
+ * is not shipped with the library.
+ */
+public class SocketInvalidationTransport implements InvalidationTransport, Closeable {
+
+	private static final Log logger = LogFactory.getLog(SocketInvalidationTransport.class);
+
+	private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+	private final ServerSocket serverSocket;
+
+	private final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("collection-cache-invalidation-socket-");
+
+	private final List<Peer> peers = new CopyOnWriteArrayList<>();
+
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+	private final List<Consumer<InvalidationMessage>> subscribers = new CopyOnWriteArrayList<>();
+
+	private volatile boolean closed;
+
+	/**
+	 * Create a transport listening on the given loopback port, or on a free one for
+	 * {@code 0}.
+	 */
+	public SocketInvalidationTransport(int port) throws IOException {
+		this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		this.threadFactory.setDaemon(true);
+		this.threadFactory.newThread(this::accept).start();
+	}
+
+	/**
+	 * Return the loopback port this transport listens on.
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Send all further messages to the transport listening on the given loopback port.
+	 */
+	public void addPeer(int port) {
+		peers.add(new Peer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+	}
+
+	@Override
+	public void publish(InvalidationMessage message) {
+		byte[] bytes = serialize(message);
+		for (Peer peer : peers) {
+			try {
+				peer.send(bytes);
+			}
+			catch (IOException ex) {
+				logger.warn("Dropped invalidation for peer " + peer.address + ": " + ex);
+			}
+		}
+	}
+
+	@Override
+	public void subscribe(Consumer<InvalidationMessage> subscriber) {
+		subscribers.add(subscriber);
+	}
+
+	private byte[] serialize(InvalidationMessage message) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(message);
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException("Failed to serialize " + message, ex);
+		}
+		return bytes.toByteArray();
+	}
+
+	private void accept() {
+		while (!closed) {
+			try {
+				Socket connection = serverSocket.accept();
+				connections.add(connection);
+				threadFactory.newThread(() -> read(connection)).start();
+			}
+			catch (IOException ex) {
+				if (!closed) {
+					logger.warn("Failed to accept invalidation connection", ex);
+				}
+			}
+		}
+	}
+
+	private void read(Socket connection) {
+		try (DataInputStream in = new DataInputStream(connection.getInputStream())) {
+			while (!closed) {
+				int length = in.readInt();
+				if (length < 0 || length > MAX_MESSAGE_SIZE) {
+					throw new IOException("Invalid invalidation message size " + length);
+				}
+				byte[] bytes = new byte[length];
+				in.readFully(bytes);
+				InvalidationMessage message = deserialize(bytes);
+				for (Consumer<InvalidationMessage> subscriber : subscribers) {
+					subscriber.accept(message);
+				}
+			}
+		}
+		catch (EOFException ex) {
+			// the peer closed the connection
+		}
+		catch (IOException | ClassNotFoundException | RuntimeException ex) {
+			if (!closed) {
+				logger.warn("Closing invalidation connection from " + connection.getRemoteSocketAddress(), ex);
+			}
+		}
+		finally {
+			connections.remove(connection);
+			closeQuietly(connection);
+		}
+	}
+
+	private InvalidationMessage deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ConfigurableObjectInputStream(
+				new ByteArrayInputStream(bytes), ClassUtils.getDefaultClassLoader())) {
+			Object message = in.readObject();
+			if (!(message instanceof InvalidationMessage)) {
+				throw new IOException("Unexpected invalidation message " + message);
+			}
+			return (InvalidationMessage) message;
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		closeQuietly(serverSocket);
+		for (Peer peer : peers) {
+			peer.close();
+		}
+		for (Socket connection : connections) {
+			closeQuietly(connection);
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		}
+		catch (IOException ex) {
+			// nothing left to do
+		}
+	}
+
+	private static final class Peer {
+
+		private final InetSocketAddress address;
+
+		private Socket socket;
+
+		private DataOutputStream out;
+
+		Peer(InetSocketAddress address) {
+			this.address = address;
+		}
+
+		synchronized void send(byte[] bytes) throws IOException {
+			try {
+				if (socket == null) {
+					socket = new Socket(address.getAddress(), address.getPort());
+					socket.setTcpNoDelay(true);
+					out = new DataOutputStream(socket.getOutputStream());
+				}
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				out.flush();
+			}
+			catch (IOException ex) {
+				close();
+				throw ex;
+			}
+		}
+
+		synchronized void close() {
+			if (socket != null) {
+				closeQuietly(socket);
+				socket = null;
+				out = null;
+			}
+		}
+	}
+}